@@ -288,7 +288,6 @@ final class Application implements AutoCloseable {
         // endregion
 
         // region 7. command buffer submission and testing
-        Fence fence = Fence.createLocal(cx);
         SubmitInfo submitInfo = new SubmitInfo(List.of(commandBuffer), List.of(), List.of(), List.of());
 
         for (int i = 0; i < 4; i++) {
@@ -296,6 +295,7 @@ final class Application implements AutoCloseable {
             inputBuffer.mapped.copyFrom(MemorySegment.ofArray(inputValues[i]));
 
             // submit command buffer
+            Fence fence = cx.fencePool.acquire();
             if (cx.hasComputeQueue()) {
                 cx.submitCompute(submitInfo, fence);
             } else {
@@ -304,7 +304,7 @@ final class Application implements AutoCloseable {
 
             // wait for the command buffer to finish execution
             cx.waitForFence(fence);
-            cx.resetFence(fence);
+            cx.fencePool.release(fence);
 
             float hidden1 = pHiddenLayerOutputMapped.read(0);
             float hidden2 = pHiddenLayerOutputMapped.read(1);
@@ -1,51 +1,45 @@
 package club.doki7.rkt.launch.nn;
 
-import club.doki7.ffm.annotation.EnumType;
 import club.doki7.rkt.exc.RenderException;
-import club.doki7.rkt.exc.VulkanException;
 import club.doki7.rkt.vk.RenderContext;
-import club.doki7.rkt.vk.cmd.CommandBuffer;
-import club.doki7.rkt.vk.cmd.CommandPool;
-import club.doki7.rkt.vk.cmd.SubmitInfo;
+import club.doki7.rkt.vk.common.QueueFamily;
 import club.doki7.rkt.vk.pipeline.ComputePipeline;
 import club.doki7.rkt.vk.resc.Buffer;
-import club.doki7.rkt.vk.sync.Fence;
-import club.doki7.vulkan.bitmask.VkCommandBufferUsageFlags;
-import club.doki7.vulkan.bitmask.VkCommandPoolCreateFlags;
-import club.doki7.vulkan.datatype.VkBufferCopy;
-import club.doki7.vulkan.datatype.VkCommandBufferBeginInfo;
-import club.doki7.vulkan.enumtype.VkCommandBufferLevel;
-import club.doki7.vulkan.enumtype.VkResult;
-
-import java.lang.foreign.Arena;
+import club.doki7.rkt.vk.resc.BufferArena;
+import club.doki7.rkt.vk.resc.Transmission;
+import org.jetbrains.annotations.Nullable;
+
 import java.lang.foreign.MemorySegment;
 import java.util.ArrayList;
 import java.util.List;
 
 public final class MLP implements AutoCloseable {
+    /// 模型参数与任务所用缓冲的所有者标签，见 {@link club.doki7.rkt.vk.RenderContext#memoryStatistics()}
+    public static final String MEMORY_TAG_MODEL = "model";
+    public static final String MEMORY_TAG_TASK = "task";
+
     public final MLPFactory factory;
     public final MLPOptions options;
+    /// 推理任务缓存，空闲任务的显存预算默认为 {@link MLPInferTaskCache#DEFAULT_MEMORY_BUDGET}
+    public final MLPInferTaskCache inferTaskCache;
 
     public MLP(
             MLPFactory factory,
             MLPOptions options,
             RenderContext cx,
+            BufferArena parameterArena,
             List<Buffer> weightBufferList,
             List<Buffer> biasBufferList,
-            List<ComputePipeline> forwardPipelineList,
-            List<ComputePipeline> prewarmPipelineList,
-            List<ComputePipeline> backpropPipelineList,
-            List<ComputePipeline> updatePipelineList
+            List<ComputePipeline> forwardPipelineList
     ) {
         this.factory = factory;
         this.options = options;
         this.cx = cx;
+        this.parameterArena = parameterArena;
         this.weightBufferList = weightBufferList;
         this.biasBufferList = biasBufferList;
         this.forwardPipelineList = forwardPipelineList;
-        this.prewarmPipelineList = prewarmPipelineList;
-        this.backpropPipelineList = backpropPipelineList;
-        this.updatePipelineList = updatePipelineList;
+        this.inferTaskCache = new MLPInferTaskCache(this, MLPInferTaskCache.DEFAULT_MEMORY_BUDGET);
     }
 
     public void uploadWeights(
@@ -55,106 +49,117 @@ public final class MLP implements AutoCloseable {
         assert weightList.size() == options.layers.size();
         assert biasList.size() == options.layers.size();
 
-        int queueFamilyIndex = cx.hasComputeQueue()
-                ? cx.dedicatedComputeQueueFamilyIndex
-                : cx.graphicsQueueFamilyIndex;
-        Buffer.Options stagingOptions = Buffer.OptionsInit.stagingBufferPreset().build();
-
-        List<Buffer> weightStagingBuffers = new ArrayList<>();
-        List<Buffer> biasStagingBuffers = new ArrayList<>();
-        try (Arena arena = Arena.ofConfined();
-             CommandPool cmdPool = CommandPool.create(
-                     cx,
-                     VkCommandPoolCreateFlags.TRANSIENT,
-                     queueFamilyIndex
-             );
-             Fence fence = Fence.createLocal(cx, 0x0)) {
-            CommandBuffer cmdBuf = cmdPool.allocCmdBuf(cx, VkCommandBufferLevel.PRIMARY);
-            cx.dCmd.beginCommandBuffer(cmdBuf.handle, VkCommandBufferBeginInfo.allocate(arena)
-                    .flags(VkCommandBufferUsageFlags.ONE_TIME_SUBMIT));
-            for (int i = 0; i < options.layers.size(); i++) {
-                Buffer weightBuffer = weightBufferList.get(i);
-                Buffer biasBuffer = biasBufferList.get(i);
-                MemorySegment weightSegment = weightList.get(i);
-                MemorySegment biasSegment = biasList.get(i);
-
-                Buffer weightStagingBuffer = Buffer.create(cx, weightBuffer.size, true, stagingOptions);
-                weightStagingBuffers.add(weightStagingBuffer);
-                Buffer biasStagingBuffer = Buffer.create(cx, biasBuffer.size, true, stagingOptions);
-                biasStagingBuffers.add(biasStagingBuffer);
-
-                weightStagingBuffer.mapped.copyFrom(weightSegment);
-                biasStagingBuffer.mapped.copyFrom(biasSegment);
-
-                cx.dCmd.cmdCopyBuffer(
-                        cmdBuf.handle,
-                        weightStagingBuffer.handle,
-                        weightBuffer.handle,
-                        1,
-                        VkBufferCopy.allocate(arena).size(weightBuffer.size)
-                );
-                cx.dCmd.cmdCopyBuffer(
-                        cmdBuf.handle,
-                        biasStagingBuffer.handle,
-                        biasBuffer.handle,
-                        1,
-                        VkBufferCopy.allocate(arena).size(biasBuffer.size)
-                );
-            }
-            @EnumType(VkResult.class) int result = cx.dCmd.endCommandBuffer(cmdBuf.handle);
-            if (result != VkResult.SUCCESS) {
-                throw new VulkanException(result, "无法录制上传权重与偏置所需的命令缓冲");
-            }
+        // 所有层的权重和偏置都在同一个参数缓冲中，一次提交、一条复制命令即可完成上传
+        List<Transmission.UploadJob> jobs = new ArrayList<>();
+        for (int i = 0; i < options.layers.size(); i++) {
+            jobs.add(new Transmission.UploadJob(weightBufferList.get(i), weightList.get(i)));
+            jobs.add(new Transmission.UploadJob(biasBufferList.get(i), biasList.get(i)));
+        }
+        Transmission.uploadBuffers(
+                cx,
+                jobs,
+                cx.hasComputeQueue() ? QueueFamily.COMPUTE : QueueFamily.GRAPHICS
+        );
+    }
 
-            SubmitInfo submitInfo = new SubmitInfo(
-                    List.of(cmdBuf),
-                    List.of(),
-                    List.of(),
-                    List.of()
-            );
-            if (cx.hasComputeQueue()) {
-                cx.submitCompute(submitInfo, fence);
-            } else {
-                cx.submitGraphics(submitInfo, fence);
-            }
-            cx.waitForFence(fence);
-        } finally {
-            for (Buffer buffer : weightStagingBuffers) {
-                buffer.close();
-            }
-            for (Buffer buffer : biasStagingBuffers) {
-                buffer.close();
-            }
+    /// 推理任务中每个样本占用的显存，以字节计，包括输入缓冲。隐藏层的输出按交替复用计算
+    public long inferBytesPerSample() {
+        int hiddenLayerCount = options.layers.size() - 1;
+        long maxHiddenSize = 0;
+        for (int i = 0; i < hiddenLayerCount; i++) {
+            maxHiddenSize = Math.max(maxHiddenSize, options.layers.get(i).size);
+        }
+        long floats = options.inputSize
+                      + Math.min(hiddenLayerCount, 2) * maxHiddenSize
+                      + options.layers.getLast().size;
+        return floats * Float.BYTES;
+    }
+
+    /// 训练任务中每个样本占用的显存，以字节计，包括输入缓冲和标签缓冲
+    public long trainBytesPerSample() {
+        long floats = options.inputSize + options.layers.getLast().size;
+        for (MLPOptions.Layer layer : options.layers) {
+            // 每一层的输出和梯度
+            floats += 2L * layer.size;
         }
+        return floats * Float.BYTES;
+    }
+
+    /// 根据当前显存预算的剩余空间，返回推理任务能使用的最大批次大小，不超过 `maxBatchSize`。
+    /// 返回 `0` 表示剩余的预算连一个样本都放不下
+    public int fitInferBatchSize(int maxBatchSize) {
+        return fitBatchSize(inferBytesPerSample(), maxBatchSize);
+    }
+
+    /// 与 {@link #fitInferBatchSize(int)} 相同，但针对训练任务
+    public int fitTrainBatchSize(int maxBatchSize) {
+        return fitBatchSize(trainBytesPerSample(), maxBatchSize);
     }
 
     @Override
     public void close() {
-        for (ComputePipeline pipeline : updatePipelineList) {
-            pipeline.close();
-        }
-        for (ComputePipeline pipeline : backpropPipelineList) {
-            pipeline.close();
-        }
-        for (ComputePipeline pipeline : prewarmPipelineList) {
-            pipeline.close();
+        inferTaskCache.close();
+        synchronized (this) {
+            if (trainPipelines != null) {
+                trainPipelines.close(factory);
+            }
         }
         for (ComputePipeline pipeline : forwardPipelineList) {
-            pipeline.close();
+            factory.releasePipeline(pipeline);
+        }
+        parameterArena.close();
+    }
+
+    /// 训练所需的管线，只在第一次创建训练任务时才会创建
+    static final class TrainPipelines {
+        final List<ComputePipeline> prewarmPipelineList;
+        final List<ComputePipeline> backpropPipelineList;
+        final List<ComputePipeline> updatePipelineList;
+
+        TrainPipelines(
+                List<ComputePipeline> prewarmPipelineList,
+                List<ComputePipeline> backpropPipelineList,
+                List<ComputePipeline> updatePipelineList
+        ) {
+            this.prewarmPipelineList = prewarmPipelineList;
+            this.backpropPipelineList = backpropPipelineList;
+            this.updatePipelineList = updatePipelineList;
         }
-        for (Buffer buffer : weightBufferList) {
-            buffer.close();
+
+        void close(MLPFactory factory) {
+            for (ComputePipeline pipeline : updatePipelineList) {
+                factory.releasePipeline(pipeline);
+            }
+            for (ComputePipeline pipeline : backpropPipelineList) {
+                factory.releasePipeline(pipeline);
+            }
+            for (ComputePipeline pipeline : prewarmPipelineList) {
+                factory.releasePipeline(pipeline);
+            }
         }
-        for (Buffer buffer : biasBufferList) {
-            buffer.close();
+    }
+
+    private int fitBatchSize(long bytesPerSample, int maxBatchSize) {
+        long available = cx.memoryStatistics().deviceLocalAvailable();
+        // 为子缓冲对齐、选项缓冲以及驱动自身的开销留出余量
+        available -= available / BUDGET_HEADROOM_DIVISOR;
+        return (int) Math.min(maxBatchSize, available / bytesPerSample);
+    }
+
+    synchronized TrainPipelines trainPipelines() throws RenderException {
+        if (trainPipelines == null) {
+            trainPipelines = factory.createTrainPipelines(options);
         }
+        return trainPipelines;
     }
 
     final RenderContext cx;
+    /// 所有层的权重和偏置缓冲都是这块缓冲的子缓冲
+    final BufferArena parameterArena;
     final List<Buffer> weightBufferList;
     final List<Buffer> biasBufferList;
     final List<ComputePipeline> forwardPipelineList;
-    final List<ComputePipeline> prewarmPipelineList;
-    final List<ComputePipeline> backpropPipelineList;
-    final List<ComputePipeline> updatePipelineList;
+    private @Nullable TrainPipelines trainPipelines;
+
+    private static final long BUDGET_HEADROOM_DIVISOR = 16;
 }
@@ -0,0 +1,115 @@
+package club.doki7.rkt.launch.nn;
+
+import club.doki7.rkt.exc.VulkanException;
+import club.doki7.rkt.vk.resc.Buffer;
+import club.doki7.rkt.vk.sync.DeviceFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/// 多缓冲推理任务，以迭代器的形式依次产出输入缓冲中每个批次的推理结果。
+///
+/// 任务内部持有 `depth` 个 {@link MLPInferTask}，每个都有独立的选项缓冲、输出缓冲和预录制的命令缓冲，
+/// 并轮流使用它们。调用者处理第 N 个批次的输出时，设备已经在执行之后的 `depth - 1` 个批次。
+public final class MLPBufferedInferTask implements AutoCloseable {
+    public static final class Batch {
+        public final int batchStart;
+        public final int count;
+        /// 本批次最后一层的输出缓冲，仅在下一次调用 {@link MLPBufferedInferTask#next()} 之前有效
+        public final Buffer outputBuffer;
+
+        Batch(int batchStart, int count, Buffer outputBuffer) {
+            this.batchStart = batchStart;
+            this.count = count;
+            this.outputBuffer = outputBuffer;
+        }
+    }
+
+    public final int batchSize;
+    public final int depth;
+    public final Buffer inputBuffer;
+
+    public MLPBufferedInferTask(
+            MLP mlp,
+            int batchSize,
+            int depth,
+            Buffer inputBuffer,
+            boolean mappedOutputBuffer
+    ) throws VulkanException {
+        if (depth < 2) {
+            throw new IllegalArgumentException("多缓冲推理任务至少需要两个缓冲");
+        }
+
+        this.batchSize = batchSize;
+        this.depth = depth;
+        this.inputBuffer = inputBuffer;
+        this.totalCount = inputBuffer.size / ((long) mlp.options.inputSize * Float.BYTES);
+        this.batchCount = (int) Math.ceilDiv(totalCount, (long) batchSize);
+
+        this.taskList = new ArrayList<>();
+        try {
+            for (int i = 0; i < depth; i++) {
+                taskList.add(new MLPInferTask(mlp, batchSize, inputBuffer, mappedOutputBuffer, false));
+            }
+        } catch (VulkanException e) {
+            for (MLPInferTask task : taskList) {
+                task.close();
+            }
+            throw e;
+        }
+        this.futures = new DeviceFuture[depth];
+    }
+
+    public boolean hasNext() {
+        return consumedCount < batchCount;
+    }
+
+    /// 等待下一个批次完成并返回它，同时保证之后最多 `depth - 1` 个批次已经提交到设备
+    public Batch next() throws VulkanException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("所有批次均已推理完毕");
+        }
+
+        // 被覆盖的槽位所对应的批次已经在之前的调用中交给了调用者
+        while (submittedCount < batchCount && submittedCount < consumedCount + depth) {
+            int slot = submittedCount % depth;
+            futures[slot] = taskList.get(slot).executeBatchAsync(submittedCount * batchSize);
+            submittedCount++;
+        }
+
+        int slot = consumedCount % depth;
+        futures[slot].await();
+
+        int batchStart = consumedCount * batchSize;
+        int count = (int) Math.min(batchSize, totalCount - batchStart);
+        taskList.get(slot).invalidateOutput(count);
+        consumedCount++;
+        return new Batch(batchStart, count, taskList.get(slot).outputBufferList.getLast());
+    }
+
+    /// 重新从第一个批次开始迭代，通常用于输入缓冲的内容被更新之后
+    public void rewind() throws VulkanException {
+        for (DeviceFuture future : futures) {
+            if (future != null) {
+                future.await();
+            }
+        }
+        submittedCount = 0;
+        consumedCount = 0;
+    }
+
+    @Override
+    public void close() {
+        for (MLPInferTask task : taskList) {
+            task.close();
+        }
+    }
+
+    private final long totalCount;
+    private final int batchCount;
+    private final List<MLPInferTask> taskList;
+    private final DeviceFuture[] futures;
+    private int submittedCount;
+    private int consumedCount;
+}
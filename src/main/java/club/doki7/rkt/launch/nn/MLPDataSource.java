@@ -0,0 +1,84 @@
+package club.doki7.rkt.launch.nn;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/// 训练数据源，按样本区间向流式训练任务提供输入数据与标签数据。
+///
+/// 数据源不要求整个数据集驻留在主机或设备内存中，例如 {@link #mapFiles} 返回的数据源由内存映射文件支持，
+/// 可以用于远大于设备内存的数据集。
+public interface MLPDataSource {
+    /// 数据集中的样本总数
+    long sampleCount();
+
+    /// 获取 `[sampleStart, sampleStart + count)` 区间内样本的输入数据
+    MemorySegment inputs(long sampleStart, long count) throws IOException;
+
+    /// 获取 `[sampleStart, sampleStart + count)` 区间内样本的标签数据
+    MemorySegment labels(long sampleStart, long count) throws IOException;
+
+    /// 由两段连续内存构造数据源，`inputStride` 与 `labelStride` 分别是每个样本的输入与标签所占的字节数
+    static MLPDataSource ofSegments(
+            MemorySegment inputs,
+            long inputStride,
+            MemorySegment labels,
+            long labelStride
+    ) {
+        long sampleCount = inputs.byteSize() / inputStride;
+        if (labels.byteSize() / labelStride != sampleCount) {
+            throw new IllegalArgumentException("输入数据与标签数据的样本数量不一致");
+        }
+
+        return new MLPDataSource() {
+            @Override
+            public long sampleCount() {
+                return sampleCount;
+            }
+
+            @Override
+            public MemorySegment inputs(long sampleStart, long count) {
+                return inputs.asSlice(sampleStart * inputStride, count * inputStride);
+            }
+
+            @Override
+            public MemorySegment labels(long sampleStart, long count) {
+                return labels.asSlice(sampleStart * labelStride, count * labelStride);
+            }
+        };
+    }
+
+    /// 将输入文件与标签文件映射到内存中构造数据源，映射的生命周期由 `arena` 决定。
+    /// `inputHeaderSize` 与 `labelHeaderSize` 指定文件开头需要跳过的字节数
+    static MLPDataSource mapFiles(
+            Arena arena,
+            Path inputFile,
+            long inputHeaderSize,
+            long inputStride,
+            Path labelFile,
+            long labelHeaderSize,
+            long labelStride
+    ) throws IOException {
+        MemorySegment inputs;
+        MemorySegment labels;
+        try (FileChannel inputChannel = FileChannel.open(inputFile, StandardOpenOption.READ);
+             FileChannel labelChannel = FileChannel.open(labelFile, StandardOpenOption.READ)) {
+            inputs = inputChannel.map(
+                    FileChannel.MapMode.READ_ONLY,
+                    inputHeaderSize,
+                    inputChannel.size() - inputHeaderSize,
+                    arena
+            );
+            labels = labelChannel.map(
+                    FileChannel.MapMode.READ_ONLY,
+                    labelHeaderSize,
+                    labelChannel.size() - labelHeaderSize,
+                    arena
+            );
+        }
+        return ofSegments(inputs, inputStride, labels, labelStride);
+    }
+}
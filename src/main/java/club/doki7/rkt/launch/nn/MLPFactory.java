@@ -20,30 +20,73 @@ import club.doki7.rkt.vk.pipeline.PipelineLayout;
 import club.doki7.rkt.vk.pipeline.ShaderModule;
 import club.doki7.rkt.vk.pipeline.ShaderSpecialisation;
 import club.doki7.rkt.vk.resc.Buffer;
+import club.doki7.rkt.vk.resc.BufferArena;
 import club.doki7.shaderc.Shaderc;
 import club.doki7.shaderc.ShadercUtil;
 import club.doki7.shaderc.enumtype.ShadercIncludeType;
 import club.doki7.shaderc.enumtype.ShadercShaderKind;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.foreign.*;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
 
 public final class MLPFactory implements AutoCloseable {
     public MLPFactory(RenderContext cx) throws RenderException {
+        this(cx, null);
+    }
+
+    /// `spvCacheDirectory` 不为 `null` 时，编译出的 SPIR-V 缓存在该目录中，之后创建的工厂不必重新编译着色器。
+    /// 应用程序应当使用属于自己的用户缓存目录，而不是相对于工作目录的路径。
+    ///
+    /// 缓存键包含 shaderc 动态库文件的指纹，找不到动态库文件时不启用缓存
+    public MLPFactory(RenderContext cx, @Nullable Path spvCacheDirectory) throws RenderException {
         this.cx = cx;
-        this.libShaderc = ILibraryLoader.platformLoader().loadLibrary("shaderc_shared");
-        this.shaderCompiler = ShaderCompiler.create(
-                new Shaderc(libShaderc),
-                MLPFactory::rescDirResolve
-        );
+        this.compilerList = new ConcurrentLinkedQueue<>();
+        @Nullable String shadercVersion = spvCacheDirectory != null
+                ? ShaderCompiler.libraryFingerprint(SHADERC_LIBRARY_NAME)
+                : null;
+        if (spvCacheDirectory != null && shadercVersion == null) {
+            logger.warning("找不到 shaderc 动态库文件，无法确定编译器版本，不启用 SPIR-V 缓存");
+        }
+        this.threadCompiler = ThreadLocal.withInitial(() -> {
+            ShaderCompiler compiler = ShaderCompiler.create(
+                    this::loadShaderc,
+                    MLPFactory::rescDirResolve,
+                    spvCacheDirectory,
+                    shadercVersion
+            );
+            compilerList.add(compiler);
+            return compiler;
+        });
+        this.pipelineRegistry = new HashMap<>();
+        this.pipelineOwners = new IdentityHashMap<>();
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.pipelineExecutor = Executors.newFixedThreadPool(PIPELINE_THREAD_COUNT, runnable -> {
+            Thread thread = new Thread(runnable, "MLPFactory-Pipeline-" + threadCounter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
 
         mlpForwardSetLayout = createForwardSetLayout();
         mlpForwardPipelineLayout = PipelineLayout.create(cx, List.of(mlpForwardSetLayout), List.of());
-        mlpForwardModule = createShaderModule("mlp_forward.comp.glsl");
+        forwardModule = new LazyShaderModule("mlp_forward.comp.glsl");
 
         mlpWeightPrewarmSetLayout = createWeightPrewarmSetLayout();
         mlpWeightPrewarmPipelineLayout = PipelineLayout.create(
@@ -54,163 +97,394 @@ public final class MLPFactory implements AutoCloseable {
                 // };
                 List.of(new PushConstantRange(Float.BYTES, Set.of(ShaderStage.COMPUTE)))
         );
-        mlpWeightPrewarmModule = createShaderModule("mlp_weight_prewarm.comp.glsl");
+        weightPrewarmModule = new LazyShaderModule("mlp_weight_prewarm.comp.glsl");
 
         mlpErrorSetLayout = createErrorSetLayout();
         mlpErrorPipelineLayout = PipelineLayout.create(cx, List.of(mlpErrorSetLayout), List.of());
-        mlpErrorMSEModule = createShaderModule("mlp_error_mse.comp.glsl");
-        mlpErrorCrossEntropyModule = createShaderModule("mlp_error_cross_entropy.comp.glsl");
+        errorMSEModule = new LazyShaderModule("mlp_error_mse.comp.glsl");
+        errorCrossEntropyModule = new LazyShaderModule("mlp_error_cross_entropy.comp.glsl");
 
         mlpUpdateWeightsSetLayout = createUpdateWeightsSetLayout();
         mlpUpdateWeightsPipelineLayout = PipelineLayout.create(cx, List.of(mlpUpdateWeightsSetLayout), List.of());
-        mlpUpdateWeightsModule = createShaderModule("mlp_update_weights.comp.glsl");
+        updateWeightsModule = new LazyShaderModule("mlp_update_weights.comp.glsl");
 
         mlpBackpropSetLayout = createBackpropSetLayout();
         mlpBackpropPipelineLayout = PipelineLayout.create(cx, List.of(mlpBackpropSetLayout), List.of());
-        mlpBackpropModule = createShaderModule("mlp_backprop.comp.glsl");
+        backpropModule = new LazyShaderModule("mlp_backprop.comp.glsl");
     }
 
+    /// 创建模型及其前向传播管线。训练所需的管线在第一次创建训练任务时才会创建，见 {@link MLP#trainPipelines()}
     public MLP createModel(MLPOptions options) throws RenderException {
         Buffer.OptionsInit storageOptionsInit = new Buffer.OptionsInit();
         storageOptionsInit.usage = Set.of(Buffer.Usage.STORAGE_BUFFER, Buffer.Usage.TRANSFER_DST);
         if (Assertion.assertionEnabled) {
             storageOptionsInit.mapped = true;
             storageOptionsInit.coherent = true;
+        } else {
+            storageOptionsInit.directUpload = true;
         }
+        storageOptionsInit.tag = MLP.MEMORY_TAG_MODEL;
         Buffer.Options stroageOptions = storageOptionsInit.build();
 
+        List<Long> parameterSizeList = new ArrayList<>();
+        List<PipelineRequest> forwardRequestList = new ArrayList<>();
+
+        int inputSize = options.inputSize;
+        for (MLPOptions.Layer layer : options.layers) {
+            int layerInputSize = inputSize;
+            forwardRequestList.add(new PipelineRequest(
+                    mlpForwardPipelineLayout,
+                    forwardModule,
+                    ForwardShaderSpec.SPEC_ENTRIES,
+                    specData(ForwardShaderSpec.LAYOUT, spec -> {
+                        spec.set(ValueLayout.JAVA_INT, ForwardShaderSpec.OFFSET_tx, layer.perceptronWorkgroupSize);
+                        spec.set(ValueLayout.JAVA_INT, ForwardShaderSpec.OFFSET_ty, 1);
+                        spec.set(ValueLayout.JAVA_INT, ForwardShaderSpec.OFFSET_perceptronCount, layer.size);
+                        spec.set(ValueLayout.JAVA_INT, ForwardShaderSpec.OFFSET_inputSize, layerInputSize);
+                        spec.set(ValueLayout.JAVA_INT, ForwardShaderSpec.OFFSET_activation, layer.activ.value);
+                        spec.set(ValueLayout.JAVA_BOOLEAN, ForwardShaderSpec.OFFSET_useSharedMemory, options.useSharedMemory);
+                    })
+            ));
+
+            parameterSizeList.add((long) inputSize * layer.size * Float.BYTES);
+            parameterSizeList.add((long) layer.size * Float.BYTES);
+
+            inputSize = layer.size;
+        }
+
+        // 所有层的权重和偏置交替排列在同一块缓冲中
+        BufferArena parameterArena = BufferArena.create(cx, parameterSizeList, false, stroageOptions);
         List<Buffer> weightBufferList = new ArrayList<>();
         List<Buffer> biasBufferList = new ArrayList<>();
-        List<ComputePipeline> forwardPipelineList = new ArrayList<>();
-        List<ComputePipeline> prewarmPipelineList = new ArrayList<>();
-        List<ComputePipeline> backpropPipelineList = new ArrayList<>();
-        List<ComputePipeline> updatePipelineList = new ArrayList<>();
-
-        try (Arena arena = Arena.ofConfined()) {
-            MemorySegment forwardSpec = arena.allocate(ForwardShaderSpec.LAYOUT);
-            forwardSpec.set(ValueLayout.JAVA_INT, ForwardShaderSpec.OFFSET_ty, 1);
-            forwardSpec.set(ValueLayout.JAVA_BOOLEAN, ForwardShaderSpec.OFFSET_useSharedMemory, options.useSharedMemory);
-
-            MemorySegment updateWeightSpec = arena.allocate(UpdateWeightsShaderSpec.LAYOUT);
-            updateWeightSpec.set(ValueLayout.JAVA_INT, UpdateWeightsShaderSpec.OFFSET_ty, 1);
-
-            int inputSize = options.inputSize;
-            int inputPerceptronWorkgroupSize = options.layers.getFirst().perceptronWorkgroupSize;
-            for (int i = 0; i < options.layers.size(); i++) {
-                MLPOptions.Layer layer = options.layers.get(i);
-
-                forwardSpec.set(ValueLayout.JAVA_INT, ForwardShaderSpec.OFFSET_tx, layer.perceptronWorkgroupSize);
-                forwardSpec.set(ValueLayout.JAVA_INT, ForwardShaderSpec.OFFSET_perceptronCount, layer.size);
-                forwardSpec.set(ValueLayout.JAVA_INT, ForwardShaderSpec.OFFSET_inputSize, inputSize);
-                forwardSpec.set(ValueLayout.JAVA_INT, ForwardShaderSpec.OFFSET_activation, layer.activ.value);
-
-                forwardPipelineList.add(ComputePipeline.create(
-                        cx,
-                        mlpForwardPipelineLayout,
-                        mlpForwardModule,
-                        new ShaderSpecialisation(ForwardShaderSpec.SPEC_ENTRIES, forwardSpec)
-                ));
-
-                prewarmPipelineList.add(ComputePipeline.create(
-                        cx,
-                        mlpWeightPrewarmPipelineLayout,
-                        mlpWeightPrewarmModule,
-                        // memory layout and data are compatible, so we can reuse the same memory segment
-                        new ShaderSpecialisation(WeightPrewarmShaderSpec.SPEC_ENTRIES, forwardSpec)
-                ));
-
-                updateWeightSpec.set(ValueLayout.JAVA_INT, UpdateWeightsShaderSpec.OFFSET_tx, inputPerceptronWorkgroupSize);
-                updateWeightSpec.set(ValueLayout.JAVA_INT, UpdateWeightsShaderSpec.OFFSET_ty, layer.perceptronWorkgroupSize);
-                updateWeightSpec.set(ValueLayout.JAVA_INT, UpdateWeightsShaderSpec.OFFSET_perceptronCount, layer.size);
-                updateWeightSpec.set(ValueLayout.JAVA_INT, UpdateWeightsShaderSpec.OFFSET_inputSize, inputSize);
-
-                updatePipelineList.add(ComputePipeline.create(
-                        cx,
-                        mlpUpdateWeightsPipelineLayout,
-                        mlpUpdateWeightsModule,
-                        new ShaderSpecialisation(UpdateWeightsShaderSpec.SPEC_ENTRIES, updateWeightSpec)
-                ));
-
-                if (i != options.layers.size() - 1) {
-                    MLPOptions.Layer nextLayer = options.layers.get(i + 1);
-
-                    MemorySegment backpropSpec = arena.allocate(BackpropShaderSpec.LAYOUT);
-                    backpropSpec.set(ValueLayout.JAVA_INT, BackpropShaderSpec.OFFSET_tx, layer.perceptronWorkgroupSize);
-                    backpropSpec.set(ValueLayout.JAVA_INT, BackpropShaderSpec.OFFSET_ty, 1);
-                    backpropSpec.set(ValueLayout.JAVA_INT, BackpropShaderSpec.OFFSET_perceptronCount, layer.size);
-                    backpropSpec.set(ValueLayout.JAVA_INT, BackpropShaderSpec.OFFSET_nextPerceptronCount, nextLayer.size);
-                    backpropSpec.set(ValueLayout.JAVA_INT, BackpropShaderSpec.OFFSET_activation, layer.activ.value);
-
-                    backpropPipelineList.add(ComputePipeline.create(
-                            cx,
-                            mlpBackpropPipelineLayout,
-                            mlpBackpropModule,
-                            new ShaderSpecialisation(BackpropShaderSpec.SPEC_ENTRIES, backpropSpec)
-                    ));
-                }
-
-                int weightBufferSize = inputSize * layer.size * Float.BYTES;
-                int biasBufferSize = layer.size * Float.BYTES;
-
-                weightBufferList.add(Buffer.create(
-                        cx,
-                        weightBufferSize,
-                        false,
-                        stroageOptions
-                ));
-                biasBufferList.add(Buffer.create(
-                        cx,
-                        biasBufferSize,
-                        false,
-                        stroageOptions
-                ));
+        for (int i = 0; i < options.layers.size(); i++) {
+            weightBufferList.add(parameterArena.slices.get(i * 2));
+            biasBufferList.add(parameterArena.slices.get(i * 2 + 1));
+        }
 
-                inputSize = layer.size;
-                inputPerceptronWorkgroupSize = layer.perceptronWorkgroupSize;
-            }
+        List<ComputePipeline> forwardPipelineList;
+        try {
+            forwardPipelineList = createPipelines(forwardRequestList);
+        } catch (RenderException e) {
+            parameterArena.close();
+            throw e;
         }
 
         return new MLP(
                 this,
                 options,
                 cx,
+                parameterArena,
                 weightBufferList,
                 biasBufferList,
-                forwardPipelineList,
-                prewarmPipelineList,
-                backpropPipelineList,
-                updatePipelineList
+                forwardPipelineList
         );
     }
 
     @Override
     public void close() {
-        mlpBackpropModule.close();
+        // 管线线程可能仍在使用着色器编译器和着色器模块，必须等它们全部结束后才能销毁这些对象，
+        // 因此即使被中断也要继续等待，只在最后恢复中断状态
+        pipelineExecutor.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (pipelineExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (pipelineRegistry) {
+            if (!pipelineOwners.isEmpty()) {
+                logger.warning("销毁 MLPFactory 时仍有 " + pipelineOwners.size() + " 个管线未被释放");
+                for (ComputePipeline pipeline : pipelineOwners.keySet()) {
+                    pipeline.close();
+                }
+                pipelineOwners.clear();
+                pipelineRegistry.clear();
+            }
+        }
+
+        backpropModule.close();
         mlpBackpropPipelineLayout.close();
         mlpBackpropSetLayout.close();
 
-        mlpUpdateWeightsModule.close();
+        updateWeightsModule.close();
         mlpUpdateWeightsPipelineLayout.close();
         mlpUpdateWeightsSetLayout.close();
 
-        mlpErrorCrossEntropyModule.close();
-        mlpErrorMSEModule.close();
+        errorCrossEntropyModule.close();
+        errorMSEModule.close();
         mlpErrorPipelineLayout.close();
         mlpErrorSetLayout.close();
 
-        mlpWeightPrewarmModule.close();
+        weightPrewarmModule.close();
         mlpWeightPrewarmPipelineLayout.close();
         mlpWeightPrewarmSetLayout.close();
 
-        mlpForwardModule.close();
+        forwardModule.close();
         mlpForwardPipelineLayout.close();
         mlpForwardSetLayout.close();
 
-        shaderCompiler.close();
-        libShaderc.close();
+        for (ShaderCompiler compiler : compilerList) {
+            compiler.close();
+        }
+        synchronized (this) {
+            if (libShaderc != null) {
+                libShaderc.close();
+            }
+        }
+    }
+
+    ShaderModule mlpErrorMSEModule() throws RenderException {
+        return errorMSEModule.get();
+    }
+
+    ShaderModule mlpErrorCrossEntropyModule() throws RenderException {
+        return errorCrossEntropyModule.get();
+    }
+
+    /// 并行创建模型训练所需的权重预热、反向传播和权重更新管线
+    MLP.TrainPipelines createTrainPipelines(MLPOptions options) throws RenderException {
+        List<PipelineRequest> requestList = new ArrayList<>();
+
+        int inputSize = options.inputSize;
+        int inputPerceptronWorkgroupSize = options.layers.getFirst().perceptronWorkgroupSize;
+        for (MLPOptions.Layer layer : options.layers) {
+            int layerInputSize = inputSize;
+            int layerInputPerceptronWorkgroupSize = inputPerceptronWorkgroupSize;
+
+            requestList.add(new PipelineRequest(
+                    mlpWeightPrewarmPipelineLayout,
+                    weightPrewarmModule,
+                    WeightPrewarmShaderSpec.SPEC_ENTRIES,
+                    // memory layout and data are compatible, so we can reuse the forward shader spec layout
+                    specData(ForwardShaderSpec.LAYOUT, spec -> {
+                        spec.set(ValueLayout.JAVA_INT, ForwardShaderSpec.OFFSET_tx, layer.perceptronWorkgroupSize);
+                        spec.set(ValueLayout.JAVA_INT, ForwardShaderSpec.OFFSET_ty, 1);
+                        spec.set(ValueLayout.JAVA_INT, ForwardShaderSpec.OFFSET_perceptronCount, layer.size);
+                        spec.set(ValueLayout.JAVA_INT, ForwardShaderSpec.OFFSET_inputSize, layerInputSize);
+                        spec.set(ValueLayout.JAVA_INT, ForwardShaderSpec.OFFSET_activation, layer.activ.value);
+                        spec.set(ValueLayout.JAVA_BOOLEAN, ForwardShaderSpec.OFFSET_useSharedMemory, options.useSharedMemory);
+                    })
+            ));
+            requestList.add(new PipelineRequest(
+                    mlpUpdateWeightsPipelineLayout,
+                    updateWeightsModule,
+                    UpdateWeightsShaderSpec.SPEC_ENTRIES,
+                    specData(UpdateWeightsShaderSpec.LAYOUT, spec -> {
+                        spec.set(ValueLayout.JAVA_INT, UpdateWeightsShaderSpec.OFFSET_tx, layerInputPerceptronWorkgroupSize);
+                        spec.set(ValueLayout.JAVA_INT, UpdateWeightsShaderSpec.OFFSET_ty, layer.perceptronWorkgroupSize);
+                        spec.set(ValueLayout.JAVA_INT, UpdateWeightsShaderSpec.OFFSET_perceptronCount, layer.size);
+                        spec.set(ValueLayout.JAVA_INT, UpdateWeightsShaderSpec.OFFSET_inputSize, layerInputSize);
+                    })
+            ));
+
+            inputSize = layer.size;
+            inputPerceptronWorkgroupSize = layer.perceptronWorkgroupSize;
+        }
+
+        for (int i = 0; i < options.layers.size() - 1; i++) {
+            MLPOptions.Layer layer = options.layers.get(i);
+            MLPOptions.Layer nextLayer = options.layers.get(i + 1);
+            requestList.add(new PipelineRequest(
+                    mlpBackpropPipelineLayout,
+                    backpropModule,
+                    BackpropShaderSpec.SPEC_ENTRIES,
+                    specData(BackpropShaderSpec.LAYOUT, spec -> {
+                        spec.set(ValueLayout.JAVA_INT, BackpropShaderSpec.OFFSET_tx, layer.perceptronWorkgroupSize);
+                        spec.set(ValueLayout.JAVA_INT, BackpropShaderSpec.OFFSET_ty, 1);
+                        spec.set(ValueLayout.JAVA_INT, BackpropShaderSpec.OFFSET_perceptronCount, layer.size);
+                        spec.set(ValueLayout.JAVA_INT, BackpropShaderSpec.OFFSET_nextPerceptronCount, nextLayer.size);
+                        spec.set(ValueLayout.JAVA_INT, BackpropShaderSpec.OFFSET_activation, layer.activ.value);
+                    })
+            ));
+        }
+
+        List<ComputePipeline> pipelineList = createPipelines(requestList);
+
+        int layerCount = options.layers.size();
+        List<ComputePipeline> prewarmPipelineList = new ArrayList<>();
+        List<ComputePipeline> updatePipelineList = new ArrayList<>();
+        for (int i = 0; i < layerCount; i++) {
+            prewarmPipelineList.add(pipelineList.get(i * 2));
+            updatePipelineList.add(pipelineList.get(i * 2 + 1));
+        }
+        List<ComputePipeline> backpropPipelineList = new ArrayList<>(pipelineList.subList(layerCount * 2, pipelineList.size()));
+        return new MLP.TrainPipelines(prewarmPipelineList, backpropPipelineList, updatePipelineList);
+    }
+
+    /// 在线程池中并行创建一组管线，返回的管线与请求一一对应。任何一个管线创建失败时，已经创建的管线会被销毁
+    private List<ComputePipeline> createPipelines(List<PipelineRequest> requestList) throws RenderException {
+        List<Future<ComputePipeline>> futureList = new ArrayList<>();
+        for (PipelineRequest request : requestList) {
+            futureList.add(pipelineExecutor.submit(() -> acquirePipeline(
+                    request.layout,
+                    request.module.get(),
+                    request.specEntries,
+                    request.specData
+            )));
+        }
+
+        List<ComputePipeline> pipelineList = new ArrayList<>();
+        @Nullable Throwable failure = null;
+        for (Future<ComputePipeline> future : futureList) {
+            try {
+                pipelineList.add(future.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+
+        if (failure != null) {
+            for (ComputePipeline pipeline : pipelineList) {
+                releasePipeline(pipeline);
+            }
+            if (failure instanceof RenderException renderException) {
+                throw renderException;
+            } else if (failure instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new RenderException("无法创建计算管线: " + failure.getMessage());
+        }
+        return pipelineList;
+    }
+
+    /// 从管线注册表中取得一个管线。着色器模块、管线布局和特化常量数据都相同的管线只会被创建一次，
+    /// 由所有使用者共享，并在最后一个使用者调用 {@link #releasePipeline(ComputePipeline)} 时被销毁
+    ComputePipeline acquirePipeline(
+            PipelineLayout layout,
+            ShaderModule module,
+            List<ShaderSpecialisation.Entry> specEntries,
+            byte[] specData
+    ) throws RenderException {
+        PipelineKey key = new PipelineKey(layout, module, specEntries, specData);
+        SharedPipeline shared;
+        synchronized (pipelineRegistry) {
+            shared = pipelineRegistry.computeIfAbsent(key, SharedPipeline::new);
+            shared.refCount++;
+        }
+
+        // 只锁住这一个条目，不同的管线仍然可以并行创建
+        synchronized (shared) {
+            if (shared.pipeline != null) {
+                return shared.pipeline;
+            }
+
+            ComputePipeline pipeline;
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment specSegment = arena.allocate(specData.length, Integer.BYTES);
+                specSegment.copyFrom(MemorySegment.ofArray(specData));
+                pipeline = ComputePipeline.create(
+                        cx,
+                        layout,
+                        module,
+                        new ShaderSpecialisation(specEntries, specSegment)
+                );
+            } catch (RenderException | RuntimeException e) {
+                synchronized (pipelineRegistry) {
+                    shared.refCount--;
+                    if (shared.refCount == 0) {
+                        pipelineRegistry.remove(key, shared);
+                    }
+                }
+                throw e;
+            }
+
+            synchronized (pipelineRegistry) {
+                shared.pipeline = pipeline;
+                pipelineOwners.put(pipeline, shared);
+            }
+            return pipeline;
+        }
+    }
+
+    void releasePipeline(ComputePipeline pipeline) {
+        synchronized (pipelineRegistry) {
+            @Nullable SharedPipeline shared = pipelineOwners.get(pipeline);
+            if (shared == null) {
+                throw new IllegalArgumentException("管线不是由管线注册表创建的，或已经被释放");
+            }
+
+            shared.refCount--;
+            if (shared.refCount != 0) {
+                return;
+            }
+            pipelineRegistry.remove(shared.key, shared);
+            pipelineOwners.remove(pipeline);
+        }
+        pipeline.close();
+    }
+
+    /// 注册表中当前存活的管线数量
+    public int pipelineCount() {
+        synchronized (pipelineRegistry) {
+            return pipelineOwners.size();
+        }
+    }
+
+    static byte[] specData(StructLayout layout, Consumer<MemorySegment> writer) {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment segment = arena.allocate(layout);
+            writer.accept(segment);
+            return segment.toArray(ValueLayout.JAVA_BYTE);
+        }
+    }
+
+    /// 读取构建时由 glslc 预编译的 SPIR-V，见 `pom.xml` 中的 `compile-nn-shaders`。
+    /// 启用了 Java 断言时读取定义了 `DEFENSIVE` 宏的版本，与运行时编译的行为保持一致
+    private static @Nullable BytePtr loadPrecompiledSPV(Arena arena, String shaderName) {
+        String baseName = shaderName.substring(0, shaderName.length() - ".glsl".length());
+        String spvName = Assertion.assertionEnabled ? baseName + ".defensive.spv" : baseName + ".spv";
+        try (InputStream stream = MLPFactory.class.getResourceAsStream("/resc/nn/spv/" + spvName)) {
+            if (stream == null) {
+                return null;
+            }
+
+            byte[] spvBytes = stream.readAllBytes();
+            if (spvBytes.length == 0 || spvBytes.length % 4 != 0) {
+                logger.warning("预编译的着色器 " + spvName + " 已损坏，将在运行时编译");
+                return null;
+            }
+
+            BytePtr spv = BytePtr.allocateAligned(arena, spvBytes.length, 4);
+            spv.segment().copyFrom(MemorySegment.ofArray(spvBytes));
+            return spv;
+        } catch (IOException e) {
+            logger.warning("无法读取预编译的着色器 " + spvName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /// 只在 SPIR-V 缓存未命中、需要真正编译着色器时才会被调用
+    private synchronized Shaderc loadShaderc() {
+        if (libShaderc == null) {
+            libShaderc = ILibraryLoader.platformLoader().loadLibrary(SHADERC_LIBRARY_NAME);
+        }
+        return new Shaderc(libShaderc);
     }
 
     private ShaderModule createShaderModule(String shaderName) throws RenderException {
+        try (Arena arena = Arena.ofConfined()) {
+            @Nullable BytePtr precompiled = loadPrecompiledSPV(arena, shaderName);
+            if (precompiled != null) {
+                return ShaderModule.create(cx, precompiled);
+            }
+        }
+
+        logger.info("未找到预编译的着色器 " + shaderName + "，将在运行时编译");
         String shaderCode;
         try (InputStream stream = MLPFactory.class.getResourceAsStream("/resc/nn/shader/" + shaderName)) {
             if (stream == null) {
@@ -222,7 +496,7 @@ public final class MLPFactory implements AutoCloseable {
         }
 
         try (Arena arena = Arena.ofConfined()) {
-            BytePtr spv = shaderCompiler.compileIntoSPV(
+            BytePtr spv = threadCompiler.get().compileIntoSPV(
                     arena,
                     shaderName,
                     shaderCode,
@@ -350,30 +624,126 @@ public final class MLPFactory implements AutoCloseable {
         ), true);
     }
 
+    /// 着色器模块在第一次被用到时才会被加载或编译
+    private final class LazyShaderModule {
+        LazyShaderModule(String shaderName) {
+            this.shaderName = shaderName;
+        }
+
+        synchronized ShaderModule get() throws RenderException {
+            if (module == null) {
+                module = createShaderModule(shaderName);
+            }
+            return module;
+        }
+
+        synchronized void close() {
+            if (module != null) {
+                module.close();
+                module = null;
+            }
+        }
+
+        private final String shaderName;
+        private @Nullable ShaderModule module;
+    }
+
+    private static final class PipelineKey {
+        final PipelineLayout layout;
+        final ShaderModule module;
+        final List<ShaderSpecialisation.Entry> specEntries;
+        final byte[] specData;
+
+        PipelineKey(
+                PipelineLayout layout,
+                ShaderModule module,
+                List<ShaderSpecialisation.Entry> specEntries,
+                byte[] specData
+        ) {
+            this.layout = layout;
+            this.module = module;
+            this.specEntries = specEntries;
+            this.specData = specData;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PipelineKey that
+                   && layout == that.layout
+                   && module == that.module
+                   && specEntries == that.specEntries
+                   && Arrays.equals(specData, that.specData);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(layout);
+            result = 31 * result + System.identityHashCode(module);
+            result = 31 * result + System.identityHashCode(specEntries);
+            result = 31 * result + Arrays.hashCode(specData);
+            return result;
+        }
+    }
+
+    private static final class SharedPipeline {
+        final PipelineKey key;
+        @Nullable ComputePipeline pipeline;
+        int refCount;
+
+        SharedPipeline(PipelineKey key) {
+            this.key = key;
+        }
+    }
+
+    private static final class PipelineRequest {
+        final PipelineLayout layout;
+        final LazyShaderModule module;
+        final List<ShaderSpecialisation.Entry> specEntries;
+        final byte[] specData;
+
+        PipelineRequest(
+                PipelineLayout layout,
+                LazyShaderModule module,
+                List<ShaderSpecialisation.Entry> specEntries,
+                byte[] specData
+        ) {
+            this.layout = layout;
+            this.module = module;
+            this.specEntries = specEntries;
+            this.specData = specData;
+        }
+    }
+
     private final RenderContext cx;
-    private final ISharedLibrary libShaderc;
-    private final ShaderCompiler shaderCompiler;
+    /// 每个线程使用独立的着色器编译器，所有创建过的编译器都记录在 `compilerList` 中以便销毁
+    private final ThreadLocal<ShaderCompiler> threadCompiler;
+    private final ConcurrentLinkedQueue<ShaderCompiler> compilerList;
+    private final ExecutorService pipelineExecutor;
+    /// 管线注册表，以及从管线到注册表条目的反向索引，两者都由 `pipelineRegistry` 的锁保护
+    private final HashMap<PipelineKey, SharedPipeline> pipelineRegistry;
+    private final IdentityHashMap<ComputePipeline, SharedPipeline> pipelineOwners;
+    private @Nullable ISharedLibrary libShaderc;
 
     final DescriptorSetLayout mlpForwardSetLayout;
     final PipelineLayout mlpForwardPipelineLayout;
-    final ShaderModule mlpForwardModule;
+    private final LazyShaderModule forwardModule;
 
     final DescriptorSetLayout mlpWeightPrewarmSetLayout;
     final PipelineLayout mlpWeightPrewarmPipelineLayout;
-    final ShaderModule mlpWeightPrewarmModule;
+    private final LazyShaderModule weightPrewarmModule;
 
     final DescriptorSetLayout mlpErrorSetLayout;
     final PipelineLayout mlpErrorPipelineLayout;
-    final ShaderModule mlpErrorMSEModule;
-    final ShaderModule mlpErrorCrossEntropyModule;
+    private final LazyShaderModule errorMSEModule;
+    private final LazyShaderModule errorCrossEntropyModule;
 
     final DescriptorSetLayout mlpUpdateWeightsSetLayout;
     final PipelineLayout mlpUpdateWeightsPipelineLayout;
-    final ShaderModule mlpUpdateWeightsModule;
+    private final LazyShaderModule updateWeightsModule;
 
     final DescriptorSetLayout mlpBackpropSetLayout;
     final PipelineLayout mlpBackpropPipelineLayout;
-    final ShaderModule mlpBackpropModule;
+    private final LazyShaderModule backpropModule;
 
     private static ShadercUtil.IncludeResult rescDirResolve(
             String requestedSource,
@@ -390,8 +760,11 @@ public final class MLPFactory implements AutoCloseable {
         }
     }
 
+    private static final String SHADERC_LIBRARY_NAME = "shaderc_shared";
+    private static final int PIPELINE_THREAD_COUNT = Math.clamp(Runtime.getRuntime().availableProcessors(), 1, 4);
     private static final DescriptorSetLayoutBinding UBO = new DescriptorSetLayoutBinding(DescriptorKind.UNIFORM_BUFFER, ShaderStage.COMPUTE);
     private static final DescriptorSetLayoutBinding SSBO = new DescriptorSetLayoutBinding(DescriptorKind.STORAGE_BUFFER, ShaderStage.COMPUTE);
+    private static final Logger logger = Logger.getLogger(MLPFactory.class.getName());
 
     static final class ForwardShaderSpec {
         static final StructLayout LAYOUT = NativeLayout.structLayout(
@@ -0,0 +1,209 @@
+package club.doki7.rkt.launch.nn;
+
+import club.doki7.ffm.ptr.FloatPtr;
+import club.doki7.rkt.exc.VulkanException;
+import club.doki7.rkt.vk.resc.Buffer;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/// 动态批处理推理前端。
+///
+/// 调用者每次通过 {@link #infer(float[])} 提交单个样本，批处理线程将并发到达的请求收集为一个批次，
+/// 直到凑满 `batchSize` 个样本或者自第一个请求到达起已经过了 `maxDelayNanos` 纳秒，
+/// 然后一次性提交到设备，再将每个样本的输出分发回各自的 {@link CompletableFuture}
+public final class MLPInferBatcher implements AutoCloseable {
+    public final int batchSize;
+    public final long maxDelayNanos;
+
+    public MLPInferBatcher(MLP mlp, int batchSize, long maxDelayNanos) throws VulkanException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("批次大小必须为正数");
+        }
+        if (maxDelayNanos < 0) {
+            throw new IllegalArgumentException("最大等待时间不能为负数");
+        }
+
+        this.batchSize = batchSize;
+        this.maxDelayNanos = maxDelayNanos;
+        this.inputSize = mlp.options.inputSize;
+        this.outputSize = mlp.options.layers.getLast().size;
+
+        Buffer.OptionsInit inputBufferOptionsInit = new Buffer.OptionsInit();
+        inputBufferOptionsInit.usage = Set.of(Buffer.Usage.STORAGE_BUFFER);
+        inputBufferOptionsInit.mapped = true;
+        inputBufferOptionsInit.coherent = true;
+        inputBufferOptionsInit.tag = MLP.MEMORY_TAG_TASK;
+        this.inputBuffer = Buffer.create(
+                mlp.cx,
+                (long) batchSize * inputSize * Float.BYTES,
+                false,
+                inputBufferOptionsInit.build()
+        );
+        try {
+            this.inferTask = new MLPInferTask(mlp, batchSize, inputBuffer, true, false);
+        } catch (VulkanException e) {
+            inputBuffer.close();
+            throw e;
+        }
+
+        this.requestQueue = new LinkedBlockingQueue<>();
+        this.dispatchThread = new Thread(this::run, "MLPInferBatcher-Dispatch");
+        this.dispatchThread.setDaemon(true);
+        this.dispatchThread.start();
+    }
+
+    /// 提交一个样本，返回的 {@link CompletableFuture} 在推理完成后以最后一层的输出完成
+    public CompletableFuture<float[]> infer(float[] input) {
+        if (input.length != inputSize) {
+            throw new IllegalArgumentException("输入样本大小应为 " + inputSize + "，实际为 " + input.length);
+        }
+
+        Request request = new Request(input);
+        // 检查 closed 与入队必须是原子的：批处理线程在退出前会在同一把锁下置位 closed，然后清空队列，
+        // 因此任何成功入队的请求要么会被处理，要么会在清空时被拒绝
+        synchronized (lock) {
+            if (closed) {
+                request.future.completeExceptionally(new IllegalStateException("批处理器已经被关闭"));
+                return request.future;
+            }
+
+            boolean result = requestQueue.offer(request);
+            assert result;
+        }
+        return request.future;
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            boolean result = requestQueue.offer(POISON);
+            assert result;
+        }
+        try {
+            dispatchThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("批处理线程被中断: " + e.getMessage());
+        }
+
+        inferTask.close();
+        inputBuffer.close();
+    }
+
+    private void run() {
+        FloatPtr inputMapped = Objects.requireNonNull(FloatPtr.checked(inputBuffer.mapped));
+        FloatPtr outputMapped = Objects.requireNonNull(FloatPtr.checked(inferTask.outputBufferList.getLast().mapped));
+        List<Request> batch = new ArrayList<>(batchSize);
+
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                Request first = requestQueue.take();
+                if (first == POISON) {
+                    break;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < batchSize) {
+                    Request request = requestQueue.poll();
+                    if (request == null) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        request = requestQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (request == null) {
+                            break;
+                        }
+                    }
+                    if (request == POISON) {
+                        stopping = true;
+                        break;
+                    }
+                    batch.add(request);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopping = true;
+            }
+
+            if (!batch.isEmpty()) {
+                executeBatch(batch, inputMapped, outputMapped);
+                batch.clear();
+            }
+        }
+
+        synchronized (lock) {
+            closed = true;
+        }
+        Request request;
+        while ((request = requestQueue.poll()) != null) {
+            if (request != POISON) {
+                request.future.completeExceptionally(new IllegalStateException("批处理器已经被关闭"));
+            }
+        }
+    }
+
+    private void executeBatch(List<Request> batch, FloatPtr inputMapped, FloatPtr outputMapped) {
+        for (int i = 0; i < batch.size(); i++) {
+            MemorySegment.copy(
+                    batch.get(i).input, 0,
+                    inputMapped.segment(), ValueLayout.JAVA_FLOAT, (long) i * inputSize * Float.BYTES,
+                    inputSize
+            );
+        }
+
+        try {
+            inferTask.executeBatch(0, batch.size());
+        } catch (VulkanException e) {
+            for (Request request : batch) {
+                request.future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            float[] output = new float[outputSize];
+            MemorySegment.copy(
+                    outputMapped.segment(), ValueLayout.JAVA_FLOAT, (long) i * outputSize * Float.BYTES,
+                    output, 0,
+                    outputSize
+            );
+            batch.get(i).future.complete(output);
+        }
+    }
+
+    private static final class Request {
+        final float[] input;
+        final CompletableFuture<float[]> future;
+
+        Request(float[] input) {
+            this.input = input;
+            this.future = new CompletableFuture<>();
+        }
+    }
+
+    private final int inputSize;
+    private final int outputSize;
+    private final Buffer inputBuffer;
+    private final MLPInferTask inferTask;
+    private final BlockingQueue<Request> requestQueue;
+    private final Thread dispatchThread;
+    private final Object lock = new Object();
+    private boolean closed;
+
+    private static final Request POISON = new Request(new float[0]);
+    private static final Logger logger = Logger.getLogger(MLPInferBatcher.class.getName());
+}
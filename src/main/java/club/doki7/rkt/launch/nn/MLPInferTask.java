@@ -5,12 +5,16 @@ import club.doki7.ffm.ptr.IntPtr;
 import club.doki7.rkt.exc.VulkanException;
 import club.doki7.rkt.vk.cmd.SubmitInfo;
 import club.doki7.rkt.vk.resc.Buffer;
-import club.doki7.rkt.vk.sync.Fence;
+import club.doki7.rkt.vk.resc.UploadTicket;
+import club.doki7.rkt.vk.sync.DeviceFuture;
+import club.doki7.vulkan.VkConstants;
+import club.doki7.vulkan.bitmask.VkAccessFlags;
+import club.doki7.vulkan.bitmask.VkPipelineStageFlags;
+import club.doki7.vulkan.datatype.VkBufferMemoryBarrier;
 import club.doki7.vulkan.datatype.VkCommandBufferBeginInfo;
 import club.doki7.vulkan.enumtype.VkResult;
 
 import java.lang.foreign.Arena;
-import java.util.List;
 import java.util.Objects;
 
 public final class MLPInferTask extends MLPTaskBase implements AutoCloseable {
@@ -21,19 +25,65 @@ public final class MLPInferTask extends MLPTaskBase implements AutoCloseable {
             boolean mappedOutputBuffer,
             boolean mappedHiddenLayerOutputBuffer
     ) throws VulkanException {
-        super(mlp, batchSize, inputBuffer, mappedOutputBuffer, mappedHiddenLayerOutputBuffer);
+        // 请求映射隐藏层输出的调用者需要读取每一层的输出，这时不复用隐藏层的输出缓冲
+        super(
+                mlp,
+                batchSize,
+                inputBuffer,
+                mappedOutputBuffer,
+                mappedHiddenLayerOutputBuffer,
+                !mappedHiddenLayerOutputBuffer
+        );
 
         preRecordCommandBuffer();
-        this.submitInfo = new SubmitInfo(List.of(cmdBuf), List.of(), List.of(), List.of());
+        this.submitInfo = createBatchSubmitInfo(cmdBuf);
     }
 
     public void executeBatch(int batchStart) throws VulkanException {
         long totalCount = inputBuffer.size / ((long) mlp.options.inputSize * Float.BYTES);
+        executeBatch(batchStart, totalCount);
+    }
+
+    /// 与 {@link #executeBatch(int)} 相同，但由调用者指定输入缓冲中有效样本的总数，
+    /// 用于输入缓冲只有前一部分被填充的情形（例如动态批处理中未填满的批次）
+    public void executeBatch(int batchStart, long totalCount) throws VulkanException {
+        executeBatchAsync(batchStart, totalCount).await();
+        invalidateOutput(Math.min(totalCount - batchStart, batchSize));
+    }
+
+    /// 提交一个批次但不等待其完成。同一任务同时只能有一个批次在设备上执行，
+    /// 因此如果上一个批次尚未完成，此方法会先等待它完成。批次完成后，调用者需要先调用
+    /// {@link #invalidateOutput(long)} 再读取映射的输出缓冲
+    public DeviceFuture executeBatchAsync(int batchStart) throws VulkanException {
+        long totalCount = inputBuffer.size / ((long) mlp.options.inputSize * Float.BYTES);
+        return executeBatchAsync(batchStart, totalCount);
+    }
+
+    public DeviceFuture executeBatchAsync(int batchStart, long totalCount) throws VulkanException {
+        return executeBatchAsync(batchStart, totalCount, UploadTicket.completed());
+    }
+
+    /// 与 {@link #executeBatchAsync(int, long)} 相同，但批次在设备上等待 `after` 所代表的上传完成之后才开始执行，
+    /// 通常用于输入缓冲的内容由 {@link club.doki7.rkt.vk.resc.Transmission#uploadBufferAsync} 异步上传的情形。
+    /// 未启用时间线信号量（{@link club.doki7.rkt.vk.RenderConfig#enableTimelineSemaphore} 默认为 `false`）时，
+    /// 此方法在主机上等待上传完成之后才提交批次
+    public synchronized DeviceFuture executeBatchAsync(
+            int batchStart,
+            long totalCount,
+            UploadTicket after
+    ) throws VulkanException {
+        ensureOpen();
+        if (totalCount * mlp.options.inputSize * Float.BYTES > inputBuffer.size) {
+            throw new IllegalArgumentException("有效样本总数超出输入缓冲容量");
+        }
+
         long ehtotBatchSize = Math.min(totalCount - batchStart, batchSize);
         if (ehtotBatchSize <= 0) {
             throw new IllegalArgumentException("批次起始超出输入数据范围");
         }
 
+        awaitInFlight();
+
         IntPtr pInferOptionsBuffer = Objects.requireNonNull(IntPtr.checked(inferOptionsBuffer.mapped));
         IntPtr pIOInferOptionsBuffer = Objects.requireNonNull(IntPtr.checked(ioInferOptionsBuffer.mapped));
         pInferOptionsBuffer.write(0, 0);
@@ -41,20 +91,35 @@ public final class MLPInferTask extends MLPTaskBase implements AutoCloseable {
         pIOInferOptionsBuffer.write(0, batchStart);
         pIOInferOptionsBuffer.write(1, (int) ehtotBatchSize);
 
-        try (Fence fence = Fence.createLocal(cx)) {
-            if (cx.hasComputeQueue()) {
-                cx.submitCompute(submitInfo, fence);
-            } else {
-                cx.submitGraphics(submitInfo, fence);
-            }
-            cx.waitForFence(fence);
-        }
+        return submitBatch(submitInfo, after);
     }
 
     private void preRecordCommandBuffer() throws VulkanException {
         try (Arena arena = Arena.ofConfined()) {
             cx.dCmd.beginCommandBuffer(cmdBuf.handle, VkCommandBufferBeginInfo.allocate(arena));
-            preRecordForwardCommandBuffer();
+            preRecordForwardCommandBuffer(cmdBuf, forwardDescriptorSetList.getFirst());
+
+            Buffer outputBuffer = outputBufferList.getLast();
+            if (outputBuffer.options.mapped) {
+                VkBufferMemoryBarrier barrier = VkBufferMemoryBarrier.allocate(arena)
+                        .srcAccessMask(VkAccessFlags.SHADER_WRITE)
+                        .dstAccessMask(VkAccessFlags.HOST_READ)
+                        .srcQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
+                        .dstQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
+                        .buffer(outputBuffer.handle)
+                        .offset(outputBuffer.offset)
+                        .size(outputBuffer.size);
+                cx.dCmd.cmdPipelineBarrier(
+                        cmdBuf.handle,
+                        VkPipelineStageFlags.COMPUTE_SHADER,
+                        VkPipelineStageFlags.HOST,
+                        0x0,
+                        0, null,
+                        1, barrier,
+                        0, null
+                );
+            }
+
             @EnumType(VkResult.class) int result = cx.dCmd.endCommandBuffer(cmdBuf.handle);
             if (result != VkResult.SUCCESS) {
                 throw new VulkanException(result, "无法录制 MLP 推理任务所用的命令缓冲");
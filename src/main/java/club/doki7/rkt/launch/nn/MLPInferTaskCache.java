@@ -0,0 +1,221 @@
+package club.doki7.rkt.launch.nn;
+
+import club.doki7.rkt.exc.VulkanException;
+import club.doki7.rkt.vk.resc.Buffer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/// {@link MLPInferTask} 的缓存，通过 {@link MLP#inferTaskCache} 访问。
+///
+/// 创建推理任务需要分配输出缓冲、选项缓冲、命令池并预录制命令缓冲，开销较大。缓存以批次大小、
+/// 输入缓冲和输出缓冲的映射方式为键，将用完的任务保留下来供之后的请求直接复用。
+/// 空闲任务占用的显存超出预算时，按最近最少使用的顺序销毁空闲任务。
+///
+/// 缓存中的任务引用了输入缓冲，因此在销毁输入缓冲之前，应当先调用 {@link #evict(Buffer)}
+public final class MLPInferTaskCache implements AutoCloseable {
+    /// 默认的空闲任务显存预算，以字节计
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    /// 对缓存中一个推理任务的独占租约，关闭租约即将任务归还到缓存
+    public static final class Lease implements AutoCloseable {
+        public final MLPInferTask task;
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                cache.release(key, task);
+            }
+        }
+
+        Lease(MLPInferTaskCache cache, Key key, MLPInferTask task) {
+            this.task = task;
+            this.cache = cache;
+            this.key = key;
+        }
+
+        private final MLPInferTaskCache cache;
+        private final Key key;
+        private boolean closed;
+    }
+
+    /// 取得一个满足要求的推理任务，缓存中没有空闲的任务时会创建一个新的任务
+    public Lease lease(
+            int batchSize,
+            Buffer inputBuffer,
+            boolean mappedOutputBuffer,
+            boolean mappedHiddenLayerOutputBuffer
+    ) throws VulkanException {
+        Key key = new Key(batchSize, inputBuffer, mappedOutputBuffer, mappedHiddenLayerOutputBuffer);
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("推理任务缓存已经被关闭");
+            }
+
+            ArrayDeque<MLPInferTask> idle = idleTasks.get(key);
+            if (idle != null && !idle.isEmpty()) {
+                MLPInferTask task = idle.pop();
+                if (idle.isEmpty()) {
+                    idleTasks.remove(key);
+                }
+                idleBytes -= taskMemorySize(task);
+                hitCount++;
+                return new Lease(this, key, task);
+            }
+            missCount++;
+        }
+
+        MLPInferTask task = new MLPInferTask(
+                mlp,
+                batchSize,
+                inputBuffer,
+                mappedOutputBuffer,
+                mappedHiddenLayerOutputBuffer
+        );
+        return new Lease(this, key, task);
+    }
+
+    /// 修改空闲任务的显存预算，超出新预算的空闲任务会被立即销毁
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("显存预算不能为负数");
+        }
+
+        List<MLPInferTask> evicted;
+        synchronized (this) {
+            this.memoryBudget = memoryBudget;
+            evicted = evictOverBudget();
+        }
+        closeAll(evicted);
+    }
+
+    /// 销毁所有以 `inputBuffer` 为输入缓冲的空闲任务
+    public void evict(Buffer inputBuffer) {
+        List<MLPInferTask> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<Key, ArrayDeque<MLPInferTask>>> iterator = idleTasks.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Key, ArrayDeque<MLPInferTask>> entry = iterator.next();
+                if (entry.getKey().inputBuffer != inputBuffer) {
+                    continue;
+                }
+                for (MLPInferTask task : entry.getValue()) {
+                    idleBytes -= taskMemorySize(task);
+                    evicted.add(task);
+                }
+                iterator.remove();
+            }
+        }
+        closeAll(evicted);
+    }
+
+    public synchronized long idleMemorySize() {
+        return idleBytes;
+    }
+
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    @Override
+    public void close() {
+        List<MLPInferTask> evicted = new ArrayList<>();
+        long hitCount;
+        long missCount;
+        synchronized (this) {
+            closed = true;
+            hitCount = this.hitCount;
+            missCount = this.missCount;
+            for (ArrayDeque<MLPInferTask> idle : idleTasks.values()) {
+                evicted.addAll(idle);
+            }
+            idleTasks.clear();
+            idleBytes = 0;
+        }
+        closeAll(evicted);
+
+        logger.info("推理任务缓存已关闭, 命中 " + hitCount + " 次, 未命中 " + missCount + " 次");
+    }
+
+    MLPInferTaskCache(MLP mlp, long memoryBudget) {
+        this.mlp = mlp;
+        this.memoryBudget = memoryBudget;
+        // 按访问顺序排列，最久未被访问的键位于最前
+        this.idleTasks = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    private void release(Key key, MLPInferTask task) {
+        List<MLPInferTask> evicted;
+        synchronized (this) {
+            if (closed) {
+                evicted = List.of(task);
+            } else {
+                idleTasks.computeIfAbsent(key, _ -> new ArrayDeque<>()).push(task);
+                idleBytes += taskMemorySize(task);
+                evicted = evictOverBudget();
+            }
+        }
+        closeAll(evicted);
+    }
+
+    /// 必须在持有锁时调用，返回被移出缓存、需要在锁外销毁的任务
+    private List<MLPInferTask> evictOverBudget() {
+        List<MLPInferTask> evicted = new ArrayList<>();
+        Iterator<ArrayDeque<MLPInferTask>> iterator = idleTasks.values().iterator();
+        while (idleBytes > memoryBudget && iterator.hasNext()) {
+            ArrayDeque<MLPInferTask> idle = iterator.next();
+            while (idleBytes > memoryBudget && !idle.isEmpty()) {
+                MLPInferTask task = idle.removeLast();
+                idleBytes -= taskMemorySize(task);
+                evicted.add(task);
+            }
+            if (idle.isEmpty()) {
+                iterator.remove();
+            }
+        }
+        return evicted;
+    }
+
+    private static long taskMemorySize(MLPInferTask task) {
+        long size = task.inferOptionsBuffer.size + task.ioInferOptionsBuffer.size;
+        // 隐藏层的输出缓冲可能是交替复用的，同一个缓冲只计算一次
+        for (Buffer buffer : new HashSet<>(task.outputBufferList)) {
+            size += buffer.size;
+        }
+        return size;
+    }
+
+    private static void closeAll(List<MLPInferTask> tasks) {
+        for (MLPInferTask task : tasks) {
+            task.close();
+        }
+    }
+
+    private record Key(
+            int batchSize,
+            Buffer inputBuffer,
+            boolean mappedOutputBuffer,
+            boolean mappedHiddenLayerOutputBuffer
+    ) {}
+
+    private final MLP mlp;
+    private final LinkedHashMap<Key, ArrayDeque<MLPInferTask>> idleTasks;
+    private long memoryBudget;
+    private long idleBytes;
+    private long hitCount;
+    private long missCount;
+    private boolean closed;
+
+    private static final Logger logger = Logger.getLogger(MLPInferTaskCache.class.getName());
+}
@@ -0,0 +1,236 @@
+package club.doki7.rkt.launch.nn;
+
+import club.doki7.rkt.exc.RenderException;
+import club.doki7.rkt.exc.VulkanException;
+import club.doki7.rkt.vk.RenderContext;
+import club.doki7.rkt.vk.common.QueueFamily;
+import club.doki7.rkt.vk.resc.Buffer;
+import club.doki7.rkt.vk.resc.StagingRing;
+import club.doki7.rkt.vk.resc.UploadTicket;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/// 流式训练任务，用于训练无法一次性放入设备内存的数据集。
+///
+/// 任务在设备上维护一个由 `ringSize` 个数据块槽位组成的环，每个槽位有自己的输入缓冲和标签缓冲。所有槽位共用同一个
+/// {@link MLPTrainTask}，每个槽位是它的一个数据绑定（见 {@link MLPTrainTask#addDataBinding}），只额外占用几个描述符集
+/// 和一个预录制的命令缓冲，隐藏层输出与梯度缓冲只有一份。训练当前数据块的同时，后台线程通过 {@link StagingRing} 将后续的数据块
+/// 上传到空闲的槽位中，数据块的第一个批次在设备上等待上传完成（见 {@link UploadTicket}）。有专用传输队列时，
+/// 上传的复制命令在传输队列上执行，与计算队列上的训练重叠。
+///
+/// 设备内存占用为 `ringSize` 个数据块的输入与标签缓冲，加上一份批次大小的训练任务，而与数据集的大小无关。
+public final class MLPStreamTrainTask implements AutoCloseable {
+    public final int batchSize;
+    public final int chunkSize;
+    public final int ringSize;
+
+    /// @param chunkSize 每个数据块包含的样本数量，必须是 `batchSize` 的整数倍
+    /// @param ringSize 驻留在设备上的数据块数量，至少为 2
+    public MLPStreamTrainTask(
+            MLP mlp,
+            int batchSize,
+            int chunkSize,
+            int ringSize,
+            MLPDataSource dataSource,
+            LossFunction lossFunction
+    ) throws RenderException {
+        if (chunkSize <= 0 || chunkSize % batchSize != 0) {
+            throw new IllegalArgumentException("数据块大小必须是批次大小的正整数倍");
+        }
+        if (ringSize < 2) {
+            throw new IllegalArgumentException("至少需要两个数据块槽位才能重叠上传与训练");
+        }
+
+        this.batchSize = batchSize;
+        this.chunkSize = chunkSize;
+        this.ringSize = ringSize;
+        this.cx = mlp.cx;
+        this.dataSource = dataSource;
+        this.bufferAffinity = cx.hasComputeQueue() ? QueueFamily.COMPUTE : QueueFamily.GRAPHICS;
+
+        Buffer.Options chunkOptions = Buffer.OptionsInit.shaderStorageBufferPreset().build();
+        long inputChunkSize = (long) chunkSize * mlp.options.inputSize * Float.BYTES;
+        long labelChunkSize = (long) chunkSize * labelStride(mlp.options, lossFunction);
+
+        this.slotList = new ArrayList<>();
+        MLPTrainTask task = null;
+        try {
+            for (int i = 0; i < ringSize; i++) {
+                Buffer inputBuffer = Buffer.create(cx, inputChunkSize, false, chunkOptions);
+                Buffer labelBuffer;
+                try {
+                    labelBuffer = Buffer.create(cx, labelChunkSize, false, chunkOptions);
+                } catch (RenderException | RuntimeException e) {
+                    inputBuffer.close();
+                    throw e;
+                }
+                slotList.add(new Slot(inputBuffer, labelBuffer));
+            }
+
+            Slot firstSlot = slotList.getFirst();
+            task = new MLPTrainTask(mlp, batchSize, firstSlot.inputBuffer, firstSlot.labelBuffer, lossFunction);
+            for (int i = 1; i < ringSize; i++) {
+                Slot slot = slotList.get(i);
+                slot.binding = task.addDataBinding(slot.inputBuffer, slot.labelBuffer);
+            }
+        } catch (RenderException | RuntimeException e) {
+            if (task != null) {
+                task.close();
+            }
+            closeSlots();
+            throw e;
+        }
+        this.task = task;
+
+        this.uploadExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MLPStreamTrainTask-Upload");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /// 每个样本的标签在标签缓冲中所占的字节数
+    public static long labelStride(MLPOptions options, LossFunction lossFunction) {
+        if (lossFunction == LossFunction.CROSS_ENTROPY) {
+            return Integer.BYTES;
+        } else {
+            return (long) options.layers.getLast().size * Float.BYTES;
+        }
+    }
+
+    public void prewarm() throws VulkanException {
+        task.prewarm();
+    }
+
+    /// 使用数据源中的全部样本训练一轮
+    public void trainEpoch(float learnRate) throws RenderException, IOException {
+        long sampleCount = dataSource.sampleCount();
+        long chunkCount = Math.ceilDiv(sampleCount, (long) chunkSize);
+
+        List<Future<UploadTicket>> pendingUploads = new ArrayList<>();
+        for (int i = 0; i < ringSize; i++) {
+            pendingUploads.add(null);
+        }
+
+        try {
+            for (long chunkIndex = 0; chunkIndex < Math.min(ringSize - 1, chunkCount); chunkIndex++) {
+                int slotIndex = (int) (chunkIndex % ringSize);
+                pendingUploads.set(slotIndex, scheduleUpload(chunkIndex, sampleCount));
+            }
+
+            for (long chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++) {
+                // 上一个数据块已经训练完毕，它所在的槽位可以接收新的数据块
+                long prefetchIndex = chunkIndex + ringSize - 1;
+                if (prefetchIndex < chunkCount) {
+                    int prefetchSlotIndex = (int) (prefetchIndex % ringSize);
+                    pendingUploads.set(prefetchSlotIndex, scheduleUpload(prefetchIndex, sampleCount));
+                }
+
+                int slotIndex = (int) (chunkIndex % ringSize);
+                UploadTicket upload = awaitUpload(pendingUploads.get(slotIndex));
+                pendingUploads.set(slotIndex, null);
+
+                // 主机只等待上传命令被提交，数据块的第一个批次在设备上等待上传完成
+                int binding = slotList.get(slotIndex).binding;
+                long chunkSampleCount = Math.min(chunkSize, sampleCount - chunkIndex * chunkSize);
+                for (int batchStart = 0; batchStart < chunkSampleCount; batchStart += batchSize) {
+                    task.executeBatchAsync(binding, batchStart, chunkSampleCount, learnRate, upload).await();
+                    upload = UploadTicket.completed();
+                }
+            }
+        } finally {
+            for (Future<UploadTicket> future : pendingUploads) {
+                if (future != null) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        logger.warning("训练中止后，后台数据块上传也失败了: " + e.getCause());
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        uploadExecutor.shutdown();
+        try {
+            if (!uploadExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                logger.warning("等待数据块上传线程结束超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        task.close();
+        closeSlots();
+    }
+
+    private Future<UploadTicket> scheduleUpload(long chunkIndex, long sampleCount) {
+        Slot slot = slotList.get((int) (chunkIndex % ringSize));
+        long sampleStart = chunkIndex * chunkSize;
+        long count = Math.min(chunkSize, sampleCount - sampleStart);
+
+        return uploadExecutor.submit(() -> {
+            try (StagingRing.Batch batch = cx.stagingRing.begin(bufferAffinity)) {
+                batch.upload(slot.inputBuffer, dataSource.inputs(sampleStart, count));
+                batch.upload(slot.labelBuffer, dataSource.labels(sampleStart, count));
+                return batch.submitAsync();
+            }
+        });
+    }
+
+    private static UploadTicket awaitUpload(Future<UploadTicket> future) throws RenderException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RenderException("等待数据块上传时被中断");
+        } catch (ExecutionException e) {
+            switch (e.getCause()) {
+                case RenderException re -> throw re;
+                case IOException ioe -> throw ioe;
+                case RuntimeException rte -> throw rte;
+                case Error err -> throw err;
+                default -> throw new RenderException("数据块上传失败: " + e.getCause());
+            }
+        }
+    }
+
+    private void closeSlots() {
+        for (Slot slot : slotList) {
+            slot.inputBuffer.close();
+            slot.labelBuffer.close();
+        }
+    }
+
+    private static final class Slot {
+        final Buffer inputBuffer;
+        final Buffer labelBuffer;
+        /// 槽位在训练任务中的数据绑定编号，第一个槽位是训练任务构造时的输入，编号为 0
+        int binding;
+
+        Slot(Buffer inputBuffer, Buffer labelBuffer) {
+            this.inputBuffer = inputBuffer;
+            this.labelBuffer = labelBuffer;
+        }
+    }
+
+    private final RenderContext cx;
+    private final MLPDataSource dataSource;
+    private final QueueFamily bufferAffinity;
+    private final List<Slot> slotList;
+    private final MLPTrainTask task;
+    private final ExecutorService uploadExecutor;
+
+    private static final Logger logger = Logger.getLogger(MLPStreamTrainTask.class.getName());
+}
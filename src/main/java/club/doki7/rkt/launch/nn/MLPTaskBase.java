@@ -5,10 +5,16 @@ import club.doki7.rkt.exc.VulkanException;
 import club.doki7.rkt.vk.RenderContext;
 import club.doki7.rkt.vk.cmd.CommandBuffer;
 import club.doki7.rkt.vk.cmd.CommandPool;
+import club.doki7.rkt.vk.cmd.SubmitInfo;
 import club.doki7.rkt.vk.desc.PushDescriptorSet;
 import club.doki7.rkt.vk.desc.ShaderStorageBufferObject;
 import club.doki7.rkt.vk.desc.UniformBufferObject;
 import club.doki7.rkt.vk.resc.Buffer;
+import club.doki7.rkt.vk.resc.BufferArena;
+import club.doki7.rkt.vk.resc.UploadTicket;
+import club.doki7.rkt.vk.sync.DeviceFuture;
+import club.doki7.rkt.vk.sync.Fence;
+import club.doki7.rkt.vk.sync.SemaphoreVK;
 import club.doki7.vulkan.VkConstants;
 import club.doki7.vulkan.bitmask.VkAccessFlags;
 import club.doki7.vulkan.bitmask.VkCommandPoolCreateFlags;
@@ -16,61 +22,68 @@ import club.doki7.vulkan.bitmask.VkPipelineStageFlags;
 import club.doki7.vulkan.datatype.VkBufferMemoryBarrier;
 import club.doki7.vulkan.enumtype.VkCommandBufferLevel;
 import club.doki7.vulkan.enumtype.VkPipelineBindPoint;
+import org.jetbrains.annotations.Nullable;
 
 import java.lang.foreign.Arena;
 import java.lang.foreign.StructLayout;
 import java.lang.foreign.ValueLayout;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.logging.Logger;
 
 public abstract sealed class MLPTaskBase implements AutoCloseable
         permits MLPInferTask, MLPTrainTask
 {
     public final int batchSize;
     public final Buffer inputBuffer;
+    /// 每一层的输出缓冲。{@link #hiddenOutputsAliased} 为 `true` 时，隐藏层的输出缓冲在两块缓冲之间交替，
+    /// 列表中相隔一层的元素是同一个缓冲
     public final List<Buffer> outputBufferList;
+    public final boolean hiddenOutputsAliased;
 
     public MLPTaskBase(
             MLP mlp,
             int batchSize,
             Buffer inputBuffer,
             boolean mappedOutputBuffer,
-            boolean mappedHiddenLayerOutputBuffer
+            boolean mappedHiddenLayerOutputBuffer,
+            boolean aliasHiddenOutputs
     ) throws VulkanException {
         this.cx = mlp.cx;
         this.mlp = mlp;
 
         this.batchSize = batchSize;
         this.inputBuffer = inputBuffer;
+        this.hiddenOutputsAliased = aliasHiddenOutputs;
 
         Buffer.OptionsInit uniformOptionsInit = new Buffer.OptionsInit();
         uniformOptionsInit.usage = Set.of(Buffer.Usage.UNIFORM_BUFFER);
         uniformOptionsInit.mapped = true;
         uniformOptionsInit.coherent = true;
+        uniformOptionsInit.tag = MLP.MEMORY_TAG_TASK;
         Buffer.Options uniformOptions = uniformOptionsInit.build();
 
-        this.inferOptionsBuffer = Buffer.create(
+        this.optionsArena = BufferArena.create(
                 cx,
-                INFER_OPTIONS_LAYOUT.byteSize(),
-                false,
-                uniformOptions
-        );
-        this.ioInferOptionsBuffer = Buffer.create(
-                cx,
-                INFER_OPTIONS_LAYOUT.byteSize(),
+                List.of(INFER_OPTIONS_LAYOUT.byteSize(), INFER_OPTIONS_LAYOUT.byteSize()),
                 false,
                 uniformOptions
         );
+        this.inferOptionsBuffer = optionsArena.slices.get(0);
+        this.ioInferOptionsBuffer = optionsArena.slices.get(1);
 
-        Buffer.OptionsInit outputOptionsInit = new Buffer.OptionsInit();
+        Buffer.OptionsInit outputOptionsInit;
         if (mappedOutputBuffer) {
+            // 最后一层的输出由主机逐个读取，使用主机缓存的内存，读取之前由 invalidateOutput 失效
+            outputOptionsInit = Buffer.OptionsInit.readbackBufferPreset();
             outputOptionsInit.usage = Set.of(Buffer.Usage.STORAGE_BUFFER);
-            outputOptionsInit.mapped = true;
-            outputOptionsInit.coherent = true;
         } else {
+            outputOptionsInit = new Buffer.OptionsInit();
             outputOptionsInit.usage = Set.of(Buffer.Usage.STORAGE_BUFFER, Buffer.Usage.TRANSFER_SRC);
         }
+        outputOptionsInit.tag = MLP.MEMORY_TAG_TASK;
         Buffer.Options outputOptions = outputOptionsInit.build();
 
         Buffer.OptionsInit hiddenOutputOptionsInit = new Buffer.OptionsInit();
@@ -81,59 +94,257 @@ public abstract sealed class MLPTaskBase implements AutoCloseable
         } else {
             hiddenOutputOptionsInit.usage = Set.of(Buffer.Usage.STORAGE_BUFFER, Buffer.Usage.TRANSFER_SRC);
         }
+        hiddenOutputOptionsInit.tag = MLP.MEMORY_TAG_TASK;
         Buffer.Options hiddenOutputOptions = hiddenOutputOptionsInit.build();
 
-        this.outputBufferList = new ArrayList<>();
-        this.forwardDescriptorSetList = new ArrayList<>();
-        for (int i = 0; i < mlp.options.layers.size(); i++) {
-            MLPOptions.Layer layer = mlp.options.layers.get(i);
-            Buffer.Options useOptions = i == mlp.options.layers.size() - 1
-                    ? outputOptions
-                    : hiddenOutputOptions;
-            Buffer outputBuffer = Buffer.create(
+        // 隐藏层的输出只在设备上流转，打包进同一块缓冲；最后一层的输出通常需要被主机读取，单独分配
+        int layerCount = mlp.options.layers.size();
+        List<Long> hiddenOutputSizeList = new ArrayList<>();
+        if (aliasHiddenOutputs) {
+            // 前向传播中每一层只读取上一层的输出，因此隐藏层的输出只需要两块按最大的隐藏层输出分配的缓冲，
+            // 第 i 层写入第 i % 2 块。层与层之间的屏障同时保证了后一层写入之前，更前一层已经读完了同一块缓冲
+            long maxHiddenOutputSize = 0;
+            for (int i = 0; i < layerCount - 1; i++) {
+                maxHiddenOutputSize = Math.max(maxHiddenOutputSize, layerOutputSize(mlp, i, batchSize));
+            }
+            for (int i = 0; i < Math.min(layerCount - 1, 2); i++) {
+                hiddenOutputSizeList.add(maxHiddenOutputSize);
+            }
+        } else {
+            for (int i = 0; i < layerCount - 1; i++) {
+                hiddenOutputSizeList.add(layerOutputSize(mlp, i, batchSize));
+            }
+        }
+
+        int queueFamilyIndex = cx.hasComputeQueue()
+                ? cx.dedicatedComputeQueueFamilyIndex
+                : cx.graphicsQueueFamilyIndex;
+
+        // 设备资源的创建都可能失败，失败时释放已经创建的资源
+        BufferArena hiddenOutputArena = null;
+        Buffer lastOutputBuffer = null;
+        CommandPool cmdPool = null;
+        SemaphoreVK batchTimeline = null;
+        try {
+            if (!hiddenOutputSizeList.isEmpty()) {
+                hiddenOutputArena = BufferArena.create(cx, hiddenOutputSizeList, false, hiddenOutputOptions);
+            }
+            lastOutputBuffer = Buffer.create(
                     cx,
-                    (long) layer.size * batchSize * Float.BYTES,
+                    layerOutputSize(mlp, layerCount - 1, batchSize),
                     false,
-                    useOptions
+                    outputOptions
             );
-            outputBufferList.add(outputBuffer);
-
-            Buffer ehtotInferOptionsBuffer = i == 0
-                    ? ioInferOptionsBuffer
-                    : inferOptionsBuffer;
-            Buffer ehtotInputBuffer = i == 0
-                    ? inputBuffer
-                    : outputBufferList.get(i - 1);
+            cmdPool = CommandPool.create(cx, VkCommandPoolCreateFlags.TRANSIENT, queueFamilyIndex);
+            this.cmdBuf = cmdPool.allocCmdBuf(cx, VkCommandBufferLevel.PRIMARY);
+            if (cx.timelineSemaphoreEnabled) {
+                batchTimeline = SemaphoreVK.createTimeline(cx, 0);
+            }
+        } catch (VulkanException | RuntimeException e) {
+            if (batchTimeline != null) {
+                batchTimeline.close();
+            }
+            if (cmdPool != null) {
+                cmdPool.close();
+            }
+            if (lastOutputBuffer != null) {
+                lastOutputBuffer.close();
+            }
+            if (hiddenOutputArena != null) {
+                hiddenOutputArena.close();
+            }
+            optionsArena.close();
+            throw e;
+        }
+        this.hiddenOutputArena = hiddenOutputArena;
+        this.cmdPool = cmdPool;
+        this.batchTimeline = batchTimeline;
+
+        this.outputBufferList = new ArrayList<>();
+        for (int i = 0; i < layerCount - 1; i++) {
+            assert hiddenOutputArena != null;
+            outputBufferList.add(hiddenOutputArena.slices.get(aliasHiddenOutputs ? i % 2 : i));
+        }
+        outputBufferList.add(lastOutputBuffer);
+
+        // 描述符集随任务反复创建，分配在任务自己的 arena 中，任务关闭时一并释放。
+        // arena 在所有可能失败的设备资源创建之后才被创建，因此构造失败时不会泄漏
+        this.descriptorArena = Arena.ofShared();
+        this.forwardDescriptorSetList = new ArrayList<>();
+        forwardDescriptorSetList.add(createForwardInputDescriptorSet(inputBuffer));
+        for (int i = 1; i < layerCount; i++) {
             forwardDescriptorSetList.add(PushDescriptorSet.create(
-                    cx,
+                    descriptorArena,
                     mlp.factory.mlpForwardSetLayout,
                     List.of(
-                            UniformBufferObject.create(cx, ehtotInferOptionsBuffer),
-                            ShaderStorageBufferObject.create(cx, ehtotInputBuffer),
-                            ShaderStorageBufferObject.create(cx, mlp.weightBufferList.get(i)),
-                            ShaderStorageBufferObject.create(cx, mlp.biasBufferList.get(i)),
-                            ShaderStorageBufferObject.create(cx, outputBuffer)
+                            UniformBufferObject.create(descriptorArena, inferOptionsBuffer),
+                            ShaderStorageBufferObject.create(descriptorArena, outputBufferList.get(i - 1), 0, layerOutputSize(mlp, i - 1, batchSize)),
+                            ShaderStorageBufferObject.create(descriptorArena, mlp.weightBufferList.get(i)),
+                            ShaderStorageBufferObject.create(descriptorArena, mlp.biasBufferList.get(i)),
+                            ShaderStorageBufferObject.create(descriptorArena, outputBufferList.get(i), 0, layerOutputSize(mlp, i, batchSize))
                     )
             ));
         }
+    }
 
-        int queueFamilyIndex = cx.hasComputeQueue()
-                ? cx.dedicatedComputeQueueFamilyIndex
-                : cx.graphicsQueueFamilyIndex;
-        this.cmdPool = CommandPool.create(cx, VkCommandPoolCreateFlags.TRANSIENT, queueFamilyIndex);
-        this.cmdBuf = cmdPool.allocCmdBuf(cx, VkCommandBufferLevel.PRIMARY);
+    /// 创建第一层前向传播的描述符集，它是唯一引用输入缓冲的前向描述符集
+    protected final PushDescriptorSet createForwardInputDescriptorSet(Buffer inputBuffer) {
+        return PushDescriptorSet.create(
+                descriptorArena,
+                mlp.factory.mlpForwardSetLayout,
+                List.of(
+                        UniformBufferObject.create(descriptorArena, ioInferOptionsBuffer),
+                        ShaderStorageBufferObject.create(descriptorArena, inputBuffer, 0, inputBuffer.size),
+                        ShaderStorageBufferObject.create(descriptorArena, mlp.weightBufferList.getFirst()),
+                        ShaderStorageBufferObject.create(descriptorArena, mlp.biasBufferList.getFirst()),
+                        ShaderStorageBufferObject.create(descriptorArena, outputBufferList.getFirst(), 0, layerOutputSize(mlp, 0, batchSize))
+                )
+        );
     }
 
+    /// 释放任务的所有资源。重复调用没有任何效果，资源只会被释放一次
     @Override
-    public void close() {
+    public final synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            inFlight.await();
+        } catch (VulkanException e) {
+            logger.warning("关闭任务前等待未完成的批次失败: " + e.getMessage());
+        }
         cmdPool.close();
-        inferOptionsBuffer.close();
-        ioInferOptionsBuffer.close();
+        if (batchTimeline != null) {
+            batchTimeline.close();
+        }
+        descriptorArena.close();
+        optionsArena.close();
+        if (hiddenOutputArena != null) {
+            hiddenOutputArena.close();
+        }
+        outputBufferList.getLast().close();
+        closeResources();
+    }
+
+    /// 子类在此释放自己创建的资源，由 {@link #close()} 调用，并且只会被调用一次
+    protected void closeResources() {}
+
+    /// 创建提交 `cmdBuf` 的 {@link SubmitInfo}。启用了时间线信号量时，提交会触发任务的时间线信号量，
+    /// {@link #submitBatch} 返回的句柄以它实现，不占用栅栏。
+    ///
+    /// 启用了时间线信号量时还会同时预先生成一个等待上传完成的版本，{@link #submitBatch(SubmitInfo, UploadTicket)}
+    /// 每次提交只原地修改它等待的信号量和值，不再分配新的 {@link SubmitInfo}。子类必须在持有任务的锁时调用此方法
+    protected final SubmitInfo createBatchSubmitInfo(CommandBuffer cmdBuf) {
+        if (batchTimeline == null) {
+            return new SubmitInfo(List.of(cmdBuf), List.of(), List.of(), List.of());
+        }
+
+        SubmitInfo submitInfo = new SubmitInfo(
+                List.of(cmdBuf),
+                List.of(),
+                List.of(),
+                List.of(),
+                List.of(batchTimeline),
+                List.of(0L)
+        );
+        // 等待的信号量在每次提交前被替换为上传凭据中的信号量，这里只是占位：等待自己的时间线达到 0 总是立即满足
+        SubmitInfo waitingSubmitInfo = new SubmitInfo(
+                List.of(cmdBuf),
+                List.of(batchTimeline),
+                List.of(VkPipelineStageFlags.COMPUTE_SHADER),
+                List.of(0L),
+                List.of(batchTimeline),
+                List.of(0L)
+        );
+        waitingSubmitInfoMap.put(submitInfo, waitingSubmitInfo);
+        return submitInfo;
+    }
+
+    /// 提交预录制的命令缓冲，`submitInfo` 必须由 {@link #createBatchSubmitInfo} 创建，返回的句柄被记为当前正在执行的批次。
+    ///
+    /// 由于所有批次共用同一组选项缓冲和命令缓冲，调用者必须在写入选项缓冲之前调用 {@link #awaitInFlight()}
+    protected final DeviceFuture submitBatch(SubmitInfo submitInfo) throws VulkanException {
+        ensureOpen();
+        if (batchTimeline != null) {
+            // 批次由子类在持有任务的锁时依次提交，触发值总是按提交顺序递增；提交失败时跳过的值不会被任何人等待
+            long value = ++batchTimelineValue;
+            submitInfo.setSignalValue(0, value);
+            submitOnComputeQueue(submitInfo, null);
+            inFlight = new DeviceFuture(cx, batchTimeline, value);
+            return inFlight;
+        }
+
+        Fence fence = cx.fencePool.acquire();
+        try {
+            submitOnComputeQueue(submitInfo, fence);
+        } catch (VulkanException e) {
+            cx.fencePool.release(fence);
+            throw e;
+        }
+
+        inFlight = new DeviceFuture(cx, cx.fencePool, fence);
+        return inFlight;
+    }
+
+    private void submitOnComputeQueue(SubmitInfo submitInfo, @Nullable Fence fence) throws VulkanException {
+        if (cx.hasComputeQueue()) {
+            cx.submitCompute(submitInfo, fence);
+        } else {
+            cx.submitGraphics(submitInfo, fence);
+        }
+    }
+
+    /// 与 {@link #submitBatch(SubmitInfo)} 相同，但提交在设备上等待 `after` 所代表的上传完成之后才开始执行计算。
+    /// 凭据没有携带信号量时退回到由主机等待上传完成。
+    ///
+    /// 凭据只有在启用了时间线信号量时才会携带信号量，而 {@link club.doki7.rkt.vk.RenderConfig#enableTimelineSemaphore}
+    /// 默认为 `false`，这时上传与计算之间的重叠退化为主机上的等待
+    protected final DeviceFuture submitBatch(SubmitInfo submitInfo, UploadTicket after) throws VulkanException {
+        if (after.semaphore == null) {
+            after.await();
+            return submitBatch(submitInfo);
+        }
+
+        SubmitInfo waitingSubmitInfo = waitingSubmitInfoMap.get(submitInfo);
+        if (waitingSubmitInfo == null) {
+            throw new IllegalArgumentException("submitInfo 不是由 createBatchSubmitInfo 创建的，或者未启用时间线信号量");
+        }
+        waitingSubmitInfo.setWaitSemaphore(0, after.semaphore, after.value);
+        return submitBatch(waitingSubmitInfo);
+    }
+
+    /// 任务关闭之后，选项缓冲等资源已经被释放，不能再执行任何批次
+    protected final synchronized void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("任务已经被关闭");
+        }
     }
 
-    protected void preRecordForwardCommandBuffer() {
+    protected final void awaitInFlight() throws VulkanException {
+        inFlight.await();
+    }
+
+    /// 使设备写入最后一层输出缓冲中前 `count` 个样本的结果对主机可见，主机读取映射的输出缓冲之前必须调用。
+    /// 输出缓冲未被映射时此方法没有任何效果
+    public final void invalidateOutput(long count) throws VulkanException {
+        Buffer outputBuffer = outputBufferList.getLast();
+        if (!outputBuffer.options.cached) {
+            return;
+        }
+
+        long size = count * mlp.options.layers.getLast().size * Float.BYTES;
+        outputBuffer.invalidate(cx, 0, Math.min(size, outputBuffer.size));
+    }
+
+    /// 将前向传播录制到 `cmdBuf` 中，第一层使用 `inputDescriptorSet`，见 {@link #createForwardInputDescriptorSet}
+    protected void preRecordForwardCommandBuffer(CommandBuffer cmdBuf, PushDescriptorSet inputDescriptorSet) {
         try (Arena arena = Arena.ofConfined()) {
             for (int i = 0; i < forwardDescriptorSetList.size(); i++) {
+                PushDescriptorSet descriptorSet = i == 0
+                        ? inputDescriptorSet
+                        : forwardDescriptorSetList.get(i);
                 cx.dCmd.cmdBindPipeline(
                         cmdBuf.handle,
                         VkPipelineBindPoint.COMPUTE,
@@ -145,7 +356,7 @@ public abstract sealed class MLPTaskBase implements AutoCloseable
                         mlp.factory.mlpForwardPipelineLayout.handle,
                         0,
                         5,
-                        forwardDescriptorSetList.get(i).descriptorSetWrites
+                        descriptorSet.descriptorSetWrites
                 );
 
                 MLPOptions.Layer layer = mlp.options.layers.get(i);
@@ -167,7 +378,7 @@ public abstract sealed class MLPTaskBase implements AutoCloseable
                         .srcQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
                         .dstQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
                         .buffer(outputBuffer.handle)
-                        .offset(0)
+                        .offset(outputBuffer.offset)
                         .size(outputBuffer.size);
                 cx.dCmd.cmdPipelineBarrier(
                         cmdBuf.handle,
@@ -182,18 +393,35 @@ public abstract sealed class MLPTaskBase implements AutoCloseable
         }
     }
 
+    static long layerOutputSize(MLP mlp, int layerIndex, int batchSize) {
+        return (long) mlp.options.layers.get(layerIndex).size * batchSize * Float.BYTES;
+    }
+
     protected final RenderContext cx;
     protected final MLP mlp;
 
     protected final Buffer inferOptionsBuffer;
     protected final Buffer ioInferOptionsBuffer;
+    private final BufferArena optionsArena;
+    private final @Nullable BufferArena hiddenOutputArena;
 
+    protected final Arena descriptorArena;
     protected final List<PushDescriptorSet> forwardDescriptorSetList;
     protected final CommandPool cmdPool;
     protected final CommandBuffer cmdBuf;
+    /// 批次完成时触发的时间线信号量，未启用时间线信号量时为 `null`，这时改用栅栏
+    private final @Nullable SemaphoreVK batchTimeline;
+    private long batchTimelineValue;
+    /// 由 {@link #createBatchSubmitInfo} 创建的每个 {@link SubmitInfo} 对应的预先生成的等待版本，
+    /// 未启用时间线信号量时为空
+    private final IdentityHashMap<SubmitInfo, SubmitInfo> waitingSubmitInfoMap = new IdentityHashMap<>();
+
+    private DeviceFuture inFlight = DeviceFuture.completed();
+    private boolean closed;
 
     static final StructLayout INFER_OPTIONS_LAYOUT = NativeLayout.structLayout(
             ValueLayout.JAVA_INT.withName("input_offset"),
             ValueLayout.JAVA_INT.withName("batch_size")
     );
+    private static final Logger logger = Logger.getLogger(MLPTaskBase.class.getName());
 }
@@ -4,6 +4,7 @@ import club.doki7.ffm.NativeLayout;
 import club.doki7.ffm.annotation.EnumType;
 import club.doki7.ffm.ptr.FloatPtr;
 import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.rkt.exc.RenderException;
 import club.doki7.rkt.exc.VulkanException;
 import club.doki7.rkt.util.Assertion;
 import club.doki7.rkt.vk.cmd.CommandBuffer;
@@ -13,8 +14,10 @@ import club.doki7.rkt.vk.desc.PushDescriptorSet;
 import club.doki7.rkt.vk.desc.ShaderStorageBufferObject;
 import club.doki7.rkt.vk.desc.UniformBufferObject;
 import club.doki7.rkt.vk.pipeline.ComputePipeline;
-import club.doki7.rkt.vk.pipeline.ShaderSpecialisation;
 import club.doki7.rkt.vk.resc.Buffer;
+import club.doki7.rkt.vk.resc.BufferArena;
+import club.doki7.rkt.vk.resc.UploadTicket;
+import club.doki7.rkt.vk.sync.DeviceFuture;
 import club.doki7.rkt.vk.sync.Fence;
 import club.doki7.vulkan.VkConstants;
 import club.doki7.vulkan.bitmask.*;
@@ -25,7 +28,6 @@ import club.doki7.vulkan.enumtype.VkPipelineBindPoint;
 import club.doki7.vulkan.enumtype.VkResult;
 
 import java.lang.foreign.Arena;
-import java.lang.foreign.MemorySegment;
 import java.lang.foreign.StructLayout;
 import java.lang.foreign.ValueLayout;
 import java.util.ArrayList;
@@ -43,42 +45,40 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
             Buffer inputBuffer,
             Buffer labelBuffer,
             LossFunction lossFunction
-    ) throws VulkanException {
-        super(mlp, batchSize, inputBuffer, Assertion.assertionEnabled, Assertion.assertionEnabled);
-        this.labelBuffer = labelBuffer;
+    ) throws RenderException {
+        // 反向传播需要每一层的输出，因此隐藏层的输出不能复用
+        super(mlp, batchSize, inputBuffer, Assertion.assertionEnabled, Assertion.assertionEnabled, false);
         this.lossFunction = lossFunction;
-
-        try (Arena arena = Arena.ofConfined()) {
-            MLPOptions.Layer lastLayer = mlp.options.layers.getLast();
-            if (lossFunction == LossFunction.CROSS_ENTROPY) {
-                MemorySegment spec = arena.allocate(MLPFactory.ErrorCrossEntropyShaderSpec.LAYOUT);
-                spec.set(ValueLayout.JAVA_INT, MLPFactory.ErrorCrossEntropyShaderSpec.OFFSET_tx, batchSize);
-                spec.set(ValueLayout.JAVA_INT, MLPFactory.ErrorCrossEntropyShaderSpec.OFFSET_ty, 1);
-                spec.set(ValueLayout.JAVA_INT, MLPFactory.ErrorCrossEntropyShaderSpec.OFFSET_perceptronCount, lastLayer.size);
-
-                this.errorPipeline = ComputePipeline.create(
-                        cx,
-                        mlp.factory.mlpErrorPipelineLayout,
-                        mlp.factory.mlpErrorCrossEntropyModule,
-                        new ShaderSpecialisation(MLPFactory.ErrorCrossEntropyShaderSpec.SPEC_ENTRIES, spec)
-                );
-            } else {
-                MemorySegment spec = arena.allocate(MLPFactory.ErrorMSEShaderSpec.LAYOUT);
-                spec.set(ValueLayout.JAVA_INT, MLPFactory.ErrorMSEShaderSpec.OFFSET_tx, lastLayer.perceptronWorkgroupSize);
-                spec.set(ValueLayout.JAVA_INT, MLPFactory.ErrorMSEShaderSpec.OFFSET_ty, batchSize);
-                spec.set(ValueLayout.JAVA_INT, MLPFactory.ErrorMSEShaderSpec.OFFSET_perceptronCount, lastLayer.size);
-                spec.set(ValueLayout.JAVA_INT, MLPFactory.ErrorMSEShaderSpec.OFFSET_activation, lastLayer.activ.value);
-
-                this.errorPipeline = ComputePipeline.create(
-                        cx,
-                        mlp.factory.mlpErrorPipelineLayout,
-                        mlp.factory.mlpErrorMSEModule,
-                        new ShaderSpecialisation(MLPFactory.ErrorMSEShaderSpec.SPEC_ENTRIES, spec)
-                );
-            }
+        this.trainPipelines = mlp.trainPipelines();
+
+        MLPOptions.Layer lastLayer = mlp.options.layers.getLast();
+        if (lossFunction == LossFunction.CROSS_ENTROPY) {
+            this.errorPipeline = mlp.factory.acquirePipeline(
+                    mlp.factory.mlpErrorPipelineLayout,
+                    mlp.factory.mlpErrorCrossEntropyModule(),
+                    MLPFactory.ErrorCrossEntropyShaderSpec.SPEC_ENTRIES,
+                    MLPFactory.specData(MLPFactory.ErrorCrossEntropyShaderSpec.LAYOUT, spec -> {
+                        spec.set(ValueLayout.JAVA_INT, MLPFactory.ErrorCrossEntropyShaderSpec.OFFSET_tx, batchSize);
+                        spec.set(ValueLayout.JAVA_INT, MLPFactory.ErrorCrossEntropyShaderSpec.OFFSET_ty, 1);
+                        spec.set(ValueLayout.JAVA_INT, MLPFactory.ErrorCrossEntropyShaderSpec.OFFSET_perceptronCount, lastLayer.size);
+                    })
+            );
+        } else {
+            this.errorPipeline = mlp.factory.acquirePipeline(
+                    mlp.factory.mlpErrorPipelineLayout,
+                    mlp.factory.mlpErrorMSEModule(),
+                    MLPFactory.ErrorMSEShaderSpec.SPEC_ENTRIES,
+                    MLPFactory.specData(MLPFactory.ErrorMSEShaderSpec.LAYOUT, spec -> {
+                        spec.set(ValueLayout.JAVA_INT, MLPFactory.ErrorMSEShaderSpec.OFFSET_tx, lastLayer.perceptronWorkgroupSize);
+                        spec.set(ValueLayout.JAVA_INT, MLPFactory.ErrorMSEShaderSpec.OFFSET_ty, batchSize);
+                        spec.set(ValueLayout.JAVA_INT, MLPFactory.ErrorMSEShaderSpec.OFFSET_perceptronCount, lastLayer.size);
+                        spec.set(ValueLayout.JAVA_INT, MLPFactory.ErrorMSEShaderSpec.OFFSET_activation, lastLayer.activ.value);
+                    })
+            );
         }
 
         Buffer.OptionsInit optionsInit = new Buffer.OptionsInit();
+        optionsInit.tag = MLP.MEMORY_TAG_TASK;
         optionsInit.usage = Set.of(Buffer.Usage.STORAGE_BUFFER);
         if (Assertion.assertionEnabled) {
             optionsInit.mapped = true;
@@ -98,33 +98,27 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
                 uniformOptions
         );
 
-        this.gradientBufferList = new ArrayList<>();
-        this.weightsUpdateDescriptorSetList = new ArrayList<>();
-        for (int i = 0; i < mlp.options.layers.size(); i++) {
-            MLPOptions.Layer layer = mlp.options.layers.get(i);
-
-            Buffer gradientBuffer = Buffer.create(
-                    cx,
-                    (long) layer.size * batchSize * Float.BYTES,
-                    false,
-                    storageOnlyOptions
-            );
-            gradientBufferList.add(gradientBuffer);
+        List<Long> gradientSizeList = new ArrayList<>();
+        for (MLPOptions.Layer layer : mlp.options.layers) {
+            gradientSizeList.add((long) layer.size * batchSize * Float.BYTES);
+        }
+        this.gradientArena = BufferArena.create(cx, gradientSizeList, false, storageOnlyOptions);
+        this.gradientBufferList = gradientArena.slices;
 
+        // 第一层的权重更新读取输入缓冲，它的描述符集属于各个数据绑定，见 DataBinding
+        this.weightsUpdateDescriptorSetList = new ArrayList<>();
+        weightsUpdateDescriptorSetList.add(createUpdateInputDescriptorSet(inputBuffer));
+        for (int i = 1; i < mlp.options.layers.size(); i++) {
             weightsUpdateDescriptorSetList.add(PushDescriptorSet.create(
-                    cx,
+                    descriptorArena,
                     mlp.factory.mlpUpdateWeightsSetLayout,
                     List.of(
-                            UniformBufferObject.create(cx, updateOptionsBuffer),
-                            UniformBufferObject.create(cx, i == 0
-                                    ? ioInferOptionsBuffer
-                                    : inferOptionsBuffer),
-                            ShaderStorageBufferObject.create(cx, i == 0
-                                    ? inputBuffer
-                                    : outputBufferList.get(i - 1)),
-                            ShaderStorageBufferObject.create(cx, gradientBuffer),
-                            ShaderStorageBufferObject.create(cx, mlp.weightBufferList.get(i)),
-                            ShaderStorageBufferObject.create(cx, mlp.biasBufferList.get(i))
+                            UniformBufferObject.create(descriptorArena, updateOptionsBuffer),
+                            UniformBufferObject.create(descriptorArena, inferOptionsBuffer),
+                            ShaderStorageBufferObject.create(descriptorArena, outputBufferList.get(i - 1)),
+                            ShaderStorageBufferObject.create(descriptorArena, gradientBufferList.get(i)),
+                            ShaderStorageBufferObject.create(descriptorArena, mlp.weightBufferList.get(i)),
+                            ShaderStorageBufferObject.create(descriptorArena, mlp.biasBufferList.get(i))
                     )
             ));
         }
@@ -132,33 +126,50 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
         this.backpropDescriptorSetList = new ArrayList<>();
         for (int i = 0; i < mlp.options.layers.size() - 1; i++) {
             backpropDescriptorSetList.add(PushDescriptorSet.create(
-                    cx,
+                    descriptorArena,
                     mlp.factory.mlpBackpropSetLayout,
                     List.of(
-                            UniformBufferObject.create(cx, inferOptionsBuffer),
-                            ShaderStorageBufferObject.create(cx, gradientBufferList.get(i + 1)),
-                            ShaderStorageBufferObject.create(cx, mlp.weightBufferList.get(i + 1)),
-                            ShaderStorageBufferObject.create(cx, outputBufferList.get(i)),
-                            ShaderStorageBufferObject.create(cx, gradientBufferList.get(i))
+                            UniformBufferObject.create(descriptorArena, inferOptionsBuffer),
+                            ShaderStorageBufferObject.create(descriptorArena, gradientBufferList.get(i + 1)),
+                            ShaderStorageBufferObject.create(descriptorArena, mlp.weightBufferList.get(i + 1)),
+                            ShaderStorageBufferObject.create(descriptorArena, outputBufferList.get(i)),
+                            ShaderStorageBufferObject.create(descriptorArena, gradientBufferList.get(i))
                     )
             ));
         }
 
-        this.errorDescriptorSet = PushDescriptorSet.create(cx, mlp.factory.mlpErrorSetLayout, List.of(
-                UniformBufferObject.create(cx, ioInferOptionsBuffer),
-                ShaderStorageBufferObject.create(cx, outputBufferList.getLast()),
-                ShaderStorageBufferObject.create(cx, labelBuffer),
-                ShaderStorageBufferObject.create(cx, gradientBufferList.getLast())
-        ));
-
-        preRecordCommandBuffer();
+        this.dataBindingList = new ArrayList<>();
+        DataBinding binding = new DataBinding(
+                inputBuffer,
+                forwardDescriptorSetList.getFirst(),
+                weightsUpdateDescriptorSetList.getFirst(),
+                createErrorDescriptorSet(labelBuffer),
+                cmdBuf,
+                createBatchSubmitInfo(cmdBuf)
+        );
+        preRecordCommandBuffer(binding);
+        dataBindingList.add(binding);
+    }
 
-        this.submitInfo = new SubmitInfo(
-                List.of(cmdBuf),
-                List.of(),
-                List.of(),
-                List.of()
+    /// 添加一组输入缓冲与标签缓冲，返回它的编号，之后可以通过 {@link #executeBatchAsync(int, int, long, float, UploadTicket)}
+    /// 在这组数据上训练。构造时传入的输入缓冲与标签缓冲的编号为 0。
+    ///
+    /// 所有数据绑定共用同一组隐藏层输出、梯度和选项缓冲，每个绑定只额外占用引用输入缓冲和标签缓冲的描述符集，
+    /// 以及一个预录制的命令缓冲
+    public synchronized int addDataBinding(Buffer inputBuffer, Buffer labelBuffer) throws VulkanException {
+        ensureOpen();
+        CommandBuffer bindingCmdBuf = cmdPool.allocCmdBuf(cx, VkCommandBufferLevel.PRIMARY);
+        DataBinding binding = new DataBinding(
+                inputBuffer,
+                createForwardInputDescriptorSet(inputBuffer),
+                createUpdateInputDescriptorSet(inputBuffer),
+                createErrorDescriptorSet(labelBuffer),
+                bindingCmdBuf,
+                createBatchSubmitInfo(bindingCmdBuf)
         );
+        preRecordCommandBuffer(binding);
+        dataBindingList.add(binding);
+        return dataBindingList.size() - 1;
     }
 
     public void prewarm() throws VulkanException {
@@ -171,7 +182,6 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
                 VkCommandPoolCreateFlags.TRANSIENT,
                 queueFamilyIndex
              );
-             Fence fence = Fence.create(cx);
              Arena arena = Arena.ofConfined()) {
             FloatPtr rand = FloatPtr.allocate(arena);
             if (Assertion.assertionEnabled) {
@@ -187,11 +197,11 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
             int inputSize = mlp.options.inputSize;
             for (int i = 0; i < mlp.options.layers.size(); i++) {
                 PushDescriptorSet descriptorSet = PushDescriptorSet.create(
-                        cx,
+                        arena,
                         mlp.factory.mlpWeightPrewarmSetLayout,
                         List.of(
-                                ShaderStorageBufferObject.create(cx, mlp.weightBufferList.get(i)),
-                                ShaderStorageBufferObject.create(cx, mlp.biasBufferList.get(i))
+                                ShaderStorageBufferObject.create(arena, mlp.weightBufferList.get(i)),
+                                ShaderStorageBufferObject.create(arena, mlp.biasBufferList.get(i))
                         )
                 );
 
@@ -199,7 +209,7 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
                 cx.dCmd.cmdBindPipeline(
                         cmdBuf.handle,
                         VkPipelineBindPoint.COMPUTE,
-                        mlp.prewarmPipelineList.get(i).handle
+                        trainPipelines.prewarmPipelineList.get(i).handle
                 );
                 cx.dCmd.cmdPushDescriptorSetKHR(
                         cmdBuf.handle,
@@ -233,22 +243,82 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
             }
 
             SubmitInfo submitInfo = new SubmitInfo(List.of(cmdBuf), List.of(), List.of(), List.of());
-            if (cx.hasComputeQueue()) {
-                cx.submitCompute(submitInfo, fence);
-            } else {
-                cx.submitGraphics(submitInfo, fence);
+            Fence fence = cx.fencePool.acquire();
+            try {
+                if (cx.hasComputeQueue()) {
+                    cx.submitCompute(submitInfo, fence);
+                } else {
+                    cx.submitGraphics(submitInfo, fence);
+                }
+            } catch (VulkanException e) {
+                cx.fencePool.release(fence);
+                throw e;
             }
-            cx.waitForFence(fence);
+            // 栅栏在提交完成后由 DeviceFuture 归还，等待失败时不会把仍在使用的栅栏放回池中
+            new DeviceFuture(cx, cx.fencePool, fence).await();
         }
     }
 
     public void executeBatch(int batchStart, float learnRate) throws VulkanException {
         long totalCount = inputBuffer.size / ((long) mlp.options.inputSize * Float.BYTES);
+        executeBatch(batchStart, totalCount, learnRate);
+    }
+
+    /// 与 {@link #executeBatch(int, float)} 相同，但由调用者指定输入缓冲中有效样本的总数，
+    /// 用于输入缓冲只有前一部分被填充的情形（例如流式训练中的最后一个数据块）
+    public void executeBatch(int batchStart, long totalCount, float learnRate) throws VulkanException {
+        executeBatchAsync(batchStart, totalCount, learnRate).await();
+    }
+
+    /// 提交一个训练批次但不等待其完成。同一任务同时只能有一个批次在设备上执行，
+    /// 因此如果上一个批次尚未完成，此方法会先等待它完成
+    public DeviceFuture executeBatchAsync(int batchStart, float learnRate) throws VulkanException {
+        long totalCount = inputBuffer.size / ((long) mlp.options.inputSize * Float.BYTES);
+        return executeBatchAsync(batchStart, totalCount, learnRate);
+    }
+
+    public DeviceFuture executeBatchAsync(
+            int batchStart,
+            long totalCount,
+            float learnRate
+    ) throws VulkanException {
+        return executeBatchAsync(batchStart, totalCount, learnRate, UploadTicket.completed());
+    }
+
+    /// 与 {@link #executeBatchAsync(int, long, float)} 相同，但批次在设备上等待 `after` 所代表的上传完成之后才开始执行。
+    /// 未启用时间线信号量（{@link club.doki7.rkt.vk.RenderConfig#enableTimelineSemaphore} 默认为 `false`）时，
+    /// 此方法在主机上等待上传完成之后才提交批次
+    public DeviceFuture executeBatchAsync(
+            int batchStart,
+            long totalCount,
+            float learnRate,
+            UploadTicket after
+    ) throws VulkanException {
+        return executeBatchAsync(0, batchStart, totalCount, learnRate, after);
+    }
+
+    /// 与 {@link #executeBatchAsync(int, long, float, UploadTicket)} 相同，但在编号为 `binding` 的数据绑定上训练，
+    /// 见 {@link #addDataBinding}
+    public synchronized DeviceFuture executeBatchAsync(
+            int binding,
+            int batchStart,
+            long totalCount,
+            float learnRate,
+            UploadTicket after
+    ) throws VulkanException {
+        ensureOpen();
+        DataBinding dataBinding = dataBindingList.get(binding);
+        if (totalCount * mlp.options.inputSize * Float.BYTES > dataBinding.inputBuffer.size) {
+            throw new IllegalArgumentException("有效样本总数超出输入缓冲容量");
+        }
+
         long ehtotBatchSize = Math.min(totalCount - batchStart, batchSize);
         if (ehtotBatchSize <= 0) {
             throw new IllegalArgumentException("批次起始超出输入数据范围");
         }
 
+        awaitInFlight();
+
         IntPtr pInferOptionsBuffer = Objects.requireNonNull(IntPtr.checked(inferOptionsBuffer.mapped));
         IntPtr pIOInferOptionsBuffer = Objects.requireNonNull(IntPtr.checked(ioInferOptionsBuffer.mapped));
         IntPtr pUpdateOptionsBuffer = Objects.requireNonNull(IntPtr.checked(updateOptionsBuffer.mapped));
@@ -259,17 +329,10 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
         pUpdateOptionsBuffer.segment().set(ValueLayout.JAVA_FLOAT, 0, learnRate);
         pUpdateOptionsBuffer.write(1, (int) ehtotBatchSize);
 
-        try (Fence fence = Fence.createLocal(cx)) {
-            if (cx.hasComputeQueue()) {
-                cx.submitCompute(submitInfo, fence);
-            } else {
-                cx.submitGraphics(submitInfo, fence);
-            }
-            cx.waitForFence(fence);
-        }
+        return submitBatch(dataBinding.submitInfo, after);
     }
 
-    public void inspect(int batchStart) {
+    public void inspect(int batchStart) throws VulkanException {
         if (!Assertion.assertionEnabled) {
             throw new IllegalStateException("仅在启用断言时可调用此方法");
         }
@@ -278,6 +341,7 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
         long ehtotBatchSize = Math.min(totalCount - batchStart, batchSize);
 
         logger.info("在训练完第一个批次后，输出模型信息：");
+        invalidateOutput(ehtotBatchSize);
 
         List<FloatPtr> outputBufferMappedList = new ArrayList<>();
         for (Buffer outputBuffer : outputBufferList) {
@@ -362,19 +426,42 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
     }
 
     @Override
-    public void close() {
-        for (Buffer gradientBuffer : gradientBufferList) {
-            gradientBuffer.close();
-        }
+    protected void closeResources() {
+        gradientArena.close();
         updateOptionsBuffer.close();
-        errorPipeline.close();
-        super.close();
+        mlp.factory.releasePipeline(errorPipeline);
+    }
+
+    private PushDescriptorSet createUpdateInputDescriptorSet(Buffer inputBuffer) {
+        return PushDescriptorSet.create(
+                descriptorArena,
+                mlp.factory.mlpUpdateWeightsSetLayout,
+                List.of(
+                        UniformBufferObject.create(descriptorArena, updateOptionsBuffer),
+                        UniformBufferObject.create(descriptorArena, ioInferOptionsBuffer),
+                        ShaderStorageBufferObject.create(descriptorArena, inputBuffer),
+                        ShaderStorageBufferObject.create(descriptorArena, gradientBufferList.getFirst()),
+                        ShaderStorageBufferObject.create(descriptorArena, mlp.weightBufferList.getFirst()),
+                        ShaderStorageBufferObject.create(descriptorArena, mlp.biasBufferList.getFirst())
+                )
+        );
     }
 
-    private void preRecordCommandBuffer() throws VulkanException {
+    private PushDescriptorSet createErrorDescriptorSet(Buffer labelBuffer) {
+        return PushDescriptorSet.create(descriptorArena, mlp.factory.mlpErrorSetLayout, List.of(
+                UniformBufferObject.create(descriptorArena, ioInferOptionsBuffer),
+                ShaderStorageBufferObject.create(descriptorArena, outputBufferList.getLast()),
+                ShaderStorageBufferObject.create(descriptorArena, labelBuffer),
+                ShaderStorageBufferObject.create(descriptorArena, gradientBufferList.getLast())
+        ));
+    }
+
+    private void preRecordCommandBuffer(DataBinding binding) throws VulkanException {
+        CommandBuffer cmdBuf = binding.cmdBuf;
+        PushDescriptorSet errorDescriptorSet = binding.errorDescriptorSet;
         try (Arena arena = Arena.ofConfined()) {
             cx.dCmd.beginCommandBuffer(cmdBuf.handle, VkCommandBufferBeginInfo.allocate(arena));
-            preRecordForwardCommandBuffer();
+            preRecordForwardCommandBuffer(cmdBuf, binding.forwardInputDescriptorSet);
 
             MLPOptions.Layer lastLayer = mlp.options.layers.getLast();
 
@@ -416,7 +503,7 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
                         .srcQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
                         .dstQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
                         .buffer(gradientBuffer.handle)
-                        .offset(0)
+                        .offset(gradientBuffer.offset)
                         .size(gradientBuffer.size);
                 cx.dCmd.cmdPipelineBarrier(
                         cmdBuf.handle,
@@ -433,7 +520,7 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
                 cx.dCmd.cmdBindPipeline(
                         cmdBuf.handle,
                         VkPipelineBindPoint.COMPUTE,
-                        mlp.backpropPipelineList.get(i).handle
+                        trainPipelines.backpropPipelineList.get(i).handle
                 );
                 cx.dCmd.cmdPushDescriptorSetKHR(
                         cmdBuf.handle,
@@ -460,7 +547,7 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
                     .srcQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
                     .dstQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
                     .buffer(gradientBufferList.getFirst().handle)
-                    .offset(0)
+                    .offset(gradientBufferList.getFirst().offset)
                     .size(gradientBufferList.getFirst().size);
             cx.dCmd.cmdPipelineBarrier(
                     cmdBuf.handle,
@@ -478,19 +565,22 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
             int inputPerceptronWorkgroupSize = mlp.options.layers.getFirst().perceptronWorkgroupSize;
             for (int i = 0; i < mlp.options.layers.size(); i++) {
                 MLPOptions.Layer layer = mlp.options.layers.get(i);
+                PushDescriptorSet updateDescriptorSet = i == 0
+                        ? binding.updateInputDescriptorSet
+                        : weightsUpdateDescriptorSetList.get(i);
 
                 cx.dCmd.cmdBindPipeline(
                         cmdBuf.handle,
                         VkPipelineBindPoint.COMPUTE,
-                        mlp.updatePipelineList.get(i).handle
+                        trainPipelines.updatePipelineList.get(i).handle
                 );
                 cx.dCmd.cmdPushDescriptorSetKHR(
                         cmdBuf.handle,
                         VkPipelineBindPoint.COMPUTE,
                         mlp.factory.mlpUpdateWeightsPipelineLayout.handle,
                         0,
-                        weightsUpdateDescriptorSetList.get(i).descriptors.size(),
-                        weightsUpdateDescriptorSetList.get(i).descriptorSetWrites
+                        updateDescriptorSet.descriptors.size(),
+                        updateDescriptorSet.descriptorSetWrites
                 );
                 cx.dCmd.cmdDispatch(
                         cmdBuf.handle,
@@ -516,7 +606,7 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
                         .srcQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
                         .dstQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
                         .buffer(weightBuffer.handle)
-                        .offset(0)
+                        .offset(weightBuffer.offset)
                         .size(weightBuffer.size));
                 barriers.at(i * 2L + 1, it -> it
                         .srcAccessMask(VkAccessFlags.SHADER_WRITE)
@@ -524,7 +614,7 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
                         .srcQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
                         .dstQueueFamilyIndex(VkConstants.QUEUE_FAMILY_IGNORED)
                         .buffer(biasBuffer.handle)
-                        .offset(0)
+                        .offset(biasBuffer.offset)
                         .size(biasBuffer.size));
             }
 
@@ -546,17 +636,43 @@ public final class MLPTrainTask extends MLPTaskBase implements AutoCloseable {
         }
     }
 
-    private final Buffer labelBuffer;
+    /// 一组输入缓冲与标签缓冲，以及在这组数据上训练所需的、引用它们的描述符集和预录制的命令缓冲
+    private static final class DataBinding {
+        final Buffer inputBuffer;
+        final PushDescriptorSet forwardInputDescriptorSet;
+        final PushDescriptorSet updateInputDescriptorSet;
+        final PushDescriptorSet errorDescriptorSet;
+        final CommandBuffer cmdBuf;
+        final SubmitInfo submitInfo;
+
+        DataBinding(
+                Buffer inputBuffer,
+                PushDescriptorSet forwardInputDescriptorSet,
+                PushDescriptorSet updateInputDescriptorSet,
+                PushDescriptorSet errorDescriptorSet,
+                CommandBuffer cmdBuf,
+                SubmitInfo submitInfo
+        ) {
+            this.inputBuffer = inputBuffer;
+            this.forwardInputDescriptorSet = forwardInputDescriptorSet;
+            this.updateInputDescriptorSet = updateInputDescriptorSet;
+            this.errorDescriptorSet = errorDescriptorSet;
+            this.cmdBuf = cmdBuf;
+            this.submitInfo = submitInfo;
+        }
+    }
+
     private final LossFunction lossFunction;
+    private final MLP.TrainPipelines trainPipelines;
     private final ComputePipeline errorPipeline;
 
     private final Buffer updateOptionsBuffer;
+    private final BufferArena gradientArena;
 
     private final List<PushDescriptorSet> weightsUpdateDescriptorSetList;
     private final List<PushDescriptorSet> backpropDescriptorSetList;
-    private final PushDescriptorSet errorDescriptorSet;
 
-    private final SubmitInfo submitInfo;
+    private final List<DataBinding> dataBindingList;
 
     static final StructLayout UPDATE_OPTIONS_LAYOUT = NativeLayout.structLayout(
             ValueLayout.JAVA_FLOAT.withName("learning_rate"),
@@ -93,7 +93,7 @@ final class MNIST_Application implements AutoCloseable {
 
         Buffer.Options inputBufferOptions = Buffer.OptionsInit.shaderStorageBufferPreset().build();
         try (Buffer inputBuffer = Buffer.create(cx, testDataSize * MNIST_IMAGE_SIZE * Float.BYTES, false, inputBufferOptions);
-             MLPInferTask inferTask = new MLPInferTask(model, batchSize, inputBuffer, true, false);
+             MLPBufferedInferTask inferTask = new MLPBufferedInferTask(model, batchSize, 2, inputBuffer, true);
              Arena arena = Arena.ofConfined()) {
             FloatPtr normalisedInput = FloatPtr.allocate(arena, inputData.length - MNIST_IMAGE_FILE_HEADER_SIZE);
             for (int i = MNIST_IMAGE_FILE_HEADER_SIZE; i < inputData.length; i++) {
@@ -103,20 +103,20 @@ final class MNIST_Application implements AutoCloseable {
                     ? QueueFamily.COMPUTE
                     : QueueFamily.GRAPHICS);
 
-            FloatPtr outputMapped = Objects.requireNonNull(FloatPtr.checked(inferTask.outputBufferList.getLast().mapped));
-            assert outputMapped.size() == batchSize * 10;
             int correctCount = 0;
-            for (int batchIdx = 0; batchIdx < testDataSize; batchIdx += batchSize) {
+            while (inferTask.hasNext()) {
                 long startTime = System.nanoTime();
-                inferTask.executeBatch(batchIdx);
+                MLPBufferedInferTask.Batch batch = inferTask.next();
                 long endTime = System.nanoTime();
 
-                logger.info("批次 " + (batchIdx / batchSize + 1) + " 推理耗时: " + (endTime - startTime) / 1000_000 + " ms");
+                logger.info("批次 " + (batch.batchStart / batchSize + 1) + " 推理等待耗时: " + (endTime - startTime) / 1000_000 + " ms");
 
-                for (int outputIdx = 0; outputIdx < batchSize; outputIdx++) {
+                FloatPtr outputMapped = Objects.requireNonNull(FloatPtr.checked(batch.outputBuffer.mapped));
+                assert outputMapped.size() == batchSize * 10;
+                for (int outputIdx = 0; outputIdx < batch.count; outputIdx++) {
                     FloatPtr oneHot = outputMapped.slice(outputIdx * 10, (outputIdx + 1) * 10);
                     byte actual = max10(oneHot);
-                    byte expected = labelData[MNIST_LABEL_FILE_HEADER_SIZE + batchIdx + outputIdx];
+                    byte expected = labelData[MNIST_LABEL_FILE_HEADER_SIZE + batch.batchStart + outputIdx];
 
                     if (actual == expected) {
                         correctCount++;
@@ -2,11 +2,9 @@ package club.doki7.rkt.launch.nn;
 
 import club.doki7.ffm.library.ILibraryLoader;
 import club.doki7.ffm.library.ISharedLibrary;
-import club.doki7.ffm.ptr.FloatPtr;
 import club.doki7.rkt.exc.RenderException;
 import club.doki7.rkt.vk.RenderConfig;
 import club.doki7.rkt.vk.RenderContext;
-import club.doki7.rkt.vk.resc.Buffer;
 import club.doki7.vulkan.command.VulkanLoader;
 
 import javax.swing.*;
@@ -36,61 +34,48 @@ public class MNIST_Swing {
         }
 
         new Thread(() -> {
-            Buffer.OptionsInit inputBufferOptionsInit = new Buffer.OptionsInit();
-            inputBufferOptionsInit.usage = Set.of(Buffer.Usage.STORAGE_BUFFER);
-            inputBufferOptionsInit.mapped = true;
-            inputBufferOptionsInit.coherent = true;
-            Buffer.Options inputBufferOptions = inputBufferOptionsInit.build();
-
             try (ISharedLibrary libVulkan = VulkanLoader.loadVulkanLibrary();
                  ISharedLibrary libVMA = ILibraryLoader.platformLoader().loadLibrary("vma");
                  RenderContext cx = RenderContext.createHeadless(libVulkan, libVMA, new RenderConfig());
                  MLPFactory mlpFactory = new MLPFactory(cx);
                  MLP mlp = buildMLP(mlpFactory);
-                 Buffer inputBuffer = Buffer.create(
-                         cx,
-                         MNIST_IMAGE_SIZE * Float.BYTES,
-                         false,
-                         inputBufferOptions
-                 );
-                 MLPInferTask inferTask = new MLPInferTask(mlp, 1, inputBuffer, true, true)) {
-                FloatPtr inputBufferMapped =
-                        Objects.requireNonNull(FloatPtr.checked(inferTask.inputBuffer.mapped));
-                FloatPtr outputBufferMapped =
-                        Objects.requireNonNull(FloatPtr.checked(inferTask.outputBufferList.getLast().mapped));
-
+                 MLPInferBatcher batcher = new MLPInferBatcher(mlp, INFER_BATCH_SIZE, INFER_MAX_DELAY_NANOS)) {
                 while (true) {
                     boolean[][] input = inputQueue.take();
 
+                    float[] inputData = new float[MNIST_IMAGE_SIZE];
                     for (int i = 0; i < MNIST_IMAGE_SIZE; i++) {
                         int row = i / 28;
                         int col = i % 28;
-                        inputBufferMapped.write(i, input[row][col] ? 1.0f : 0.0f);
+                        inputData[i] = input[row][col] ? 1.0f : 0.0f;
                     }
 
-                    inferTask.executeBatch(0);
-
-                    float[] exp = new float[10];
-                    float maxExp = Float.MIN_VALUE;
-                    for (int i = 0; i < exp.length; i++) {
-                        exp[i] = outputBufferMapped.read(i);
-                        if (exp[i] > maxExp) {
-                            maxExp = exp[i];
+                    batcher.infer(inputData).thenAccept(output -> {
+                        float[] exp = new float[10];
+                        float maxExp = Float.MIN_VALUE;
+                        for (int i = 0; i < exp.length; i++) {
+                            exp[i] = output[i];
+                            if (exp[i] > maxExp) {
+                                maxExp = exp[i];
+                            }
                         }
-                    }
-
-                    float sum = 0.0f;
-                    for (int i = 0; i < exp.length; i++) {
-                        exp[i] = (float) Math.exp(exp[i] - maxExp);
-                        sum += exp[i];
-                    }
 
-                    final float sum1 = sum;
-                    SwingUtilities.invokeLater(() -> {
+                        float sum = 0.0f;
                         for (int i = 0; i < exp.length; i++) {
-                            float percentage = (exp[i] / sum1) * 100.0f;
-                            numPossibilities[i].setText(String.format("数字 %d: %.2f%%", i, percentage));
+                            exp[i] = (float) Math.exp(exp[i] - maxExp);
+                            sum += exp[i];
                         }
+
+                        final float sum1 = sum;
+                        SwingUtilities.invokeLater(() -> {
+                            for (int i = 0; i < exp.length; i++) {
+                                float percentage = (exp[i] / sum1) * 100.0f;
+                                numPossibilities[i].setText(String.format("数字 %d: %.2f%%", i, percentage));
+                            }
+                        });
+                    }).exceptionally(e -> {
+                        e.printStackTrace(System.err);
+                        return null;
                     });
                 }
             } catch (Throwable e) {
@@ -192,6 +177,8 @@ public class MNIST_Swing {
             10L * Float.BYTES
     );
     private static final int MNIST_IMAGE_SIZE = 28 * 28;
+    private static final int INFER_BATCH_SIZE = 16;
+    private static final long INFER_MAX_DELAY_NANOS = 2_000_000L;
 }
 
 abstract class DrawingPanel extends JPanel {
@@ -0,0 +1,177 @@
+package club.doki7.rkt.shaderc;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.ffm.ptr.BytePtr;
+import club.doki7.shaderc.ShadercUtil;
+import club.doki7.shaderc.enumtype.ShadercIncludeType;
+import club.doki7.shaderc.enumtype.ShadercShaderKind;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/// 以内容寻址的 SPIR-V 磁盘缓存。
+///
+/// 缓存键是以下内容的 SHA-256：缓存格式版本、编译器版本、编译选项（入口点与宏定义）、着色器类型、
+/// 文件名、源代码，以及源代码通过 `#include` 直接或间接引用的所有文件的内容。包含文件通过与编译器相同的
+/// {@link ShadercUtil.IncludeResolve} 在 Java 侧解析，编译器版本由调用者提供，因此计算缓存键不需要加载 shaderc。
+///
+/// 更换 shaderc 或者改变编译选项都会改变缓存键，旧的缓存文件不会再被使用。
+///
+/// 对包含指令的扫描是纯文本的，不考虑预处理条件，这只会让缓存键覆盖更多的文件，而不会漏掉任何文件
+final class SPVCache {
+    SPVCache(Path directory, ShadercUtil.IncludeResolve includeResolve, String compilerVersion) {
+        this.directory = directory;
+        this.includeResolve = includeResolve;
+        this.compilerVersion = compilerVersion;
+    }
+
+    /// 计算缓存键，如果某个包含文件无法解析则返回 `null`，此时应当直接编译，由编译器报告错误
+    @Nullable String key(
+            String fileName,
+            String sourceCode,
+            @EnumType(ShadercShaderKind.class) int shaderKind,
+            String entryPoint,
+            Map<String, String> macros
+    ) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前 Java 运行时不支持 SHA-256", e);
+        }
+
+        update(digest, CACHE_FORMAT_VERSION);
+        update(digest, compilerVersion);
+        update(digest, entryPoint);
+        update(digest, Integer.toString(macros.size()));
+        for (Map.Entry<String, String> macro : new TreeMap<>(macros).entrySet()) {
+            update(digest, macro.getKey());
+            update(digest, macro.getValue());
+        }
+        update(digest, Integer.toString(shaderKind));
+        update(digest, fileName);
+        update(digest, sourceCode);
+
+        try {
+            digestIncludes(digest, fileName, sourceCode, 1, new HashSet<>());
+        } catch (Exception e) {
+            logger.fine("无法解析着色器 " + fileName + " 的包含文件，跳过缓存: " + e.getMessage());
+            return null;
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    @Nullable BytePtr load(Arena resultArena, String key) {
+        Path file = directory.resolve(key + ".spv");
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (IOException e) {
+            logger.warning("无法读取 SPIR-V 缓存文件 " + file + ": " + e.getMessage());
+            return null;
+        }
+
+        if (bytes.length < 4 || bytes.length % 4 != 0) {
+            logger.warning("SPIR-V 缓存文件 " + file + " 已损坏，将重新编译");
+            return null;
+        }
+
+        BytePtr ret = BytePtr.allocateAligned(resultArena, bytes.length, 4);
+        ret.segment().copyFrom(MemorySegment.ofArray(bytes));
+        int magic = ret.segment().get(ValueLayout.JAVA_INT.withOrder(ByteOrder.nativeOrder()), 0);
+        if (magic != SPIRV_MAGIC) {
+            logger.warning("SPIR-V 缓存文件 " + file + " 已损坏，将重新编译");
+            return null;
+        }
+        return ret;
+    }
+
+    void store(String key, BytePtr spv) {
+        Path file = directory.resolve(key + ".spv");
+        try {
+            Files.createDirectories(directory);
+            // 先写入临时文件再替换，并发的进程最多重复编译一次，而不会读到不完整的文件
+            Path tempFile = Files.createTempFile(directory, key, ".tmp");
+            Files.write(tempFile, spv.segment().toArray(ValueLayout.JAVA_BYTE));
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("无法写入 SPIR-V 缓存文件 " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void digestIncludes(
+            MessageDigest digest,
+            String requestingSource,
+            String sourceCode,
+            long includeDepth,
+            Set<String> visited
+    ) throws Exception {
+        Matcher matcher = INCLUDE_PATTERN.matcher(sourceCode);
+        while (matcher.find()) {
+            String requestedSource = matcher.group(2);
+            @EnumType(ShadercIncludeType.class) int includeType = matcher.group(1).equals("<")
+                    ? ShadercIncludeType.STANDARD
+                    : ShadercIncludeType.RELATIVE;
+
+            ShadercUtil.IncludeResult result = includeResolve.resolve(
+                    requestedSource,
+                    includeType,
+                    requestingSource,
+                    includeDepth
+            );
+            if (!visited.add(result.sourceName)) {
+                continue;
+            }
+
+            update(digest, result.sourceName);
+            update(digest, result.content);
+            digestIncludes(digest, result.sourceName, result.content, includeDepth + 1, visited);
+        }
+    }
+
+    /// 写入长度前缀，避免不同字段拼接后产生相同的字节序列
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(new byte[] {
+                (byte) (bytes.length >>> 24),
+                (byte) (bytes.length >>> 16),
+                (byte) (bytes.length >>> 8),
+                (byte) bytes.length
+        });
+        digest.update(bytes);
+    }
+
+    private final Path directory;
+    private final ShadercUtil.IncludeResolve includeResolve;
+    /// 由调用者提供的编译器标识，计算它不需要加载 shaderc
+    private final String compilerVersion;
+
+    private static final String CACHE_FORMAT_VERSION = "spv-cache-2";
+    private static final int SPIRV_MAGIC = 0x07230203;
+    private static final Pattern INCLUDE_PATTERN =
+            Pattern.compile("^\\s*#\\s*include\\s*([<\"])([^>\"]+)[>\"]", Pattern.MULTILINE);
+    private static final Logger logger = Logger.getLogger(SPVCache.class.getName());
+}
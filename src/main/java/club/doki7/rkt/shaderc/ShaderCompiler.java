@@ -12,10 +12,22 @@ import club.doki7.shaderc.handle.ShadercCompileOptions;
 import club.doki7.shaderc.handle.ShadercCompiler;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.lang.ref.Cleaner;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
 
 public final class ShaderCompiler implements AutoCloseable {
     public String compileIntoAssembly(
@@ -23,19 +35,21 @@ public final class ShaderCompiler implements AutoCloseable {
             String sourceCode,
             @EnumType(ShadercShaderKind.class) int shaderKind
     ) throws ShaderCompileException {
+        NativeState state = ensureNativeState();
+        Shaderc shaderc = state.shaderc;
         @Nullable ShadercCompilationResult result = null;
         try (Arena arena = Arena.ofConfined()) {
             BytePtr pFileName = BytePtr.allocateString(arena, fileName);
             BytePtr pSourceCode = BytePtr.allocateString(arena, sourceCode);
 
             result = Objects.requireNonNull(shaderc.compileIntoSPVAssembly(
-                    compiler,
+                    state.compiler,
                     pSourceCode,
                     pSourceCode.size() - 1,
                     shaderKind,
                     pFileName,
-                    entryPoint,
-                    options
+                    pEntryPoint,
+                    state.options
             ));
 
             long numErrors = shaderc.resultGetNumErrors(result);
@@ -53,25 +67,55 @@ public final class ShaderCompiler implements AutoCloseable {
         }
     }
 
+    /// 将 GLSL 源代码编译为 SPIR-V。启用了编译缓存时，先以编译器版本、编译选项、源代码、包含文件和
+    /// 着色器类型计算缓存键并查找磁盘缓存，命中时不会调用 shaderc 编译
     public BytePtr compileIntoSPV(
             Arena resultArena,
             String fileName,
             String sourceCode,
             @EnumType(ShadercShaderKind.class) int shaderKind
     ) throws ShaderCompileException {
+        @Nullable String cacheKey = spvCache != null
+                ? spvCache.key(fileName, sourceCode, shaderKind, ENTRY_POINT, MACROS)
+                : null;
+        if (cacheKey != null) {
+            assert spvCache != null;
+            @Nullable BytePtr cached = spvCache.load(resultArena, cacheKey);
+            if (cached != null) {
+                logger.fine("着色器 " + fileName + " 命中 SPIR-V 缓存: " + cacheKey);
+                return cached;
+            }
+        }
+
+        BytePtr spv = compileIntoSPVUncached(resultArena, fileName, sourceCode, shaderKind);
+        if (cacheKey != null) {
+            assert spvCache != null;
+            spvCache.store(cacheKey, spv);
+        }
+        return spv;
+    }
+
+    private BytePtr compileIntoSPVUncached(
+            Arena resultArena,
+            String fileName,
+            String sourceCode,
+            @EnumType(ShadercShaderKind.class) int shaderKind
+    ) throws ShaderCompileException {
+        NativeState state = ensureNativeState();
+        Shaderc shaderc = state.shaderc;
         ShadercCompilationResult result = null;
         try (Arena arena = Arena.ofConfined()) {
             BytePtr pFileName = BytePtr.allocateString(arena, fileName);
             BytePtr pSourceCode = BytePtr.allocateString(arena, sourceCode);
 
             result = Objects.requireNonNull(shaderc.compileIntoSPV(
-                    compiler,
+                    state.compiler,
                     pSourceCode,
                     pSourceCode.size() - 1,
                     shaderKind,
                     pFileName,
-                    entryPoint,
-                    options
+                    pEntryPoint,
+                    state.options
             ));
 
             long numErrors = shaderc.resultGetNumErrors(result);
@@ -97,6 +141,95 @@ public final class ShaderCompiler implements AutoCloseable {
     }
 
     public static ShaderCompiler create(Shaderc shaderc, ShadercUtil.IncludeResolve includeResolve) {
+        ShaderCompiler compiler = new ShaderCompiler(() -> shaderc, includeResolve, null);
+        compiler.ensureNativeState();
+        return compiler;
+    }
+
+    /// 创建一个编译器，`cacheDirectory` 与 `compilerVersion` 都不为 `null` 时启用 SPIR-V 磁盘缓存。
+    ///
+    /// `compilerVersion` 标识了 `shadercLoader` 将会加载的 shaderc，参与缓存键的计算，更换 shaderc 后它必须改变，
+    /// 可以使用 {@link #libraryFingerprint}。shaderc 只会在第一次缓存未命中时通过 `shadercLoader` 加载，
+    /// 因此所有着色器都命中缓存时，进程不需要加载 shaderc 动态库
+    public static ShaderCompiler create(
+            Supplier<Shaderc> shadercLoader,
+            ShadercUtil.IncludeResolve includeResolve,
+            @Nullable Path cacheDirectory,
+            @Nullable String compilerVersion
+    ) {
+        @Nullable SPVCache spvCache = cacheDirectory != null && compilerVersion != null
+                ? new SPVCache(cacheDirectory, includeResolve, compilerVersion)
+                : null;
+        return new ShaderCompiler(shadercLoader, includeResolve, spvCache);
+    }
+
+    /// 在 `java.library.path` 与系统的动态库搜索路径中查找名为 `libraryName` 的动态库文件，以文件的绝对路径、
+    /// 大小和修改时间作为它的指纹，不会加载这个动态库。找不到文件时返回 `null`
+    public static @Nullable String libraryFingerprint(String libraryName) {
+        String fileName = System.mapLibraryName(libraryName);
+        List<String> searchPaths = new ArrayList<>();
+        searchPaths.add(System.getProperty("java.library.path", ""));
+        for (String variable : LIBRARY_PATH_VARIABLES) {
+            @Nullable String value = System.getenv(variable);
+            if (value != null) {
+                searchPaths.add(value);
+            }
+        }
+
+        for (String searchPath : searchPaths) {
+            for (String directory : searchPath.split(File.pathSeparator)) {
+                if (directory.isEmpty()) {
+                    continue;
+                }
+
+                Path file = Path.of(directory, fileName);
+                try {
+                    if (!Files.isRegularFile(file)) {
+                        continue;
+                    }
+                    Path realFile = file.toRealPath();
+                    BasicFileAttributes attributes = Files.readAttributes(realFile, BasicFileAttributes.class);
+                    return realFile + ":" + attributes.size() + ":" + attributes.lastModifiedTime().toMillis();
+                } catch (IOException | InvalidPathException e) {
+                    logger.fine("无法读取动态库文件 " + file + ": " + e.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        cleanable.clean();
+    }
+
+    private ShaderCompiler(
+            Supplier<Shaderc> shadercLoader,
+            ShadercUtil.IncludeResolve includeResolve,
+            @Nullable SPVCache spvCache
+    ) {
+        this.shadercLoader = shadercLoader;
+        this.includeResolve = includeResolve;
+        this.spvCache = spvCache;
+        this.nativeState = new AtomicReference<>();
+
+        AtomicReference<NativeState> nativeState = this.nativeState;
+        this.cleanable = cleaner.register(this, () -> {
+            @Nullable NativeState state = nativeState.getAndSet(null);
+            if (state != null) {
+                state.shaderc.compileOptionsRelease(state.options);
+                state.shaderc.compilerRelease(state.compiler);
+            }
+        });
+    }
+
+    private synchronized NativeState ensureNativeState() {
+        @Nullable NativeState state = nativeState.get();
+        if (state != null) {
+            return state;
+        }
+
+        Shaderc shaderc = shadercLoader.get();
         ShadercCompiler compiler = shaderc.compilerInitialize();
         ShadercCompileOptions options = shaderc.compileOptionsInitialize();
 
@@ -120,32 +253,40 @@ public final class ShaderCompiler implements AutoCloseable {
             );
         }
 
-        return new ShaderCompiler(shaderc, compiler, options);
+        state = new NativeState(shaderc, compiler, options);
+        nativeState.set(state);
+        return state;
     }
 
-    @Override
-    public void close() {
-        cleanable.clean();
-    }
-
-    private ShaderCompiler(Shaderc shaderc, ShadercCompiler compiler, ShadercCompileOptions options) {
-        this.shaderc = shaderc;
-        this.compiler = compiler;
-        this.options = options;
+    private static final class NativeState {
+        final Shaderc shaderc;
+        final ShadercCompiler compiler;
+        final ShadercCompileOptions options;
 
-        this.cleanable = cleaner.register(this, () -> {
-            shaderc.compileOptionsRelease(options);
-            shaderc.compilerRelease(compiler);
-        });
+        NativeState(Shaderc shaderc, ShadercCompiler compiler, ShadercCompileOptions options) {
+            this.shaderc = shaderc;
+            this.compiler = compiler;
+            this.options = options;
+        }
     }
 
-    private final Shaderc shaderc;
-    private final ShadercCompiler compiler;
-    private final ShadercCompileOptions options;
+    private final Supplier<Shaderc> shadercLoader;
+    private final ShadercUtil.IncludeResolve includeResolve;
+    private final @Nullable SPVCache spvCache;
+    private final AtomicReference<NativeState> nativeState;
     private final Cleaner.Cleanable cleanable;
 
     private static final Cleaner cleaner = Cleaner.create();
-    private static final BytePtr entryPoint = BytePtr.allocateString(Arena.global(), "main");
+    /// 编译选项中的入口点与宏定义都参与 SPIR-V 缓存键的计算，在 {@link #ensureNativeState} 中设置新的编译选项时，
+    /// 也必须将其加入缓存键
+    private static final String ENTRY_POINT = "main";
+    private static final BytePtr pEntryPoint = BytePtr.allocateString(Arena.global(), ENTRY_POINT);
     private static final BytePtr defensiveMacroName = BytePtr.allocateString(Arena.global(), "DEFENSIVE");
     private static final BytePtr defensiveMacroValue = BytePtr.allocateString(Arena.global(), "1");
+    /// 与编译选项中的宏定义保持一致
+    private static final Map<String, String> MACROS = Assertion.assertionEnabled
+            ? Map.of("DEFENSIVE", "1")
+            : Map.of();
+    private static final List<String> LIBRARY_PATH_VARIABLES = List.of("LD_LIBRARY_PATH", "DYLD_LIBRARY_PATH", "PATH");
+    private static final Logger logger = Logger.getLogger(ShaderCompiler.class.getName());
 }
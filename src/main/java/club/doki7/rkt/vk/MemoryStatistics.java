@@ -0,0 +1,91 @@
+package club.doki7.rkt.vk;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/// 某一时刻的显存使用情况，见 {@link RenderContext#memoryStatistics()}
+public final class MemoryStatistics {
+    public static final class Heap {
+        public final int heapIndex;
+        public final long size;
+        public final boolean deviceLocal;
+        /// 当前进程可以使用的显存预算。启用了显存预算扩展时由驱动给出，否则由 VMA 根据堆大小估计
+        public final long budget;
+        /// 当前进程已经使用的显存。启用了显存预算扩展时由驱动给出，包括不经过 VMA 的分配
+        public final long usage;
+        /// VMA 向驱动申请的内存块的总大小
+        public final long blockBytes;
+        /// 内存块中实际被分配出去的大小
+        public final long allocationBytes;
+
+        public Heap(
+                int heapIndex,
+                long size,
+                boolean deviceLocal,
+                long budget,
+                long usage,
+                long blockBytes,
+                long allocationBytes
+        ) {
+            this.heapIndex = heapIndex;
+            this.size = size;
+            this.deviceLocal = deviceLocal;
+            this.budget = budget;
+            this.usage = usage;
+            this.blockBytes = blockBytes;
+            this.allocationBytes = allocationBytes;
+        }
+
+        /// 预算中尚未使用的部分
+        public long available() {
+            return Math.max(0, budget - usage);
+        }
+    }
+
+    /// 预算与用量是否来自显存预算扩展
+    public final boolean budgetExtensionEnabled;
+    public final List<Heap> heaps;
+    /// 按所有者标签统计的缓冲用量，以字节计，见 {@link club.doki7.rkt.vk.resc.Buffer.Options#tag}
+    public final Map<String, Long> taggedBytes;
+
+    public MemoryStatistics(boolean budgetExtensionEnabled, List<Heap> heaps, Map<String, Long> taggedBytes) {
+        this.budgetExtensionEnabled = budgetExtensionEnabled;
+        this.heaps = Collections.unmodifiableList(heaps);
+        this.taggedBytes = Collections.unmodifiableMap(taggedBytes);
+    }
+
+    /// 设备本地堆中最大的剩余预算。一次分配只能落在一个堆中，因此这里取最大值而不是总和
+    public long deviceLocalAvailable() {
+        long available = 0;
+        for (Heap heap : heaps) {
+            if (heap.deviceLocal) {
+                available = Math.max(available, heap.available());
+            }
+        }
+        return available;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("显存统计").append(budgetExtensionEnabled ? "（来自显存预算扩展）" : "（由 VMA 估计）").append(":\n");
+        for (Heap heap : heaps) {
+            sb.append("  - 堆 ").append(heap.heapIndex)
+                    .append(heap.deviceLocal ? " (设备本地)" : "")
+                    .append(": 用量 ").append(toMiB(heap.usage))
+                    .append(" / 预算 ").append(toMiB(heap.budget))
+                    .append(", VMA 内存块 ").append(toMiB(heap.blockBytes))
+                    .append(", 已分配 ").append(toMiB(heap.allocationBytes))
+                    .append('\n');
+        }
+        for (Map.Entry<String, Long> entry : taggedBytes.entrySet()) {
+            sb.append("  - 标签 ").append(entry.getKey()).append(": ").append(toMiB(entry.getValue())).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String toMiB(long bytes) {
+        return String.format("%.2f MiB", bytes / (1024.0 * 1024.0));
+    }
+}
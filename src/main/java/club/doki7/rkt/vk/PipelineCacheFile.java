@@ -0,0 +1,154 @@
+package club.doki7.rkt.vk;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.ffm.ptr.PointerPtr;
+import club.doki7.rkt.exc.VulkanException;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceProperties;
+import club.doki7.vulkan.datatype.VkPipelineCacheCreateInfo;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.handle.VkPipelineCache;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/// 管线缓存在磁盘上的存取。
+///
+/// 缓存文件名包含厂商 ID、设备 ID、驱动版本和 `pipelineCacheUUID`，因此更换设备或升级驱动之后，
+/// 旧的缓存文件自然不会再被读取。读取时还会再检查一遍缓存数据的头部，不匹配的数据会被丢弃
+final class PipelineCacheFile {
+    static VkPipelineCache create(
+            RenderContext cx,
+            VkPhysicalDeviceProperties properties,
+            @Nullable Path cacheFile
+    ) throws VulkanException {
+        try (Arena arena = Arena.ofConfined()) {
+            VkPipelineCacheCreateInfo createInfo = VkPipelineCacheCreateInfo.allocate(arena);
+            if (cacheFile != null) {
+                MemorySegment initialData = load(arena, properties, cacheFile);
+                if (initialData != null) {
+                    createInfo.initialDataSize(initialData.byteSize()).pInitialData(initialData);
+                }
+            }
+
+            VkPipelineCache.Ptr pPipelineCache = VkPipelineCache.Ptr.allocate(arena);
+            @EnumType(VkResult.class) int result =
+                    cx.dCmd.createPipelineCache(cx.device, createInfo, null, pPipelineCache);
+            if (result != VkResult.SUCCESS) {
+                throw new VulkanException(result, "无法创建管线缓存");
+            }
+            return Objects.requireNonNull(pPipelineCache.read());
+        }
+    }
+
+    static void save(RenderContext cx, VkPipelineCache pipelineCache, Path cacheFile) throws VulkanException {
+        try (Arena arena = Arena.ofConfined()) {
+            PointerPtr pDataSize = PointerPtr.allocate(arena);
+            @EnumType(VkResult.class) int result =
+                    cx.dCmd.getPipelineCacheData(cx.device, pipelineCache, pDataSize, MemorySegment.NULL);
+            if (result != VkResult.SUCCESS) {
+                throw new VulkanException(result, "无法获取管线缓存数据的大小");
+            }
+
+            long dataSize = pDataSize.read().address();
+            if (dataSize == 0) {
+                return;
+            }
+            MemorySegment data = arena.allocate(dataSize);
+            result = cx.dCmd.getPipelineCacheData(cx.device, pipelineCache, pDataSize, data);
+            if (result != VkResult.SUCCESS && result != VkResult.INCOMPLETE) {
+                throw new VulkanException(result, "无法获取管线缓存数据");
+            }
+            dataSize = pDataSize.read().address();
+
+            // 先写入临时文件再替换，避免进程中途退出时留下不完整的缓存文件
+            try {
+                Files.createDirectories(cacheFile.toAbsolutePath().getParent());
+                Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+                Files.write(tempFile, data.asSlice(0, dataSize).toArray(ValueLayout.JAVA_BYTE));
+                Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                logger.info("已将 " + dataSize + " 字节的管线缓存写入 " + cacheFile);
+            } catch (IOException e) {
+                logger.warning("无法写入管线缓存文件 " + cacheFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    static Path cacheFilePath(Path directory, VkPhysicalDeviceProperties properties) {
+        HexFormat hex = HexFormat.of();
+        String fileName = String.format(
+                "pipeline-%08x-%08x-%08x-%s.bin",
+                properties.vendorID(),
+                properties.deviceID(),
+                properties.driverVersion(),
+                hex.formatHex(properties.pipelineCacheUUID().segment().toArray(ValueLayout.JAVA_BYTE))
+        );
+        return directory.resolve(fileName);
+    }
+
+    private static @Nullable MemorySegment load(
+            Arena arena,
+            VkPhysicalDeviceProperties properties,
+            Path cacheFile
+    ) {
+        if (!Files.isRegularFile(cacheFile)) {
+            logger.info("管线缓存文件 " + cacheFile + " 不存在，将创建空的管线缓存");
+            return null;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(cacheFile);
+        } catch (IOException e) {
+            logger.warning("无法读取管线缓存文件 " + cacheFile + ": " + e.getMessage());
+            return null;
+        }
+
+        MemorySegment data = arena.allocate(Math.max(bytes.length, 1));
+        MemorySegment.copy(bytes, 0, data, ValueLayout.JAVA_BYTE, 0, bytes.length);
+        data = data.asSlice(0, bytes.length);
+        if (!headerMatches(data, properties)) {
+            logger.warning("管线缓存文件 " + cacheFile + " 与当前设备或驱动不匹配，已忽略");
+            return null;
+        }
+
+        logger.info("已从 " + cacheFile + " 读取 " + bytes.length + " 字节的管线缓存");
+        return data;
+    }
+
+    /// 检查 `VkPipelineCacheHeaderVersionOne`：头部长度、版本、厂商 ID、设备 ID 与 `pipelineCacheUUID`
+    private static boolean headerMatches(MemorySegment data, VkPhysicalDeviceProperties properties) {
+        if (data.byteSize() < HEADER_SIZE) {
+            return false;
+        }
+
+        ValueLayout.OfInt intLayout = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+        int headerSize = data.get(intLayout, 0);
+        int headerVersion = data.get(intLayout, 4);
+        int vendorID = data.get(intLayout, 8);
+        int deviceID = data.get(intLayout, 12);
+        if (headerSize < HEADER_SIZE
+            || headerVersion != HEADER_VERSION_ONE
+            || vendorID != properties.vendorID()
+            || deviceID != properties.deviceID()) {
+            return false;
+        }
+
+        MemorySegment uuid = properties.pipelineCacheUUID().segment();
+        return MemorySegment.mismatch(data, 16, 16 + UUID_SIZE, uuid, 0, UUID_SIZE) == -1;
+    }
+
+    private static final int UUID_SIZE = 16;
+    private static final int HEADER_SIZE = 16 + UUID_SIZE;
+    private static final int HEADER_VERSION_ONE = 1;
+    private static final Logger logger = Logger.getLogger(PipelineCacheFile.class.getName());
+}
@@ -0,0 +1,67 @@
+package club.doki7.rkt.vk;
+
+import club.doki7.rkt.vk.common.QueueFamily;
+import club.doki7.vulkan.handle.VkQueue;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/// 同一队列族中的所有队列，每个队列各有一把锁
+final class QueueGroup {
+    final QueueFamily queueFamily;
+    final int queueFamilyIndex;
+    final VkQueue[] queues;
+    final Lock[] locks;
+
+    QueueGroup(
+            QueueFamily queueFamily,
+            int queueFamilyIndex,
+            List<VkQueue> queues,
+            @Nullable Lock firstQueueLock
+    ) {
+        assert !queues.isEmpty();
+
+        this.queueFamily = queueFamily;
+        this.queueFamilyIndex = queueFamilyIndex;
+        this.queues = queues.toArray(new VkQueue[0]);
+        this.locks = new Lock[queues.size()];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = i == 0 && firstQueueLock != null ? firstQueueLock : new ReentrantLock();
+        }
+        this.next = new AtomicInteger();
+    }
+
+    /// 轮流尝试锁定组内的队列，返回被锁定的队列的下标。所有队列都被占用时，阻塞等待轮到的那个队列
+    int acquire() {
+        int start = Math.floorMod(next.getAndIncrement(), queues.length);
+        for (int i = 0; i < queues.length; i++) {
+            int index = (start + i) % queues.length;
+            if (locks[index].tryLock()) {
+                return index;
+            }
+        }
+        locks[start].lock();
+        return start;
+    }
+
+    void release(int index) {
+        locks[index].unlock();
+    }
+
+    void lockAll() {
+        for (Lock lock : locks) {
+            lock.lock();
+        }
+    }
+
+    void unlockAll() {
+        for (Lock lock : locks) {
+            lock.unlock();
+        }
+    }
+
+    private final AtomicInteger next;
+}
@@ -0,0 +1,72 @@
+package club.doki7.rkt.vk;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.rkt.exc.VulkanException;
+import club.doki7.rkt.vk.cmd.SubmitBatch;
+import club.doki7.rkt.vk.cmd.SubmitInfo;
+import club.doki7.rkt.vk.common.QueueFamily;
+import club.doki7.rkt.vk.sync.Fence;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.handle.VkQueue;
+import org.jetbrains.annotations.Nullable;
+
+/// 对某个队列的独占租约，通过 {@link RenderContext#leaseQueue(QueueFamily)} 获得。
+///
+/// 持有租约期间，其他线程不会向该队列提交命令，因此适合需要连续提交多次的工作线程。
+/// 租约底层是可重入锁，必须由获得租约的线程关闭
+public final class QueueLease implements AutoCloseable {
+    public final QueueFamily queueFamily;
+    public final int queueFamilyIndex;
+    /// 队列在队列族中的下标
+    public final int queueIndex;
+    public final VkQueue queue;
+
+    public void submit(SubmitInfo info, @Nullable Fence fence) throws VulkanException {
+        checkNotClosed();
+        @EnumType(VkResult.class) int result =
+                cx.dCmd.queueSubmit(queue, 1, info.submitInfoVk, fence != null ? fence.handle : null);
+        if (result != VkResult.SUCCESS) {
+            throw new VulkanException(result, "无法提交到队列");
+        }
+    }
+
+    public void submit(SubmitBatch batch, @Nullable Fence fence) throws VulkanException {
+        checkNotClosed();
+        @EnumType(VkResult.class) int result = cx.dCmd.queueSubmit(
+                queue,
+                batch.submitInfos.size(),
+                batch.submitInfosVk,
+                fence != null ? fence.handle : null
+        );
+        if (result != VkResult.SUCCESS) {
+            throw new VulkanException(result, "无法提交到队列");
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            group.release(queueIndex);
+        }
+    }
+
+    QueueLease(RenderContext cx, QueueGroup group, int queueIndex) {
+        this.queueFamily = group.queueFamily;
+        this.queueFamilyIndex = group.queueFamilyIndex;
+        this.queueIndex = queueIndex;
+        this.queue = group.queues[queueIndex];
+        this.cx = cx;
+        this.group = group;
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("队列租约已经被关闭");
+        }
+    }
+
+    private final RenderContext cx;
+    private final QueueGroup group;
+    private boolean closed;
+}
@@ -2,7 +2,9 @@ package club.doki7.rkt.vk;
 
 import club.doki7.vulkan.Version;
 import club.doki7.vulkan.datatype.VkPhysicalDeviceProperties;
+import org.jetbrains.annotations.Nullable;
 
+import java.nio.file.Path;
 import java.util.List;
 
 public final class RenderConfig {
@@ -32,12 +34,39 @@ public final class RenderConfig {
     /// 无论物理设备是否具有专用计算队列，都不使用专用计算队列进行计算。
     public boolean noComputeQueue = false;
 
+    /// 每个队列族最多创建多少个队列。队列族提供多个队列时，多个线程可以同时向不同的队列提交命令，
+    /// 见 {@link RenderContext#leaseQueue}。
+    public int maxQueuesPerFamily = Integer.MAX_VALUE;
+
     /// 是否启用主机复制，这在特定情况下可以提高性能，但某些设备可能不支持。
     public boolean enableHostCopy = false;
 
     /// 要使用的 Vulkan API 版本
     public Version vulkanVersion = Version.VK_API_VERSION_1_0;
 
+    /// 是否启用时间线信号量。启用后渲染引擎会在物理设备支持时启用
+    /// {@code VK_KHR_timeline_semaphore} 扩展（该扩展在 Vulkan 1.2 中成为核心功能），
+    /// 否则给出警告并回退到只使用二元信号量。
+    ///
+    /// @see RenderContext#timelineSemaphoreEnabled
+    public boolean enableTimelineSemaphore = false;
+
+    /// 管线缓存文件所在的目录。渲染引擎在创建上下文时从该目录读取与当前设备和驱动匹配的管线缓存，
+    /// 并在销毁上下文时将其写回，这样之后启动时创建管线就不必让驱动重新编译着色器。
+    /// 默认为 `null`，这时管线缓存只存在于内存中，渲染引擎不会在磁盘上写入任何文件。
+    ///
+    /// 应用程序应当选择一个属于自己的用户缓存目录，而不是相对于工作目录的路径，例如
+    /// `Path.of(System.getProperty("user.home"), ".cache", "my-app", "pipeline")`。
+    ///
+    /// @see RenderContext#pipelineCache
+    public @Nullable Path pipelineCacheDirectory = null;
+
+    /// 暂存环形缓冲的大小，以字节计。通过暂存缓冲上传的数据都会从这块常驻的缓冲中划出空间，
+    /// 比它更大的数据会被拆分成多段上传。
+    ///
+    /// @see RenderContext#stagingRing
+    public long stagingRingSize = 16L * 1024 * 1024;
+
     /// 要额外启用的实例级扩展列表。
     public List<String> additionalInstanceExtensions = List.of();
 
@@ -68,4 +97,8 @@ public final class RenderConfig {
     ///
     /// 提高这个值理论上能够提高 GPU 处理任务的并行程度，但同样也会增加用户可见的延迟。
     public int maxFramesInFlight = 2;
+
+    /// 释放环的容量，即两次 {@link RenderContext#gc()} 之间以及飞行中的帧内最多能有多少个被释放、尚未销毁的对象。
+    /// 释放环在创建上下文时一次性分配，超出容量的对象进入溢出队列，这时每个对象都需要额外分配内存。
+    public int disposeRingCapacity = 4096;
 }
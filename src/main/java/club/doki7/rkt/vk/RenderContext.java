@@ -1,28 +1,35 @@
 package club.doki7.rkt.vk;
 
-import club.doki7.ffm.annotation.Bitmask;
 import club.doki7.ffm.annotation.EnumType;
 import club.doki7.ffm.library.ISharedLibrary;
-import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.ffm.ptr.LongPtr;
 import club.doki7.rkt.exc.RenderException;
 import club.doki7.rkt.exc.VulkanException;
-import club.doki7.rkt.util.Pair;
-import club.doki7.rkt.util.Ref;
+import club.doki7.rkt.vk.cmd.SubmitBatch;
 import club.doki7.rkt.vk.cmd.SubmitInfo;
 import club.doki7.rkt.vk.common.QueueFamily;
 import club.doki7.rkt.vk.init.ContextInit;
+import club.doki7.rkt.vk.resc.StagingRing;
 import club.doki7.ffm.annotation.Unsafe;
 import club.doki7.glfw.GLFW;
 import club.doki7.glfw.handle.GLFWwindow;
+import club.doki7.rkt.vk.sync.CompletionService;
 import club.doki7.rkt.vk.sync.Fence;
+import club.doki7.rkt.vk.sync.FencePool;
+import club.doki7.rkt.vk.sync.SemaphoreVK;
 import club.doki7.vma.VMA;
+import club.doki7.vma.datatype.VmaBudget;
 import club.doki7.vma.handle.VmaAllocator;
 import club.doki7.vulkan.VkConstants;
-import club.doki7.vulkan.bitmask.VkPipelineStageFlags;
 import club.doki7.vulkan.command.VkDeviceCommands;
 import club.doki7.vulkan.command.VkEntryCommands;
 import club.doki7.vulkan.command.VkInstanceCommands;
+import club.doki7.vulkan.bitmask.VkMemoryHeapFlags;
 import club.doki7.vulkan.command.VkStaticCommands;
+import club.doki7.vulkan.datatype.VkMemoryHeap;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceMemoryProperties;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceProperties;
+import club.doki7.vulkan.datatype.VkSemaphoreWaitInfo;
 import club.doki7.vulkan.datatype.VkSubmitInfo;
 import club.doki7.vulkan.enumtype.VkResult;
 import club.doki7.vulkan.handle.*;
@@ -31,10 +38,20 @@ import org.jetbrains.annotations.Nullable;
 
 import java.lang.foreign.Arena;
 import java.lang.ref.Cleaner;
-import java.util.LinkedList;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
@@ -61,6 +78,27 @@ public final class RenderContext implements AutoCloseable {
     public final VkDevice device;
     public final VmaAllocator vmaAllocator;
 
+    /// 物理设备的属性与限制
+    public final VkPhysicalDeviceProperties physicalDeviceProperties;
+
+    /// 所有管线创建共用的管线缓存，见 {@link RenderConfig#pipelineCacheDirectory}
+    public final VkPipelineCache pipelineCache;
+
+    /// 是否启用了时间线信号量，见 {@link RenderConfig#enableTimelineSemaphore}
+    public final boolean timelineSemaphoreEnabled;
+
+    /// 是否启用了显存预算扩展，见 {@link #memoryStatistics()}
+    public final boolean memoryBudgetEnabled;
+
+    /// 供频繁提交的场景复用的栅栏，见 {@link FencePool}
+    public final FencePool fencePool;
+
+    /// 设备完成通知服务，虚拟线程通过它等待栅栏与时间线信号量，见 {@link CompletionService}
+    public final CompletionService completionService;
+
+    /// 所有经由暂存缓冲的上传共用的暂存环形缓冲，见 {@link RenderConfig#stagingRingSize}
+    public final StagingRing stagingRing;
+
     public RenderContext(
             Arena prefabArena,
             RenderConfig config,
@@ -82,13 +120,16 @@ public final class RenderContext implements AutoCloseable {
             @Nullable VkSurfaceKHR surface,
 
             VkDevice device,
-            VkQueue graphicsQueue,
+            List<VkQueue> graphicsQueues,
             @Nullable VkQueue presentQueue,
-            @Nullable VkQueue transferQueue,
-            @Nullable VkQueue computeQueue,
+            List<VkQueue> transferQueues,
+            List<VkQueue> computeQueues,
 
-            VmaAllocator vmaAllocator
-    ) {
+            VmaAllocator vmaAllocator,
+
+            boolean timelineSemaphoreEnabled,
+            boolean memoryBudgetEnabled
+    ) throws VulkanException {
         this.prefabArena = prefabArena;
         this.config = config;
 
@@ -109,36 +150,84 @@ public final class RenderContext implements AutoCloseable {
         this.surface = surface;
 
         this.device = device;
-        this.graphicsQueue = graphicsQueue;
+        this.graphicsQueue = graphicsQueues.getFirst();
         this.presentQueue = presentQueue;
-        this.transferQueue = transferQueue;
-        this.computeQueue = computeQueue;
+        this.transferQueue = transferQueues.isEmpty() ? null : transferQueues.getFirst();
+        this.computeQueue = computeQueues.isEmpty() ? null : computeQueues.getFirst();
 
         this.vmaAllocator = vmaAllocator;
 
+        this.physicalDeviceProperties = VkPhysicalDeviceProperties.allocate(prefabArena);
+        iCmd.getPhysicalDeviceProperties(physicalDevice, physicalDeviceProperties);
+        this.pipelineCacheFile = config.pipelineCacheDirectory != null
+                ? PipelineCacheFile.cacheFilePath(config.pipelineCacheDirectory, physicalDeviceProperties)
+                : null;
+        this.pipelineCache = PipelineCacheFile.create(this, physicalDeviceProperties, pipelineCacheFile);
+
+        this.timelineSemaphoreEnabled = timelineSemaphoreEnabled;
+        this.memoryBudgetEnabled = memoryBudgetEnabled;
+        this.physicalDeviceMemoryProperties = VkPhysicalDeviceMemoryProperties.allocate(prefabArena);
+        iCmd.getPhysicalDeviceMemoryProperties(physicalDevice, physicalDeviceMemoryProperties);
+        this.taggedMemory = new ConcurrentHashMap<>();
+
         this.graphicsQueueLock = new ReentrantLock();
-        if (this.graphicsQueue != this.presentQueue) {
+        if (presentQueue != null && presentQueueFamilyIndex != graphicsQueueFamilyIndex) {
             this.presentQueueLock = new ReentrantLock();
         } else {
+            // 与图形队列族相同时，呈现使用的正是图形队列族中的第一个队列
             this.presentQueueLock = graphicsQueueLock;
         }
-
-        if (transferQueue != null) {
+        this.graphicsQueueGroup = new QueueGroup(
+                QueueFamily.GRAPHICS,
+                graphicsQueueFamilyIndex,
+                graphicsQueues,
+                graphicsQueueLock
+        );
+
+        if (!transferQueues.isEmpty()) {
             this.transferQueueLock = new ReentrantLock();
+            this.transferQueueGroup = new QueueGroup(
+                    QueueFamily.TRANSFER,
+                    dedicatedTransferQueueFamilyIndex,
+                    transferQueues,
+                    transferQueueLock
+            );
         } else {
             this.transferQueueLock = null;
+            this.transferQueueGroup = null;
         }
-        if (computeQueue != null) {
+        if (!computeQueues.isEmpty()) {
             this.computeQueueLock = new ReentrantLock();
+            this.computeQueueGroup = new QueueGroup(
+                    QueueFamily.COMPUTE,
+                    dedicatedComputeQueueFamilyIndex,
+                    computeQueues,
+                    computeQueueLock
+            );
         } else {
             this.computeQueueLock = null;
+            this.computeQueueGroup = null;
         }
 
         this.cleaner = Cleaner.create();
         this.cleanables = new ConcurrentHashMap<>();
-        this.disposeList = new Ref<>(new LinkedList<>());
-        this.countedList = new LinkedList<>();
+        if (config.disposeRingCapacity <= 0) {
+            throw new IllegalArgumentException("释放队列的容量必须为正数");
+        }
+        this.disposeRing = new AtomicReferenceArray<>(config.disposeRingCapacity);
+        this.disposeTail = new AtomicLong();
+        this.disposeSlotEnds = new long[config.maxFramesInFlight + 2];
+        this.disposeOverflow = new ConcurrentLinkedQueue<>();
+        @SuppressWarnings("unchecked")
+        ArrayList<IDisposeOnContext>[] disposeOverflowSlots = new ArrayList[disposeSlotEnds.length];
+        for (int i = 0; i < disposeOverflowSlots.length; i++) {
+            disposeOverflowSlots[i] = new ArrayList<>();
+        }
+        this.disposeOverflowSlots = disposeOverflowSlots;
         this.gcQueue = new LinkedBlockingQueue<>();
+        this.fencePool = FencePool.create(this);
+        this.completionService = CompletionService.create(this);
+        this.stagingRing = StagingRing.create(this, config.stagingRingSize);
         this.gcThread = new Thread(() -> {
             Logger logger = Logger.getLogger(Thread.currentThread().getName());
             while (true) {
@@ -193,25 +282,57 @@ public final class RenderContext implements AutoCloseable {
         }
     }
 
+    /// 以一次 `vkQueueSubmit` 调用提交一组 {@link SubmitInfo}，`fence` 在所有提交都完成后被触发
+    public void submit(
+            SubmitBatch batch,
+            @Nullable Fence fence,
+            QueueFamily queueFamily
+    ) throws VulkanException {
+        submitToGroup(
+                getQueueGroup(queueFamily),
+                batch.submitInfos.size(),
+                batch.submitInfosVk,
+                fence != null ? fence.handle : null
+        );
+    }
+
     public void submitGraphics(SubmitInfo info, @Nullable Fence fence) throws VulkanException {
-        submitToQueue(graphicsQueue, graphicsQueueLock, info, fence != null ? fence.handle : null);
+        submitToGroup(graphicsQueueGroup, 1, info.submitInfoVk, fence != null ? fence.handle : null);
     }
 
     public void submitCompute(SubmitInfo info, @Nullable Fence fence) throws VulkanException {
-        if (!hasComputeQueue()) {
-            throw new IllegalStateException("没有可用的计算队列");
-        }
-        submitToQueue(computeQueue, computeQueueLock, info, fence != null ? fence.handle : null);
+        submitToGroup(getQueueGroup(QueueFamily.COMPUTE), 1, info.submitInfoVk, fence != null ? fence.handle : null);
     }
 
     public void submitTransfer(SubmitInfo info, @Nullable Fence fence) throws VulkanException {
-        if (!hasTransferQueue()) {
-            throw new IllegalStateException("没有可用的传输队列");
-        }
-        submitToQueue(transferQueue, transferQueueLock, info, fence != null ? fence.handle : null);
+        submitToGroup(getQueueGroup(QueueFamily.TRANSFER), 1, info.submitInfoVk, fence != null ? fence.handle : null);
     }
 
+    /// 队列族中可供提交的队列数量
+    public int getQueueCount(QueueFamily queueFamily) {
+        return switch (queueFamily) {
+            case GRAPHICS -> graphicsQueueGroup.queues.length;
+            case PRESENT -> presentQueue != null ? 1 : 0;
+            case TRANSFER -> transferQueueGroup != null ? transferQueueGroup.queues.length : 0;
+            case COMPUTE -> computeQueueGroup != null ? computeQueueGroup.queues.length : 0;
+        };
+    }
+
+    /// 独占队列族中的一个队列，优先选择当前没有被其他线程占用的队列。
+    ///
+    /// 队列族中有多个队列时，多个工作线程各自租用一个队列即可并行提交，而不必争用同一把锁
+    public QueueLease leaseQueue(QueueFamily queueFamily) {
+        QueueGroup group = getQueueGroup(queueFamily);
+        return new QueueLease(this, group, group.acquire());
+    }
+
+    /// 阻塞直到栅栏被触发。在虚拟线程中调用时，等待由 {@link #completionService} 完成，不会占住载体线程
     public void waitForFence(@NotNull Fence fence) throws VulkanException {
+        if (Thread.currentThread().isVirtual()) {
+            awaitCompletion(completionService.whenSignalled(fence));
+            return;
+        }
+
         try (Arena arena = Arena.ofConfined()) {
             @EnumType(VkResult.class) int result = dCmd.waitForFences(
                     device,
@@ -239,30 +360,103 @@ public final class RenderContext implements AutoCloseable {
         }
     }
 
-    public void waitDeviceIdle() {
-        try {
-            graphicsQueueLock.lock();
-            if (presentQueueLock != null && graphicsQueueLock != presentQueueLock) {
-                presentQueueLock.lock();
+    /// 阻塞直到时间线信号量的计数值不小于 `value`
+    public void waitSemaphore(@NotNull SemaphoreVK semaphore, long value) throws VulkanException {
+        if (!semaphore.timeline) {
+            throw new IllegalArgumentException("只能在主机端等待时间线信号量");
+        }
+        if (Thread.currentThread().isVirtual()) {
+            awaitCompletion(completionService.whenReached(semaphore, value));
+            return;
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            VkSemaphoreWaitInfo waitInfo = VkSemaphoreWaitInfo.allocate(arena)
+                    .semaphoreCount(1)
+                    .pSemaphores(VkSemaphore.Ptr.allocateV(arena, semaphore.handle))
+                    .pValues(LongPtr.allocateV(arena, value));
+            @EnumType(VkResult.class) int result = dCmd.waitSemaphoresKHR(device, waitInfo, Long.MAX_VALUE);
+            if (result != VkResult.SUCCESS) {
+                throw new VulkanException(result, "等待时间线信号量失败");
             }
-            if (transferQueueLock != null) {
-                transferQueueLock.lock();
+        }
+    }
+
+    public long getSemaphoreCounterValue(@NotNull SemaphoreVK semaphore) throws VulkanException {
+        if (!semaphore.timeline) {
+            throw new IllegalArgumentException("只有时间线信号量具有计数值");
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            LongPtr pValue = LongPtr.allocate(arena);
+            @EnumType(VkResult.class) int result =
+                    dCmd.getSemaphoreCounterValueKHR(device, semaphore.handle, pValue);
+            if (result != VkResult.SUCCESS) {
+                throw new VulkanException(result, "无法获取时间线信号量的计数值");
+            }
+            return pValue.read();
+        }
+    }
+
+    /// 查询当前每个内存堆的预算与用量，以及按所有者标签统计的缓冲用量
+    public MemoryStatistics memoryStatistics() {
+        try (Arena arena = Arena.ofConfined()) {
+            int heapCount = physicalDeviceMemoryProperties.memoryHeapCount();
+            VmaBudget.Ptr budgets = VmaBudget.allocate(arena, VkConstants.MAX_MEMORY_HEAPS);
+            vma.getHeapBudgets(vmaAllocator, budgets);
+
+            List<MemoryStatistics.Heap> heaps = new ArrayList<>();
+            for (int i = 0; i < heapCount; i++) {
+                VkMemoryHeap heap = physicalDeviceMemoryProperties.memoryHeaps().at(i);
+                VmaBudget budget = budgets.at(i);
+                heaps.add(new MemoryStatistics.Heap(
+                        i,
+                        heap.size(),
+                        (heap.flags() & VkMemoryHeapFlags.DEVICE_LOCAL) != 0,
+                        budget.budget(),
+                        budget.usage(),
+                        budget.statistics().blockBytes(),
+                        budget.statistics().allocationBytes()
+                ));
             }
-            if (computeQueueLock != null) {
-                computeQueueLock.lock();
+
+            Map<String, Long> taggedBytes = new TreeMap<>();
+            for (Map.Entry<String, LongAdder> entry : taggedMemory.entrySet()) {
+                taggedBytes.put(entry.getKey(), entry.getValue().sum());
             }
+            return new MemoryStatistics(memoryBudgetEnabled, heaps, taggedBytes);
+        }
+    }
 
+    /// 记录某个所有者标签下的显存用量变化，由资源类在分配和释放时调用
+    public void addTaggedMemory(String tag, long bytes) {
+        taggedMemory.computeIfAbsent(tag, _ -> new LongAdder()).add(bytes);
+    }
+
+    public void waitDeviceIdle() {
+        graphicsQueueGroup.lockAll();
+        if (presentQueueLock != graphicsQueueLock) {
+            presentQueueLock.lock();
+        }
+        if (transferQueueGroup != null) {
+            transferQueueGroup.lockAll();
+        }
+        if (computeQueueGroup != null) {
+            computeQueueGroup.lockAll();
+        }
+
+        try {
             dCmd.deviceWaitIdle(device);
         } finally {
-            graphicsQueueLock.unlock();
-            if (presentQueueLock != null && graphicsQueueLock != presentQueueLock) {
+            graphicsQueueGroup.unlockAll();
+            if (presentQueueLock != graphicsQueueLock) {
                 presentQueueLock.unlock();
             }
-            if (transferQueueLock != null) {
-                transferQueueLock.unlock();
+            if (transferQueueGroup != null) {
+                transferQueueGroup.unlockAll();
             }
-            if (computeQueueLock != null) {
-                computeQueueLock.unlock();
+            if (computeQueueGroup != null) {
+                computeQueueGroup.unlockAll();
             }
         }
     }
@@ -284,28 +478,32 @@ public final class RenderContext implements AutoCloseable {
         return cleanable;
     }
 
+    /// 每帧调用一次，只能由帧循环所在的线程调用。
+    ///
+    /// 自上一次调用以来被释放的对象属于当前帧的槽位。`maxFramesInFlight + 2` 个槽位组成一个环，
+    /// 同一个槽位再次成为当前槽位时，其中的对象已经不再被任何飞行中的帧使用，在此时销毁。
+    ///
+    /// 被释放的对象按释放顺序写入预先分配的释放环，每个槽位只记录它在释放环中的结束位置，
+    /// 因此释放对象和推进帧都不需要分配内存，也不需要搬移对象
     public void gc() {
-        countedList.removeIf(it -> {
-            if (it.second >= config.maxFramesInFlight + 1) {
-                it.first.disposeOnContext(this);
-                return true;
-            } else {
-                return false;
-            }
-        });
+        disposeFrame += 1;
+        int slot = (int) (disposeFrame % disposeSlotEnds.length);
 
-        for (Pair<IDisposeOnContext, Integer> item : countedList) {
-            item.second += 1;
+        long end = disposeSlotEnds[slot];
+        for (long index = disposeHead; index < end; index++) {
+            takeDisposed(index).disposeOnContext(this);
         }
-
-        LinkedList<IDisposeOnContext> list;
-        synchronized (disposeList) {
-            list = disposeList.value;
-            disposeList.value = new LinkedList<>();
+        disposeHead = end;
+        ArrayList<IDisposeOnContext> overflowSlot = disposeOverflowSlots[slot];
+        for (IDisposeOnContext item : overflowSlot) {
+            item.disposeOnContext(this);
         }
+        overflowSlot.clear();
 
-        for (IDisposeOnContext item : list) {
-            countedList.add(new Pair<>(item, 0));
+        disposeSlotEnds[slot] = disposeTail.get();
+        IDisposeOnContext item;
+        while ((item = disposeOverflow.poll()) != null) {
+            overflowSlot.add(item);
         }
     }
 
@@ -332,16 +530,38 @@ public final class RenderContext implements AutoCloseable {
     public void close() {
         waitDeviceIdle();
 
+        logger.info("栅栏池共创建 " + fencePool.createdCount() + " 个栅栏，取用 " + fencePool.acquiredCount() + " 次");
+        stagingRing.close();
+        completionService.close();
+        fencePool.close();
+
+        if (pipelineCacheFile != null) {
+            try {
+                PipelineCacheFile.save(this, pipelineCache, pipelineCacheFile);
+            } catch (VulkanException e) {
+                logger.warning("无法保存管线缓存: " + e.getMessage());
+            }
+        }
+
         for (Cleaner.Cleanable cleanable : cleanables.values()) {
             cleanable.clean();
         }
 
-        for (IDisposeOnContext item : disposeList.value) {
-            boolean result = gcQueue.offer(item);
+        long tail = disposeTail.get();
+        for (long index = disposeHead; index < tail; index++) {
+            boolean result = gcQueue.offer(takeDisposed(index));
             assert result;
         }
-        for (Pair<IDisposeOnContext, Integer> item : countedList) {
-            boolean result = gcQueue.offer(item.first);
+        disposeHead = tail;
+        for (ArrayList<IDisposeOnContext> overflowSlot : disposeOverflowSlots) {
+            for (IDisposeOnContext item : overflowSlot) {
+                boolean result = gcQueue.offer(item);
+                assert result;
+            }
+            overflowSlot.clear();
+        }
+        for (IDisposeOnContext item : disposeOverflow) {
+            boolean result = gcQueue.offer(item);
             assert result;
         }
         boolean result = gcQueue.offer(IDisposeOnContext.POISON);
@@ -355,6 +575,7 @@ public final class RenderContext implements AutoCloseable {
 
         vma.destroyAllocator(vmaAllocator);
 
+        dCmd.destroyPipelineCache(device, pipelineCache, null);
         dCmd.destroyDevice(device, null);
 
         if (surface != null) {
@@ -370,57 +591,87 @@ public final class RenderContext implements AutoCloseable {
         logger.info("已销毁 RenderContext 资源");
     }
 
-    private void submitToQueue(
-            VkQueue queue,
-            Lock queueLock,
-            SubmitInfo info,
-            @Nullable VkFence fence
-    ) throws VulkanException {
-        try (Arena arena = Arena.ofConfined()) {
-            VkCommandBuffer.Ptr pCommandBuffers =
-                    VkCommandBuffer.Ptr.allocate(arena, info.commandBuffers.size());
-            for (int i = 0; i < info.commandBuffers.size(); i++) {
-                pCommandBuffers.write(i, info.commandBuffers.get(i).handle);
-            }
-            VkSemaphore.Ptr pWaitSemaphores =
-                    VkSemaphore.Ptr.allocate(arena, info.waitSemaphores.size());
-            for (int i = 0; i < info.waitSemaphores.size(); i++) {
-                pWaitSemaphores.write(i, info.waitSemaphores.get(i).handle);
+    private static void awaitCompletion(CompletableFuture<Void> future) throws VulkanException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof VulkanException vulkanException) {
+                throw vulkanException;
+            } else if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
             }
-            @Bitmask(VkPipelineStageFlags.class) IntPtr pWaitDstStageMask =
-                    IntPtr.allocate(arena, info.waitDstStageMasks.size());
-            for (int i = 0; i < info.waitDstStageMasks.size(); i++) {
-                pWaitDstStageMask.write(i, info.waitDstStageMasks.get(i));
+            throw e;
+        }
+    }
+
+    private QueueGroup getQueueGroup(QueueFamily queueFamily) {
+        return switch (queueFamily) {
+            case PRESENT -> throw new IllegalStateException("不能向呈现队列提交命令");
+            case GRAPHICS -> graphicsQueueGroup;
+            case TRANSFER -> {
+                if (transferQueueGroup == null) {
+                    throw new IllegalStateException("没有可用的传输队列");
+                }
+                yield transferQueueGroup;
             }
-            VkSemaphore.Ptr pSignalSemaphores =
-                    VkSemaphore.Ptr.allocate(arena, info.signalSemaphores.size());
-            for (int i = 0; i < info.signalSemaphores.size(); i++) {
-                pSignalSemaphores.write(i, info.signalSemaphores.get(i).handle);
+            case COMPUTE -> {
+                if (computeQueueGroup == null) {
+                    throw new IllegalStateException("没有可用的计算队列");
+                }
+                yield computeQueueGroup;
             }
+        };
+    }
 
-            VkSubmitInfo submitInfoVk = VkSubmitInfo.allocate(arena)
-                    .commandBufferCount(info.commandBuffers.size())
-                    .pCommandBuffers(pCommandBuffers)
-                    .waitSemaphoreCount(info.waitSemaphores.size())
-                    .pWaitSemaphores(pWaitSemaphores)
-                    .pWaitDstStageMask(pWaitDstStageMask)
-                    .signalSemaphoreCount(info.signalSemaphores.size())
-                    .pSignalSemaphores(pSignalSemaphores);
-
-            queueLock.lock();
-            @EnumType(VkResult.class) int result = dCmd.queueSubmit(queue, 1, submitInfoVk, fence);
-            if (result != VkResult.SUCCESS) {
-                throw new VulkanException(result, "无法提交到图形队列");
-            }
+    private void submitToGroup(
+            QueueGroup group,
+            int submitCount,
+            VkSubmitInfo pSubmits,
+            @Nullable VkFence fence
+    ) throws VulkanException {
+        @EnumType(VkResult.class) int result;
+        int queueIndex = group.acquire();
+        try {
+            result = dCmd.queueSubmit(group.queues[queueIndex], submitCount, pSubmits, fence);
         } finally {
-            queueLock.unlock();
+            group.release(queueIndex);
+        }
+
+        if (result != VkResult.SUCCESS) {
+            throw new VulkanException(result, "无法提交到队列");
         }
     }
 
+    /// 由任意线程调用。先在释放环中占用一个位置再写入对象，环已满时放入溢出队列，只有这时才会分配内存
     private void dispose(IDisposeOnContext item) {
-        synchronized (disposeList) {
-            disposeList.value.add(item);
+        int capacity = disposeRing.length();
+        while (true) {
+            long tail = disposeTail.get();
+            if (tail - disposeHead >= capacity) {
+                if (!disposeOverflowWarned) {
+                    disposeOverflowWarned = true;
+                    logger.warning("释放环已满，多出的对象进入溢出队列，考虑增大 RenderConfig.disposeRingCapacity");
+                }
+                boolean result = disposeOverflow.offer(item);
+                assert result;
+                return;
+            }
+            if (disposeTail.compareAndSet(tail, tail + 1)) {
+                disposeRing.set((int) (tail % capacity), item);
+                return;
+            }
+        }
+    }
+
+    /// 只由帧循环线程调用。取出释放环中位置 `index` 上的对象；位置已被占用但对象尚未写入时短暂自旋等待
+    private IDisposeOnContext takeDisposed(long index) {
+        int i = (int) (index % disposeRing.length());
+        IDisposeOnContext item;
+        while ((item = disposeRing.get(i)) == null) {
+            Thread.onSpinWait();
         }
+        disposeRing.set(i, null);
+        return item;
     }
 
     @Unsafe
@@ -429,19 +680,38 @@ public final class RenderContext implements AutoCloseable {
         assert result;
     }
 
+    /// 各队列族中的第一个队列及其锁，与 {@link QueueGroup} 中下标为 0 的队列相同
     final VkQueue graphicsQueue;
     final @Nullable VkQueue presentQueue;
     final @Nullable VkQueue transferQueue;
     final @Nullable VkQueue computeQueue;
     final Lock graphicsQueueLock;
-    final @Nullable Lock presentQueueLock;
+    final Lock presentQueueLock;
     final @Nullable Lock transferQueueLock;
     final @Nullable Lock computeQueueLock;
 
+    private final @Nullable Path pipelineCacheFile;
+    private final VkPhysicalDeviceMemoryProperties physicalDeviceMemoryProperties;
+    private final ConcurrentHashMap<String, LongAdder> taggedMemory;
+
+    private final QueueGroup graphicsQueueGroup;
+    private final @Nullable QueueGroup transferQueueGroup;
+    private final @Nullable QueueGroup computeQueueGroup;
+
     private final Cleaner cleaner;
     private final ConcurrentHashMap<IDisposeOnContext, Cleaner.Cleanable> cleanables;
-    private final Ref<LinkedList<IDisposeOnContext>> disposeList;
-    private final LinkedList<Pair<IDisposeOnContext, Integer>> countedList;
+    /// 被释放的对象按释放顺序写入的多生产者单消费者环，位置 `index` 对应数组下标 `index % capacity`。
+    /// `[disposeHead, disposeTail)` 是尚未销毁的对象，只有帧循环线程推进 `disposeHead`
+    private final AtomicReferenceArray<IDisposeOnContext> disposeRing;
+    private final AtomicLong disposeTail;
+    private volatile long disposeHead;
+    /// 每个槽位中的对象在释放环中的结束位置，只被帧循环线程访问，见 {@link #gc()}
+    private final long[] disposeSlotEnds;
+    /// 释放环已满时使用的溢出队列，其中的对象在下一次 {@link #gc()} 时归入当前槽位
+    private final ConcurrentLinkedQueue<IDisposeOnContext> disposeOverflow;
+    private final ArrayList<IDisposeOnContext>[] disposeOverflowSlots;
+    private volatile boolean disposeOverflowWarned;
+    private long disposeFrame;
     private final BlockingQueue<IDisposeOnContext> gcQueue;
     private final Thread gcThread;
     private static final Logger logger = Logger.getLogger(RenderContext.class.getName());
@@ -0,0 +1,32 @@
+package club.doki7.rkt.vk.cmd;
+
+import club.doki7.vulkan.datatype.VkSubmitInfo;
+
+import java.lang.foreign.Arena;
+import java.util.List;
+
+/// 一组需要通过同一次 `vkQueueSubmit` 调用提交到同一队列的 {@link SubmitInfo}。
+///
+/// 配合时间线信号量的等待值与触发值，可以将“上传 → 训练 → 快照”这样的多阶段工作表达为一次提交，
+/// 各阶段之间不需要主机端等待
+public final class SubmitBatch {
+    public final List<SubmitInfo> submitInfos;
+
+    /// 连续存放的 {@link VkSubmitInfo} 数组中的第一个元素，数组长度为 `submitInfos.size()`
+    public final VkSubmitInfo submitInfosVk;
+
+    public SubmitBatch(List<SubmitInfo> submitInfos) {
+        if (submitInfos.isEmpty()) {
+            throw new IllegalArgumentException("提交批次中至少需要一个 SubmitInfo");
+        }
+
+        this.submitInfos = List.copyOf(submitInfos);
+
+        // 复制出的结构体仍然引用各个 SubmitInfo 的本地内存，这些内存通过 submitInfos 保持可达
+        VkSubmitInfo.Ptr pSubmitInfos = VkSubmitInfo.allocate(Arena.ofAuto(), submitInfos.size());
+        for (int i = 0; i < submitInfos.size(); i++) {
+            pSubmitInfos.at(i).segment().copyFrom(submitInfos.get(i).submitInfoVk.segment());
+        }
+        this.submitInfosVk = pSubmitInfos.at(0);
+    }
+}
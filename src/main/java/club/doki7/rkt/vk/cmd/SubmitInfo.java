@@ -1,29 +1,143 @@
 package club.doki7.rkt.vk.cmd;
 
 import club.doki7.ffm.annotation.Bitmask;
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.ffm.ptr.LongPtr;
 import club.doki7.rkt.vk.sync.SemaphoreVK;
 import club.doki7.vulkan.bitmask.VkPipelineStageFlags;
+import club.doki7.vulkan.datatype.VkSubmitInfo;
+import club.doki7.vulkan.datatype.VkTimelineSemaphoreSubmitInfo;
+import club.doki7.vulkan.handle.VkCommandBuffer;
+import club.doki7.vulkan.handle.VkSemaphore;
+import org.jetbrains.annotations.Nullable;
 
+import java.lang.foreign.Arena;
 import java.util.List;
 
+/// 一次队列提交的描述。
+///
+/// 对应的 {@link VkSubmitInfo} 在构造时就已经生成好，因此同一个 {@link SubmitInfo} 可以被反复提交，
+/// 而每次提交都不需要再分配任何本地内存。时间线信号量的值可以通过 {@link #setSignalValue} 在提交之间原地修改，
+/// 等待的信号量及其等待值可以通过 {@link #setWaitSemaphore} 原地修改
 public final class SubmitInfo {
     public final List<CommandBuffer> commandBuffers;
     public final List<SemaphoreVK> waitSemaphores;
     public final @Bitmask(VkPipelineStageFlags.class) List<Integer> waitDstStageMasks;
     public final List<SemaphoreVK> signalSemaphores;
 
+    /// 与 `waitSemaphores` 一一对应的等待值，不使用时间线信号量时为空列表。二元信号量对应的值会被忽略
+    public final List<Long> waitValues;
+    /// 与 `signalSemaphores` 一一对应的初始触发值，不使用时间线信号量时为空列表。二元信号量对应的值会被忽略
+    public final List<Long> signalValues;
+
+    /// 预先生成的 {@link VkSubmitInfo}，其本地内存随本对象一起被回收
+    public final VkSubmitInfo submitInfoVk;
+
     public SubmitInfo(
             List<CommandBuffer> commandBuffers,
             List<SemaphoreVK> waitSemaphores,
             @Bitmask(VkPipelineStageFlags.class) List<Integer> waitDstStageMasks,
             List<SemaphoreVK> signalSemaphores
+    ) {
+        this(commandBuffers, waitSemaphores, waitDstStageMasks, List.of(), signalSemaphores, List.of());
+    }
+
+    public SubmitInfo(
+            List<CommandBuffer> commandBuffers,
+            List<SemaphoreVK> waitSemaphores,
+            @Bitmask(VkPipelineStageFlags.class) List<Integer> waitDstStageMasks,
+            List<Long> waitValues,
+            List<SemaphoreVK> signalSemaphores,
+            List<Long> signalValues
     ) {
         assert waitSemaphores.size() == waitDstStageMasks.size() :
                 "waitSemaphores 和 waitDstStageMasks 的大小必须相同";
+        assert waitValues.isEmpty() || waitValues.size() == waitSemaphores.size() :
+                "waitValues 必须为空或与 waitSemaphores 的大小相同";
+        assert signalValues.isEmpty() || signalValues.size() == signalSemaphores.size() :
+                "signalValues 必须为空或与 signalSemaphores 的大小相同";
 
-        this.commandBuffers = commandBuffers;
-        this.waitSemaphores = waitSemaphores;
-        this.waitDstStageMasks = waitDstStageMasks;
-        this.signalSemaphores = signalSemaphores;
+        this.commandBuffers = List.copyOf(commandBuffers);
+        this.waitSemaphores = List.copyOf(waitSemaphores);
+        this.waitDstStageMasks = List.copyOf(waitDstStageMasks);
+        this.waitValues = List.copyOf(waitValues);
+        this.signalSemaphores = List.copyOf(signalSemaphores);
+        this.signalValues = List.copyOf(signalValues);
+
+        Arena arena = Arena.ofAuto();
+        VkCommandBuffer.Ptr pCommandBuffers = VkCommandBuffer.Ptr.allocate(arena, commandBuffers.size());
+        for (int i = 0; i < commandBuffers.size(); i++) {
+            pCommandBuffers.write(i, commandBuffers.get(i).handle);
+        }
+        VkSemaphore.Ptr pWaitSemaphores = VkSemaphore.Ptr.allocate(arena, waitSemaphores.size());
+        for (int i = 0; i < waitSemaphores.size(); i++) {
+            pWaitSemaphores.write(i, waitSemaphores.get(i).handle);
+        }
+        @Bitmask(VkPipelineStageFlags.class) IntPtr pWaitDstStageMask =
+                IntPtr.allocate(arena, waitDstStageMasks.size());
+        for (int i = 0; i < waitDstStageMasks.size(); i++) {
+            pWaitDstStageMask.write(i, waitDstStageMasks.get(i));
+        }
+        VkSemaphore.Ptr pSignalSemaphores = VkSemaphore.Ptr.allocate(arena, signalSemaphores.size());
+        for (int i = 0; i < signalSemaphores.size(); i++) {
+            pSignalSemaphores.write(i, signalSemaphores.get(i).handle);
+        }
+
+        this.pWaitSemaphores = pWaitSemaphores;
+        this.submitInfoVk = VkSubmitInfo.allocate(arena)
+                .commandBufferCount(commandBuffers.size())
+                .pCommandBuffers(pCommandBuffers)
+                .waitSemaphoreCount(waitSemaphores.size())
+                .pWaitSemaphores(pWaitSemaphores)
+                .pWaitDstStageMask(pWaitDstStageMask)
+                .signalSemaphoreCount(signalSemaphores.size())
+                .pSignalSemaphores(pSignalSemaphores);
+
+        if (!waitValues.isEmpty() || !signalValues.isEmpty()) {
+            LongPtr pWaitValues = LongPtr.allocate(arena, waitValues.size());
+            for (int i = 0; i < waitValues.size(); i++) {
+                pWaitValues.write(i, waitValues.get(i));
+            }
+            LongPtr pSignalValues = LongPtr.allocate(arena, signalValues.size());
+            for (int i = 0; i < signalValues.size(); i++) {
+                pSignalValues.write(i, signalValues.get(i));
+            }
+
+            this.pWaitValues = pWaitValues;
+            this.pSignalValues = pSignalValues;
+            VkTimelineSemaphoreSubmitInfo timelineSubmitInfo = VkTimelineSemaphoreSubmitInfo.allocate(arena)
+                    .waitSemaphoreValueCount(waitValues.size())
+                    .pWaitSemaphoreValues(pWaitValues)
+                    .signalSemaphoreValueCount(signalValues.size())
+                    .pSignalSemaphoreValues(pSignalValues);
+            submitInfoVk.pNext(timelineSubmitInfo);
+        } else {
+            this.pWaitValues = null;
+            this.pSignalValues = null;
+        }
     }
+
+    /// 原地修改第 `index` 个触发信号量的触发值，之后的提交使用新的值，{@link #signalValues} 不会随之改变。
+    ///
+    /// 提交在返回之前就已经读取了 {@link #submitInfoVk}，因此提交之间可以修改，但不能与使用本对象的提交并发进行
+    public void setSignalValue(int index, long value) {
+        if (pSignalValues == null) {
+            throw new IllegalStateException("构造时没有指定触发值");
+        }
+        pSignalValues.write(index, value);
+    }
+
+    /// 原地替换第 `index` 个等待的信号量及其等待值，之后的提交使用新的信号量和值，{@link #waitSemaphores} 与
+    /// {@link #waitValues} 不会随之改变。本对象必须在构造时指定了等待值，并发限制与 {@link #setSignalValue} 相同
+    public void setWaitSemaphore(int index, SemaphoreVK semaphore, long value) {
+        if (pWaitValues == null || waitValues.isEmpty()) {
+            throw new IllegalStateException("构造时没有指定等待值");
+        }
+        pWaitSemaphores.write(index, semaphore.handle);
+        pWaitValues.write(index, value);
+    }
+
+    private final VkSemaphore.Ptr pWaitSemaphores;
+    private final @Nullable LongPtr pWaitValues;
+    private final @Nullable LongPtr pSignalValues;
 }
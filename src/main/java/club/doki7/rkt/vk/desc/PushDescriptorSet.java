@@ -3,6 +3,7 @@ package club.doki7.rkt.vk.desc;
 import club.doki7.rkt.vk.RenderContext;
 import club.doki7.vulkan.datatype.VkWriteDescriptorSet;
 
+import java.lang.foreign.Arena;
 import java.util.Collections;
 import java.util.List;
 
@@ -11,15 +12,27 @@ public final class PushDescriptorSet {
     public final DescriptorSetLayout compatibleLayout;
     public final List<IDescriptor> descriptors;
 
+    /// 描述符写入分配在 {@link RenderContext#prefabArena} 中，与渲染上下文同生命周期，只适合数量有限的描述符集。
+    /// 随任务反复创建的描述符集应当使用 {@link #create(Arena, DescriptorSetLayout, List)}
     public static PushDescriptorSet create(
             RenderContext cx,
             DescriptorSetLayout compatibleLayout,
             List<IDescriptor> descriptors
+    ) {
+        return create(cx.prefabArena, compatibleLayout, descriptors);
+    }
+
+    /// 描述符写入分配在 `arena` 中。推送描述符的内容在录制命令时就被复制，
+    /// 因此录制完成后所有者即可关闭 `arena`，不需要等待命令缓冲执行完毕
+    public static PushDescriptorSet create(
+            Arena arena,
+            DescriptorSetLayout compatibleLayout,
+            List<IDescriptor> descriptors
     ) {
         assert checkLayoutCompatibility(descriptors, compatibleLayout);
 
         VkWriteDescriptorSet.Ptr descriptorSetWrites = VkWriteDescriptorSet.allocate(
-                cx.prefabArena,
+                arena,
                 descriptors.size()
         );
         for (int i = 0; i < descriptors.size(); i++) {
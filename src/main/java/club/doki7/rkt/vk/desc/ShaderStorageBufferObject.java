@@ -6,18 +6,38 @@ import club.doki7.vulkan.datatype.VkDescriptorBufferInfo;
 import club.doki7.vulkan.datatype.VkWriteDescriptorSet;
 import club.doki7.vulkan.enumtype.VkDescriptorType;
 
+import java.lang.foreign.Arena;
+
 public final class ShaderStorageBufferObject implements IDescriptor {
     public final Buffer buffer;
     public final VkDescriptorBufferInfo bufferInfo;
 
+    /// 描述符信息分配在 {@link RenderContext#prefabArena} 中，与渲染上下文同生命周期，只适合数量有限的描述符。
+    /// 随任务反复创建的描述符应当使用 {@link #create(Arena, Buffer)}，由所有者在关闭时释放
     public static ShaderStorageBufferObject create(RenderContext cx, Buffer buffer) {
+        return create(cx.prefabArena, buffer);
+    }
+
+    public static ShaderStorageBufferObject create(RenderContext cx, Buffer buffer, long offset, long range) {
+        return create(cx.prefabArena, buffer, offset, range);
+    }
+
+    public static ShaderStorageBufferObject create(Arena arena, Buffer buffer) {
+        return create(arena, buffer, 0, buffer.size);
+    }
+
+    /// 只绑定 `buffer` 中从 `offset` 开始、长度为 `range` 的部分，`offset` 相对于 `buffer` 自身的起始位置
+    public static ShaderStorageBufferObject create(Arena arena, Buffer buffer, long offset, long range) {
         if (!buffer.options.usage.contains(Buffer.Usage.STORAGE_BUFFER)) {
             throw new IllegalArgumentException("Buffer must be created with usage STORAGE_BUFFER");
         }
-        VkDescriptorBufferInfo bufferInfo = VkDescriptorBufferInfo.allocate(cx.prefabArena)
+        if (offset < 0 || range <= 0 || offset + range > buffer.size) {
+            throw new IllegalArgumentException("Descriptor range exceeds buffer bounds");
+        }
+        VkDescriptorBufferInfo bufferInfo = VkDescriptorBufferInfo.allocate(arena)
                 .buffer(buffer.handle)
-                .offset(0)
-                .range(buffer.size);
+                .offset(buffer.offset + offset)
+                .range(range);
         return new ShaderStorageBufferObject(buffer, bufferInfo);
     }
 
@@ -6,17 +6,24 @@ import club.doki7.vulkan.datatype.VkDescriptorBufferInfo;
 import club.doki7.vulkan.datatype.VkWriteDescriptorSet;
 import club.doki7.vulkan.enumtype.VkDescriptorType;
 
+import java.lang.foreign.Arena;
+
 public final class UniformBufferObject implements IDescriptor {
     public final Buffer buffer;
     public final VkDescriptorBufferInfo bufferInfo;
 
+    /// 描述符信息分配在 {@link RenderContext#prefabArena} 中，见 {@link ShaderStorageBufferObject#create(RenderContext, Buffer)}
     public static UniformBufferObject create(RenderContext cx, Buffer buffer) {
+        return create(cx.prefabArena, buffer);
+    }
+
+    public static UniformBufferObject create(Arena arena, Buffer buffer) {
         if (!buffer.options.usage.contains(Buffer.Usage.UNIFORM_BUFFER)) {
             throw new IllegalArgumentException("Buffer must be created with usage UNIFORM_BUFFER");
         }
-        VkDescriptorBufferInfo bufferInfo = VkDescriptorBufferInfo.allocate(cx.prefabArena)
+        VkDescriptorBufferInfo bufferInfo = VkDescriptorBufferInfo.allocate(arena)
                 .buffer(buffer.handle)
-                .offset(0)
+                .offset(buffer.offset)
                 .range(buffer.size);
         return new UniformBufferObject(buffer, bufferInfo);
     }
@@ -14,6 +14,7 @@ import club.doki7.glfw.handle.GLFWwindow;
 import club.doki7.vma.VMA;
 import club.doki7.vma.VMAJavaTraceUtil;
 import club.doki7.vma.VMAUtil;
+import club.doki7.vma.bitmask.VmaAllocatorCreateFlags;
 import club.doki7.vma.datatype.VmaAllocatorCreateInfo;
 import club.doki7.vma.datatype.VmaVulkanFunctions;
 import club.doki7.vma.handle.VmaAllocator;
@@ -56,13 +57,18 @@ public final class ContextInit {
     private int presentQueueFamilyIndex;
     private int dedicatedTransferQueueFamilyIndex;
     private int dedicatedComputeQueueFamilyIndex;
+    private int graphicsQueueCount;
+    private int dedicatedTransferQueueCount;
+    private int dedicatedComputeQueueCount;
 
     private VkDevice device;
     private VkDeviceCommands dCmd;
-    private VkQueue graphicsQueue;
+    private List<VkQueue> graphicsQueues;
     private @Nullable VkQueue presentQueue;
-    private @Nullable VkQueue dedicatedTransferQueue;
-    private @Nullable VkQueue dedicatedComputeQueue;
+    private List<VkQueue> dedicatedTransferQueues;
+    private List<VkQueue> dedicatedComputeQueues;
+    private boolean timelineSemaphoreEnabled;
+    private boolean memoryBudgetEnabled;
 
     private VMA vma;
     private VmaAllocator vmaAllocator;
@@ -98,34 +104,42 @@ public final class ContextInit {
             throw e;
         }
 
-        return new RenderContext(
-                prefabArena,
-                config,
+        try {
+            return new RenderContext(
+                    prefabArena,
+                    config,
 
-                sCmd,
-                eCmd,
-                iCmd,
-                dCmd,
-                vma,
+                    sCmd,
+                    eCmd,
+                    iCmd,
+                    dCmd,
+                    vma,
 
-                physicalDevice,
-                graphicsQueueFamilyIndex,
-                presentQueueFamilyIndex,
-                dedicatedTransferQueueFamilyIndex,
-                dedicatedComputeQueueFamilyIndex,
-
-                instance,
-                debugMessenger,
-                surface,
-
-                device,
-                graphicsQueue,
-                presentQueue,
-                dedicatedTransferQueue,
-                dedicatedComputeQueue,
-
-                vmaAllocator
-        );
+                    physicalDevice,
+                    graphicsQueueFamilyIndex,
+                    presentQueueFamilyIndex,
+                    dedicatedTransferQueueFamilyIndex,
+                    dedicatedComputeQueueFamilyIndex,
+
+                    instance,
+                    debugMessenger,
+                    surface,
+
+                    device,
+                    graphicsQueues,
+                    presentQueue,
+                    dedicatedTransferQueues,
+                    dedicatedComputeQueues,
+
+                    vmaAllocator,
+
+                    timelineSemaphoreEnabled,
+                    memoryBudgetEnabled
+            );
+        } catch (Throwable e) {
+            cleanup();
+            throw e;
+        }
     }
 
     private void createInstance() throws RenderException {
@@ -327,6 +341,7 @@ public final class ContextInit {
                             ", 支持的操作: " + VkQueueFlags.explain(queueFlags)
                     );
                     graphicsQueueFamilyIndex = i;
+                    graphicsQueueCount = Math.min(queueFamilyProperty.queueCount(), config.maxQueuesPerFamily);
                 }
 
                 if (glfw != null) {
@@ -355,6 +370,8 @@ public final class ContextInit {
                                 ", 支持的操作: " + VkQueueFlags.explain(queueFlags)
                         );
                         dedicatedTransferQueueFamilyIndex = i;
+                        dedicatedTransferQueueCount =
+                                Math.min(queueFamilyProperty.queueCount(), config.maxQueuesPerFamily);
                     }
                 }
 
@@ -369,6 +386,8 @@ public final class ContextInit {
                                 ", 支持的操作: " + VkQueueFlags.explain(queueFlags)
                         );
                         dedicatedComputeQueueFamilyIndex = i;
+                        dedicatedComputeQueueCount =
+                                Math.min(queueFamilyProperty.queueCount(), config.maxQueuesPerFamily);
                     }
                 }
             }
@@ -396,7 +415,14 @@ public final class ContextInit {
                 deviceFeatures.samplerAnisotropy(VkConstants.TRUE);
             }
 
-            FloatPtr pQueuePriorities = FloatPtr.allocateV(arena, 1.0f);
+            int maxQueueCount = Math.max(
+                    graphicsQueueCount,
+                    Math.max(dedicatedTransferQueueCount, dedicatedComputeQueueCount)
+            );
+            FloatPtr pQueuePriorities = FloatPtr.allocate(arena, maxQueueCount);
+            for (int i = 0; i < maxQueueCount; i++) {
+                pQueuePriorities.write(i, 1.0f);
+            }
 
             int queueCreateInfoCount = 1;
             if (presentQueueFamilyIndex != -1 && graphicsQueueFamilyIndex != presentQueueFamilyIndex) {
@@ -412,7 +438,7 @@ public final class ContextInit {
             VkDeviceQueueCreateInfo.Ptr queueCreateInfos = VkDeviceQueueCreateInfo.allocate(arena, queueCreateInfoCount);
             int nthCreateInfo = 0;
             queueCreateInfos.at(nthCreateInfo)
-                    .queueCount(1)
+                    .queueCount(graphicsQueueCount)
                     .queueFamilyIndex(graphicsQueueFamilyIndex)
                     .pQueuePriorities(pQueuePriorities);
             nthCreateInfo += 1;
@@ -425,14 +451,14 @@ public final class ContextInit {
             }
             if (dedicatedTransferQueueFamilyIndex != -1) {
                 queueCreateInfos.at(nthCreateInfo)
-                        .queueCount(1)
+                        .queueCount(dedicatedTransferQueueCount)
                         .queueFamilyIndex(dedicatedTransferQueueFamilyIndex)
                         .pQueuePriorities(pQueuePriorities);
                 nthCreateInfo += 1;
             }
             if (dedicatedComputeQueueFamilyIndex != -1) {
                 queueCreateInfos.at(nthCreateInfo)
-                        .queueCount(1)
+                        .queueCount(dedicatedComputeQueueCount)
                         .queueFamilyIndex(dedicatedComputeQueueFamilyIndex)
                         .pQueuePriorities(pQueuePriorities);
             }
@@ -445,11 +471,37 @@ public final class ContextInit {
                 extensions.addAll(hostCopyDeviceExtensions);
             }
             extensions.addAll(config.additionalDeviceExtensions);
+
+            Set<String> supportedExtensions = queryDeviceExtensions(arena);
+            timelineSemaphoreEnabled = false;
+            if (config.enableTimelineSemaphore) {
+                if (supportedExtensions.contains(VkConstants.KHR_TIMELINE_SEMAPHORE_EXTENSION_NAME)) {
+                    logger.info("物理设备支持时间线信号量，将启用 " + VkConstants.KHR_TIMELINE_SEMAPHORE_EXTENSION_NAME);
+                    extensions.add(VkConstants.KHR_TIMELINE_SEMAPHORE_EXTENSION_NAME);
+                    timelineSemaphoreEnabled = true;
+                } else {
+                    logger.warning("配置要求启用时间线信号量，但物理设备不支持 "
+                                   + VkConstants.KHR_TIMELINE_SEMAPHORE_EXTENSION_NAME + "，将只使用二元信号量");
+                }
+            }
+            // 显存预算扩展只用于统计显存使用情况，不支持时回退到 VMA 自己的估计值
+            memoryBudgetEnabled = supportedExtensions.contains(VkConstants.EXT_MEMORY_BUDGET_EXTENSION_NAME);
+            if (memoryBudgetEnabled) {
+                extensions.add(VkConstants.EXT_MEMORY_BUDGET_EXTENSION_NAME);
+            } else {
+                logger.info("物理设备不支持 " + VkConstants.EXT_MEMORY_BUDGET_EXTENSION_NAME + "，显存预算将由 VMA 估计");
+            }
             PointerPtr ppDeviceExtensions = PointerPtr.allocateStrings(arena, extensions);
 
             VkPhysicalDeviceDynamicRenderingFeatures dynamicRenderingFeatures =
                     VkPhysicalDeviceDynamicRenderingFeatures.allocate(arena)
                             .dynamicRendering(VkConstants.TRUE);
+            if (timelineSemaphoreEnabled) {
+                VkPhysicalDeviceTimelineSemaphoreFeatures timelineSemaphoreFeatures =
+                        VkPhysicalDeviceTimelineSemaphoreFeatures.allocate(arena)
+                                .timelineSemaphore(VkConstants.TRUE);
+                dynamicRenderingFeatures.pNext(timelineSemaphoreFeatures);
+            }
 
             VkDeviceCreateInfo deviceCreateInfo = VkDeviceCreateInfo.allocate(arena)
                     .pEnabledFeatures(deviceFeatures)
@@ -473,8 +525,7 @@ public final class ContextInit {
             dCmd = VulkanLoader.loadDeviceCommands(device, sCmd);
 
             VkQueue.Ptr pQueue = VkQueue.Ptr.allocate(arena);
-            dCmd.getDeviceQueue(device, graphicsQueueFamilyIndex, 0, pQueue);
-            graphicsQueue = Objects.requireNonNull(pQueue.read());
+            graphicsQueues = getDeviceQueues(graphicsQueueFamilyIndex, graphicsQueueCount, pQueue);
             if (presentQueueFamilyIndex != -1) {
                 dCmd.getDeviceQueue(device, presentQueueFamilyIndex, 0, pQueue);
                 presentQueue = Objects.requireNonNull(pQueue.read());
@@ -483,20 +534,36 @@ public final class ContextInit {
             }
 
             if (dedicatedTransferQueueFamilyIndex != -1) {
-                dCmd.getDeviceQueue(device, dedicatedTransferQueueFamilyIndex, 0, pQueue);
-                dedicatedTransferQueue = Objects.requireNonNull(pQueue.read());
+                dedicatedTransferQueues = getDeviceQueues(
+                        dedicatedTransferQueueFamilyIndex,
+                        dedicatedTransferQueueCount,
+                        pQueue
+                );
             } else {
-                dedicatedTransferQueue = null;
+                dedicatedTransferQueues = List.of();
             }
             if (dedicatedComputeQueueFamilyIndex != -1) {
-                dCmd.getDeviceQueue(device, dedicatedComputeQueueFamilyIndex, 0, pQueue);
-                dedicatedComputeQueue = Objects.requireNonNull(pQueue.read());
+                dedicatedComputeQueues = getDeviceQueues(
+                        dedicatedComputeQueueFamilyIndex,
+                        dedicatedComputeQueueCount,
+                        pQueue
+                );
             } else {
-                dedicatedComputeQueue = null;
+                dedicatedComputeQueues = List.of();
             }
         }
     }
 
+    private List<VkQueue> getDeviceQueues(int queueFamilyIndex, int queueCount, VkQueue.Ptr pQueue) {
+        List<VkQueue> queues = new ArrayList<>();
+        for (int i = 0; i < queueCount; i++) {
+            dCmd.getDeviceQueue(device, queueFamilyIndex, i, pQueue);
+            queues.add(Objects.requireNonNull(pQueue.read()));
+        }
+        logger.info("已从队列族 " + queueFamilyIndex + " 中获取 " + queueCount + " 个队列");
+        return queues;
+    }
+
     private void createVMA() {
         vma = new VMA(libVMA);
         VMAJavaTraceUtil.enableJavaTraceForVMA(libVMA);
@@ -511,6 +578,9 @@ public final class ContextInit {
                     .device(device)
                     .pVulkanFunctions(vmaVulkanFunctions)
                     .vulkanApiVersion(Version.VK_API_VERSION_1_0.encode());
+            if (memoryBudgetEnabled) {
+                vmaCreateInfo.flags(VmaAllocatorCreateFlags.EXT_MEMORY_BUDGET);
+            }
 
             var pVmaAllocator = VmaAllocator.Ptr.allocate(arena);
             var result = vma.createAllocator(vmaCreateInfo, pVmaAllocator);
@@ -543,6 +613,33 @@ public final class ContextInit {
         }
     }
 
+    private Set<String> queryDeviceExtensions(Arena arena) throws VulkanException {
+        IntPtr pExtensionCount = IntPtr.allocate(arena);
+        @EnumType(VkResult.class) int result =
+                iCmd.enumerateDeviceExtensionProperties(physicalDevice, null, pExtensionCount, null);
+        if (result != VkResult.SUCCESS) {
+            throw new VulkanException(result, "无法获取 Vulkan 设备扩展列表");
+        }
+
+        int extensionCount = pExtensionCount.read();
+        VkExtensionProperties.Ptr extensionProperties = VkExtensionProperties.allocate(arena, extensionCount);
+        result = iCmd.enumerateDeviceExtensionProperties(
+                physicalDevice,
+                null,
+                pExtensionCount,
+                extensionProperties
+        );
+        if (result != VkResult.SUCCESS) {
+            throw new VulkanException(result, "无法获取 Vulkan 设备扩展列表");
+        }
+
+        Set<String> extensions = new HashSet<>();
+        for (VkExtensionProperties properties : extensionProperties) {
+            extensions.add(properties.extensionName().readString());
+        }
+        return extensions;
+    }
+
     private boolean checkValidationLayerSupport() {
         try (Arena arena = Arena.ofConfined()) {
             IntPtr pLayerCount = IntPtr.allocate(arena);
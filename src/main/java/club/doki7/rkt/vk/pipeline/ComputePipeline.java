@@ -58,7 +58,7 @@ public final class ComputePipeline implements AutoCloseable {
             VkPipeline.Ptr pPipeline = VkPipeline.Ptr.allocate(arena);
             @EnumType(VkResult.class) int result = cx.dCmd.createComputePipelines(
                     cx.device,
-                    null,
+                    cx.pipelineCache,
                     1,
                     createInfo,
                     null,
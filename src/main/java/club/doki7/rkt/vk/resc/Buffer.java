@@ -2,6 +2,8 @@ package club.doki7.rkt.vk.resc;
 
 import club.doki7.ffm.annotation.Bitmask;
 import club.doki7.ffm.annotation.EnumType;
+import club.doki7.ffm.ptr.IntPtr;
+import club.doki7.ffm.ptr.LongPtr;
 import club.doki7.rkt.exc.VulkanException;
 import club.doki7.rkt.vk.IDisposeOnContext;
 import club.doki7.rkt.vk.RenderContext;
@@ -13,7 +15,6 @@ import club.doki7.vma.handle.VmaAllocation;
 import club.doki7.vulkan.bitmask.VkBufferUsageFlags;
 import club.doki7.vulkan.bitmask.VkMemoryPropertyFlags;
 import club.doki7.vulkan.datatype.VkBufferCreateInfo;
-import club.doki7.vulkan.datatype.VkMappedMemoryRange;
 import club.doki7.vulkan.enumtype.VkResult;
 import club.doki7.vulkan.enumtype.VkSharingMode;
 import club.doki7.vulkan.handle.VkBuffer;
@@ -50,22 +51,37 @@ public final class Buffer implements AutoCloseable {
         public final boolean mapped;
         public final boolean coherent;
         public final boolean shared;
+        /// 是否优先分配主机缓存的内存。主机读取这样的缓冲时不必逐次穿过总线，但设备写入后需要先调用
+        /// {@link Buffer#invalidate(RenderContext, long, long)}
+        public final boolean cached;
+        /// 是否尝试将未映射的缓冲分配在同时是设备本地且对主机可见的内存中（可调整大小的 BAR 或者统一内存架构）。
+        /// 分配成功时缓冲被持久映射，上传数据时由主机直接写入而不经过暂存缓冲，见 {@link Buffer#directlyWritable}
+        public final boolean directUpload;
+        /// 所有者标签，用于按所有者统计显存用量，见 {@link RenderContext#memoryStatistics()}
+        public final String tag;
 
         final @Bitmask(VkBufferUsageFlags.class) int usageFlags;
         final @Bitmask(VmaAllocationCreateFlags.class) int allocationCreateFlags;
         final @Bitmask(VkMemoryPropertyFlags.class) int memoryPropertyFlags;
+        final @Bitmask(VkMemoryPropertyFlags.class) int preferredMemoryPropertyFlags;
         final @EnumType(VkSharingMode.class) int sharingMode;
 
         Options(
                 Set<Usage> usage,
                 boolean mapped,
                 boolean coherent,
-                boolean shared
+                boolean shared,
+                boolean cached,
+                boolean directUpload,
+                String tag
         ) {
             this.usage = Collections.unmodifiableSet(usage);
             this.mapped = mapped;
             this.coherent = coherent;
             this.shared = shared;
+            this.cached = cached;
+            this.directUpload = directUpload;
+            this.tag = tag;
 
             @Bitmask(VkBufferUsageFlags.class) int usageFlags = 0;
             for (Usage u : usage) {
@@ -78,12 +94,22 @@ public final class Buffer implements AutoCloseable {
                 allocationCreateFlags |= VmaAllocationCreateFlags.MAPPED;
                 allocationCreateFlags |= VmaAllocationCreateFlags.HOST_ACCESS_RANDOM;
             }
+            if (directUpload) {
+                // 由 VMA 选择内存类型：如果设备本地内存可以被主机访问就映射它，否则退回不可映射的设备本地内存
+                allocationCreateFlags |= VmaAllocationCreateFlags.MAPPED;
+                allocationCreateFlags |= VmaAllocationCreateFlags.HOST_ACCESS_SEQUENTIAL_WRITE;
+                allocationCreateFlags |= VmaAllocationCreateFlags.HOST_ACCESS_ALLOW_TRANSFER_INSTEAD;
+            }
             this.allocationCreateFlags = allocationCreateFlags;
 
-            @Bitmask(VkMemoryPropertyFlags.class) int memoryPropertyFlags = coherent
-                    ? 0
-                    : VkMemoryPropertyFlags.HOST_VISIBLE;
+            // 只有需要主机访问的缓冲才要求主机可见，其余的缓冲交由 VMA 放在设备本地内存中
+            @Bitmask(VkMemoryPropertyFlags.class) int memoryPropertyFlags = mapped && !coherent
+                    ? VkMemoryPropertyFlags.HOST_VISIBLE
+                    : 0;
             this.memoryPropertyFlags = memoryPropertyFlags;
+            this.preferredMemoryPropertyFlags = cached
+                    ? VkMemoryPropertyFlags.HOST_CACHED
+                    : 0;
 
             this.sharingMode = shared
                     ? VkSharingMode.CONCURRENT
@@ -102,17 +128,28 @@ public final class Buffer implements AutoCloseable {
         public boolean mapped;
         public boolean coherent;
         public boolean shared;
+        public boolean cached;
+        public boolean directUpload;
+        public String tag;
 
         public Options build() {
             if (coherent && !mapped) {
                 throw new IllegalStateException("无效的参数组合：若指定了 coherent，则必须指定 mapped");
             }
 
+            if (cached && (!mapped || coherent)) {
+                throw new IllegalStateException("无效的参数组合：若指定了 cached，则必须指定 mapped 且不能指定 coherent");
+            }
+
+            if (directUpload && (mapped || !usage.contains(Usage.TRANSFER_DST))) {
+                throw new IllegalStateException("无效的参数组合：若指定了 directUpload，则不能指定 mapped 且必须包含 TRANSFER_DST 用途");
+            }
+
             if (usage.isEmpty()) {
                 throw new IllegalStateException("使用的缓冲区类型不能为空");
             }
 
-            return new Options(usage, mapped, coherent, shared);
+            return new Options(usage, mapped, coherent, shared, cached, directUpload, tag);
         }
 
         public OptionsInit() {
@@ -120,6 +157,9 @@ public final class Buffer implements AutoCloseable {
             this.mapped = false;
             this.coherent = false;
             this.shared = false;
+            this.cached = false;
+            this.directUpload = false;
+            this.tag = TAG_OTHER;
         }
 
         public static OptionsInit vertexBufferPreset() {
@@ -158,6 +198,17 @@ public final class Buffer implements AutoCloseable {
             return init;
         }
 
+        /// 由设备写入、由主机读取的存储缓冲。读取之前需要调用 {@link Buffer#invalidate(RenderContext, long, long)}
+        public static OptionsInit readbackBufferPreset() {
+            OptionsInit init = new OptionsInit();
+            init.usage = Set.of(Usage.STORAGE_BUFFER, Usage.TRANSFER_DST);
+            init.mapped = true;
+            init.coherent = false;
+            init.shared = false;
+            init.cached = true;
+            return init;
+        }
+
         public static OptionsInit shaderStorageBufferPreset() {
             OptionsInit init = new OptionsInit();
             init.usage = Set.of(Usage.STORAGE_BUFFER, Usage.TRANSFER_DST);
@@ -166,24 +217,55 @@ public final class Buffer implements AutoCloseable {
             init.shared = false;
             return init;
         }
+
+        /// 与 {@link #shaderStorageBufferPreset()} 相同，但指定了 {@link Options#directUpload}：设备本地内存对主机可见时，
+        /// 缓冲会被分配在其中并由主机直接写入，这会改变缓冲所在的内存类型
+        public static OptionsInit directUploadStorageBufferPreset() {
+            OptionsInit init = shaderStorageBufferPreset();
+            init.directUpload = true;
+            return init;
+        }
     }
 
+    /// 未指定所有者标签的缓冲使用的标签
+    public static final String TAG_OTHER = "other";
+    /// 暂存缓冲使用的标签，见 {@link StagingRing}
+    public static final String TAG_STAGING = "staging";
+
     public final VkBuffer handle;
+    /// 缓冲在 {@link #handle} 中的起始偏移。单独创建的缓冲总是为 `0`，由 {@link BufferArena} 分配的子缓冲为其在整块缓冲中的偏移
+    public final long offset;
     public final long size;
     public final Options options;
 
     public final VkDeviceMemory deviceMemory;
     public final MemorySegment mapped;
+    /// 缓冲的内存是否被映射到了 {@link #mapped}，可以由主机直接写入。以 {@link Options#mapped} 创建的缓冲总是为
+    /// `true`，以 {@link Options#directUpload} 创建的缓冲仅在被分配到主机可见的内存中时为 `true`
+    public final boolean directlyWritable;
 
     public void invalidate(RenderContext cx) throws VulkanException {
-        if (mappedMemoryRange == null) {
+        if (!nonCoherent) {
             throw new IllegalStateException("缓冲未被映射或者不需要失效");
         }
+        invalidate(cx, 0, size);
+    }
 
-        @EnumType(VkResult.class) int result = cx.dCmd.invalidateMappedMemoryRanges(
-                cx.device,
-                1,
-                mappedMemoryRange
+    /// 失效缓冲中从 `offset` 开始、长度为 `size` 的映射内存，`offset` 相对于本缓冲的起始位置。
+    /// 范围由 VMA 按照非一致内存的刷新粒度对齐；如果缓冲恰好分配在一致内存中，此方法没有任何效果
+    public void invalidate(RenderContext cx, long offset, long size) throws VulkanException {
+        if (!directlyWritable) {
+            throw new IllegalStateException("缓冲未被映射");
+        }
+        if (offset < 0 || size < 0 || offset + size > this.size) {
+            throw new IllegalArgumentException("失效范围超出缓冲大小");
+        }
+
+        @EnumType(VkResult.class) int result = cx.vma.invalidateAllocation(
+                cx.vmaAllocator,
+                allocation,
+                this.offset + offset,
+                size
         );
         if (result != VkResult.SUCCESS) {
             throw new VulkanException(result, "无法失效 Vulkan 缓冲区的映射内存范围");
@@ -191,14 +273,27 @@ public final class Buffer implements AutoCloseable {
     }
 
     public void flush(RenderContext cx) throws VulkanException {
-        if (mappedMemoryRange == null) {
+        if (!nonCoherent) {
             throw new IllegalStateException("缓冲未被映射或者不需要刷新");
         }
+        flush(cx, 0, size);
+    }
 
-        @EnumType(VkResult.class) int result = cx.dCmd.flushMappedMemoryRanges(
-                cx.device,
-                1,
-                mappedMemoryRange
+    /// 刷新缓冲中从 `offset` 开始、长度为 `size` 的映射内存，`offset` 相对于本缓冲的起始位置。
+    /// 范围由 VMA 换算到所在的内存块中并按照非一致内存的刷新粒度对齐；如果缓冲恰好分配在一致内存中，此方法没有任何效果
+    public void flush(RenderContext cx, long offset, long size) throws VulkanException {
+        if (!directlyWritable) {
+            throw new IllegalStateException("缓冲未被映射");
+        }
+        if (offset < 0 || size < 0 || offset + size > this.size) {
+            throw new IllegalArgumentException("刷新范围超出缓冲大小");
+        }
+
+        @EnumType(VkResult.class) int result = cx.vma.flushAllocation(
+                cx.vmaAllocator,
+                allocation,
+                this.offset + offset,
+                size
         );
         if (result != VkResult.SUCCESS) {
             throw new VulkanException(result, "无法刷新 Vulkan 缓冲区的映射内存范围");
@@ -210,20 +305,26 @@ public final class Buffer implements AutoCloseable {
             Collection<Buffer> buffers
     ) throws VulkanException {
         try (Arena arena = Arena.ofConfined()) {
-            VkMappedMemoryRange.Ptr ranges = VkMappedMemoryRange.allocate(arena, buffers.size());
+            VmaAllocation.Ptr allocations = VmaAllocation.Ptr.allocate(arena, buffers.size());
+            LongPtr offsets = LongPtr.allocate(arena, buffers.size());
+            LongPtr sizes = LongPtr.allocate(arena, buffers.size());
             long index = 0;
             for (Buffer buffer : buffers) {
-                if (buffer.mappedMemoryRange == null) {
+                if (!buffer.nonCoherent) {
                     throw new IllegalStateException("缓冲 " + buffer.handle + " 未被映射或者不需要失效");
                 }
-                ranges.write(index, buffer.mappedMemoryRange);
+                allocations.write(index, buffer.allocation);
+                offsets.write(index, buffer.offset);
+                sizes.write(index, buffer.size);
                 index += 1;
             }
 
-            @EnumType(VkResult.class) int result = cx.dCmd.invalidateMappedMemoryRanges(
-                    cx.device,
-                    (int) ranges.size(),
-                    ranges
+            @EnumType(VkResult.class) int result = cx.vma.invalidateAllocations(
+                    cx.vmaAllocator,
+                    buffers.size(),
+                    allocations,
+                    offsets,
+                    sizes
             );
             if (result != VkResult.SUCCESS) {
                 throw new VulkanException(result, "无法失效 Vulkan 缓冲区的映射内存范围");
@@ -236,20 +337,26 @@ public final class Buffer implements AutoCloseable {
             Collection<Buffer> buffers
     ) throws VulkanException {
         try (Arena arena = Arena.ofConfined()) {
-            VkMappedMemoryRange.Ptr ranges = VkMappedMemoryRange.allocate(arena, buffers.size());
+            VmaAllocation.Ptr allocations = VmaAllocation.Ptr.allocate(arena, buffers.size());
+            LongPtr offsets = LongPtr.allocate(arena, buffers.size());
+            LongPtr sizes = LongPtr.allocate(arena, buffers.size());
             long index = 0;
             for (Buffer buffer : buffers) {
-                if (buffer.mappedMemoryRange == null) {
+                if (!buffer.nonCoherent) {
                     throw new IllegalStateException("缓冲 " + buffer.handle + " 未被映射或者不需要刷新");
                 }
-                ranges.write(index, buffer.mappedMemoryRange);
+                allocations.write(index, buffer.allocation);
+                offsets.write(index, buffer.offset);
+                sizes.write(index, buffer.size);
                 index += 1;
             }
 
-            @EnumType(VkResult.class) int result = cx.dCmd.flushMappedMemoryRanges(
-                    cx.device,
-                    (int) ranges.size(),
-                    ranges
+            @EnumType(VkResult.class) int result = cx.vma.flushAllocations(
+                    cx.vmaAllocator,
+                    buffers.size(),
+                    allocations,
+                    offsets,
+                    sizes
             );
             if (result != VkResult.SUCCESS) {
                 throw new VulkanException(result, "无法刷新 Vulkan 缓冲区的映射内存范围");
@@ -271,7 +378,8 @@ public final class Buffer implements AutoCloseable {
             VmaAllocationCreateInfo allocationCreateInfo = VmaAllocationCreateInfo.allocate(arena)
                     .usage(VmaMemoryUsage.AUTO)
                     .flags(options.allocationCreateFlags)
-                    .requiredFlags(options.memoryPropertyFlags);
+                    .requiredFlags(options.memoryPropertyFlags)
+                    .preferredFlags(options.preferredMemoryPropertyFlags);
             VmaAllocationInfo allocationInfo = VmaAllocationInfo.allocate(arena);
 
             VkBuffer.Ptr pBuffer = VkBuffer.Ptr.allocate(arena);
@@ -291,16 +399,42 @@ public final class Buffer implements AutoCloseable {
             VkBuffer handle = pBuffer.read();
             VmaAllocation allocation = pAllocation.read();
             VkDeviceMemory deviceMemory = allocationInfo.deviceMemory();
-            MemorySegment mapped = options.mapped
+            boolean directlyWritable = options.mapped;
+            boolean nonCoherent = options.mapped && !options.coherent;
+            if (options.directUpload) {
+                IntPtr pMemoryPropertyFlags = IntPtr.allocate(arena);
+                cx.vma.getAllocationMemoryProperties(cx.vmaAllocator, allocation, pMemoryPropertyFlags);
+                @Bitmask(VkMemoryPropertyFlags.class) int memoryPropertyFlags = pMemoryPropertyFlags.read();
+                directlyWritable = (memoryPropertyFlags & VkMemoryPropertyFlags.HOST_VISIBLE) != 0;
+                nonCoherent = directlyWritable && (memoryPropertyFlags & VkMemoryPropertyFlags.HOST_COHERENT) == 0;
+            }
+            MemorySegment mapped = directlyWritable
                     ? allocationInfo.pMappedData().reinterpret(size)
                     : MemorySegment.NULL;
-            return new Buffer(handle, size, options, deviceMemory, mapped, allocation, cx, local);
+            long allocationSize = allocationInfo.size();
+            cx.addTaggedMemory(options.tag, allocationSize);
+            return new Buffer(
+                    handle,
+                    size,
+                    options,
+                    deviceMemory,
+                    mapped,
+                    directlyWritable,
+                    nonCoherent,
+                    allocation,
+                    allocationSize,
+                    cx,
+                    local
+            );
         }
     }
 
+    /// 由 {@link BufferArena} 分配的子缓冲不单独持有资源，对其调用此方法没有任何效果，资源随 {@link BufferArena#close()} 一同释放
     @Override
     public void close() {
-        cleanable.clean();
+        if (cleanable != null) {
+            cleanable.clean();
+        }
     }
 
     private Buffer(
@@ -309,30 +443,58 @@ public final class Buffer implements AutoCloseable {
             Options options,
             VkDeviceMemory deviceMemory,
             MemorySegment mapped,
+            boolean directlyWritable,
+            boolean nonCoherent,
 
             VmaAllocation allocation,
+            long allocationSize,
             RenderContext context,
             boolean local
     ) {
         this.handle = handle;
+        this.offset = 0;
         this.size = size;
         this.options = options;
         this.deviceMemory = deviceMemory;
         this.mapped = mapped;
+        this.directlyWritable = directlyWritable;
+        this.allocation = allocation;
 
-        if (options.mapped && !options.coherent) {
-            this.mappedMemoryRange = VkMappedMemoryRange.allocate(context.prefabArena)
-                    .memory(deviceMemory)
-                    .size(size)
-                    .offset(0);
-        } else {
-            this.mappedMemoryRange = null;
-        }
+        this.nonCoherent = nonCoherent;
 
-        IDisposeOnContext d = cx -> cx.vma.destroyBuffer(cx.vmaAllocator, handle, allocation);
+        String tag = options.tag;
+        IDisposeOnContext d = cx -> {
+            cx.vma.destroyBuffer(cx.vmaAllocator, handle, allocation);
+            cx.addTaggedMemory(tag, -allocationSize);
+        };
         this.cleanable = context.registerCleanup(this, d, local);
+        this.parent = null;
+    }
+
+    /// 创建 `parent` 中从 `offset` 开始、长度为 `size` 的子缓冲
+    Buffer(Buffer parent, long offset, long size) {
+        this.handle = parent.handle;
+        this.offset = offset;
+        this.size = size;
+        this.options = parent.options;
+        this.deviceMemory = parent.deviceMemory;
+        this.mapped = parent.directlyWritable
+                ? parent.mapped.asSlice(offset, size)
+                : MemorySegment.NULL;
+        this.directlyWritable = parent.directlyWritable;
+        this.allocation = parent.allocation;
+
+        this.nonCoherent = parent.nonCoherent;
+
+        this.cleanable = null;
+        // 持有整块缓冲的引用，避免整块缓冲在子缓冲仍然可达时被清理
+        this.parent = parent;
     }
 
-    final @Nullable VkMappedMemoryRange mappedMemoryRange;
-    private final Cleaner.Cleanable cleanable;
+    final VmaAllocation allocation;
+    /// 缓冲是否被映射在非一致内存中，即写入后需要刷新、读取前需要失效
+    final boolean nonCoherent;
+    private final @Nullable Cleaner.Cleanable cleanable;
+    @SuppressWarnings({"FieldCanBeLocal", "unused"})
+    private final @Nullable Buffer parent;
 }
@@ -0,0 +1,82 @@
+package club.doki7.rkt.vk.resc;
+
+import club.doki7.rkt.exc.VulkanException;
+import club.doki7.rkt.vk.RenderContext;
+import club.doki7.vulkan.datatype.VkPhysicalDeviceLimits;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/// 将多个缓冲打包进同一个 Vulkan 缓冲和同一次显存分配的子分配器。
+///
+/// 所有子缓冲共用同一组 {@link Buffer.Options}，每个子缓冲的起始偏移都按照设备对该用途要求的最小偏移对齐。
+/// 子缓冲不单独持有资源，整块缓冲在 {@link #close()} 时一并释放
+public final class BufferArena implements AutoCloseable {
+    /// 承载所有子缓冲的整块缓冲
+    public final Buffer buffer;
+    /// 按照请求的顺序排列的子缓冲
+    public final List<Buffer> slices;
+
+    public static BufferArena create(
+            RenderContext cx,
+            List<Long> sizes,
+            boolean local,
+            Buffer.Options options
+    ) throws VulkanException {
+        if (sizes.isEmpty()) {
+            throw new IllegalArgumentException("至少需要分配一个子缓冲");
+        }
+
+        long alignment = alignment(cx, options);
+        long[] offsets = new long[sizes.size()];
+        long totalSize = 0;
+        for (int i = 0; i < sizes.size(); i++) {
+            long size = sizes.get(i);
+            if (size <= 0) {
+                throw new IllegalArgumentException("子缓冲的大小必须为正数");
+            }
+            offsets[i] = totalSize;
+            totalSize += alignUp(size, alignment);
+        }
+
+        Buffer buffer = Buffer.create(cx, totalSize, local, options);
+        List<Buffer> slices = new ArrayList<>(sizes.size());
+        for (int i = 0; i < sizes.size(); i++) {
+            slices.add(new Buffer(buffer, offsets[i], sizes.get(i)));
+        }
+        return new BufferArena(buffer, Collections.unmodifiableList(slices));
+    }
+
+    /// 子缓冲起始偏移所需的对齐，取各个用途以及非一致内存刷新粒度要求中的最大值
+    public static long alignment(RenderContext cx, Buffer.Options options) {
+        VkPhysicalDeviceLimits limits = cx.physicalDeviceProperties.limits();
+
+        long alignment = Float.BYTES;
+        if (options.usage.contains(Buffer.Usage.STORAGE_BUFFER)) {
+            alignment = Math.max(alignment, limits.minStorageBufferOffsetAlignment());
+        }
+        if (options.usage.contains(Buffer.Usage.UNIFORM_BUFFER)) {
+            alignment = Math.max(alignment, limits.minUniformBufferOffsetAlignment());
+        }
+        if ((options.mapped && !options.coherent) || options.directUpload) {
+            alignment = Math.max(alignment, limits.nonCoherentAtomSize());
+        }
+        return alignment;
+    }
+
+    @Override
+    public void close() {
+        buffer.close();
+    }
+
+    private BufferArena(Buffer buffer, List<Buffer> slices) {
+        this.buffer = buffer;
+        this.slices = slices;
+    }
+
+    /// Vulkan 规定这些对齐要求都是 2 的幂
+    private static long alignUp(long value, long alignment) {
+        return (value + alignment - 1) & -alignment;
+    }
+}
@@ -0,0 +1,698 @@
+package club.doki7.rkt.vk.resc;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.rkt.exc.VulkanException;
+import club.doki7.rkt.vk.RenderContext;
+import club.doki7.rkt.vk.cmd.CommandBuffer;
+import club.doki7.rkt.vk.cmd.CommandPool;
+import club.doki7.rkt.vk.cmd.SubmitInfo;
+import club.doki7.rkt.vk.common.QueueFamily;
+import club.doki7.rkt.vk.sync.DeviceFuture;
+import club.doki7.rkt.vk.sync.Fence;
+import club.doki7.rkt.vk.sync.SemaphoreVK;
+import club.doki7.vulkan.bitmask.VkAccessFlags;
+import club.doki7.vulkan.bitmask.VkCommandBufferUsageFlags;
+import club.doki7.vulkan.bitmask.VkCommandPoolCreateFlags;
+import club.doki7.vulkan.bitmask.VkPipelineStageFlags;
+import club.doki7.vulkan.datatype.VkBufferCopy;
+import club.doki7.vulkan.datatype.VkBufferMemoryBarrier;
+import club.doki7.vulkan.datatype.VkCommandBufferBeginInfo;
+import club.doki7.vulkan.enumtype.VkCommandBufferLevel;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.handle.VkBuffer;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/// 持久映射的暂存环形缓冲，通过 {@link RenderContext#stagingRing} 访问。
+///
+/// 上传数据时先从环中划出一段空间，将数据复制进去，再将复制命令记录到批次的命令缓冲中。同一个
+/// {@link Batch} 中的所有复制命令一起提交，提交完成之后对应的空间和命令缓冲会被回收。数据比环中的空闲空间大时，
+/// 会被拆分成多段依次上传，因此上传任意大小的数据都不需要额外创建暂存缓冲。
+///
+/// 有专用传输队列时，复制命令在传输队列上执行，可以与计算队列上的工作重叠。这时独占的目标缓冲在复制之后
+/// 被释放给使用上传数据的队列族，再由该队列族上的一次提交获取所有权；以 {@link Buffer.Options#shared}
+/// 创建的缓冲不需要转移所有权
+public final class StagingRing implements AutoCloseable {
+    public final long capacity;
+
+    public static StagingRing create(RenderContext cx, long capacity) throws VulkanException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("暂存环形缓冲的大小必须为正数");
+        }
+
+        Buffer.OptionsInit optionsInit = Buffer.OptionsInit.stagingBufferPreset();
+        optionsInit.usage = Set.of(Buffer.Usage.TRANSFER_SRC);
+        optionsInit.coherent = true;
+        optionsInit.tag = Buffer.TAG_STAGING;
+        Buffer stagingBuffer = Buffer.create(cx, alignUp(capacity), false, optionsInit.build());
+        return new StagingRing(cx, stagingBuffer);
+    }
+
+    /// 一批上传。批次只能由一个线程使用，通过 {@link #submit()} 提交；未提交的批次在 {@link #close()} 时被提交
+    public final class Batch implements AutoCloseable {
+        /// 使用上传数据的队列族
+        public final QueueFamily queueFamily;
+        /// 执行复制命令的队列族。有专用传输队列时为 {@link QueueFamily#TRANSFER}，否则与 {@link #queueFamily} 相同
+        public final QueueFamily copyQueueFamily;
+
+        public void upload(Buffer dst, MemorySegment data) throws VulkanException {
+            upload(dst, 0, data);
+        }
+
+        /// 将 `data` 复制到 `dst` 中从 `dstOffset` 开始的位置，`dstOffset` 相对于 `dst` 自身的起始位置。
+        ///
+        /// 如果 `dst` 可以直接写入（见 {@link Buffer#directlyWritable}），数据在此方法返回前就已经写入，
+        /// 不经过暂存环，也不占用批次中的复制命令
+        public void upload(Buffer dst, long dstOffset, MemorySegment data) throws VulkanException {
+            if (submitted) {
+                throw new IllegalStateException("批次已经被提交");
+            }
+            if (dstOffset < 0 || dstOffset + data.byteSize() > dst.size) {
+                throw new IllegalArgumentException("上传的数据超出目标缓冲的范围");
+            }
+
+            if (dst.directlyWritable) {
+                MemorySegment.copy(data, 0, dst.mapped, dstOffset, data.byteSize());
+                if (dst.nonCoherent) {
+                    dst.flush(cx, dstOffset, data.byteSize());
+                }
+                return;
+            }
+
+            long total = data.byteSize();
+            long copied = 0;
+            while (copied < total) {
+                Submission submission = reserve(this, total - copied);
+                long srcOffset = submission.lastStart;
+                long size = submission.lastSize;
+                MemorySegment.copy(data, copied, stagingBuffer.mapped, srcOffset, size);
+                addCopy(dst, srcOffset, dst.offset + dstOffset + copied, size);
+                copied += size;
+            }
+
+            synchronized (StagingRing.this) {
+                uploadedBytes += total;
+            }
+        }
+
+        /// 提交批次中记录的所有复制命令。返回的句柄完成时，批次中的所有上传都已经完成
+        public DeviceFuture submit() throws VulkanException {
+            beginSubmit();
+            if (current == null) {
+                return DeviceFuture.completed();
+            }
+            return submitCurrent().future;
+        }
+
+        /// 与 {@link #submit()} 相同，但在启用了时间线信号量时，返回的凭据中带有提交完成时触发的时间线信号量，
+        /// 之后的设备提交可以等待它，而不必由主机阻塞等待上传完成。信号量由 {@link #queueFamily} 上的最后一次提交触发，
+        /// 因此等待它的提交也能看到缓冲所有权的获取。
+        ///
+        /// {@link club.doki7.rkt.vk.RenderConfig#enableTimelineSemaphore} 默认关闭，这时凭据不带信号量，
+        /// 等待它的提交退回到由主机等待上传完成，上传与计算不能在设备上重叠
+        public UploadTicket submitAsync() throws VulkanException {
+            beginSubmit();
+            if (current == null) {
+                return UploadTicket.completed();
+            }
+            return submitCurrent();
+        }
+
+        @Override
+        public void close() {
+            if (submitted) {
+                return;
+            }
+
+            submitted = true;
+            if (current != null) {
+                try {
+                    submitCurrent();
+                } catch (VulkanException e) {
+                    logger.warning("提交未完成的上传批次失败: " + e.getMessage());
+                }
+            }
+        }
+
+        private Batch(QueueFamily queueFamily) {
+            this.queueFamily = queueFamily;
+            this.copyQueueFamily = copyQueueFamilyFor(queueFamily);
+            this.splitFutureList = new ArrayList<>();
+        }
+
+        private void beginSubmit() throws VulkanException {
+            if (submitted) {
+                throw new IllegalStateException("批次已经被提交");
+            }
+            submitted = true;
+
+            // 环中空间不足时批次会被提前拆分提交，这些提交可能落在同一队列族的不同队列上，因此先等待它们完成
+            for (DeviceFuture future : splitFutureList) {
+                future.await();
+            }
+            splitFutureList.clear();
+        }
+
+        /// 连续写入同一个 Vulkan 缓冲（例如同一个 {@link BufferArena} 中的子缓冲）的复制被合并成一条带有多个区域的复制命令
+        private void addCopy(Buffer dst, long srcOffset, long dstOffset, long size) {
+            if (pendingCopyDst != null && !pendingCopyDst.equals(dst.handle)) {
+                recordPendingCopies();
+            }
+
+            if ((pendingCopyCount + 1) * 3 > pendingCopies.length) {
+                pendingCopies = Arrays.copyOf(pendingCopies, pendingCopies.length * 2);
+            }
+            pendingCopies[pendingCopyCount * 3] = srcOffset;
+            pendingCopies[pendingCopyCount * 3 + 1] = dstOffset;
+            pendingCopies[pendingCopyCount * 3 + 2] = size;
+            pendingCopyCount++;
+            pendingCopyDst = dst.handle;
+
+            assert current != null;
+            if (current.recorder.acquireCmdBuf != null
+                && !dst.options.shared
+                && !current.ownershipTargets.contains(dst)) {
+                current.ownershipTargets.add(dst);
+            }
+        }
+
+        private void recordPendingCopies() {
+            if (pendingCopyCount == 0) {
+                return;
+            }
+
+            assert current != null && pendingCopyDst != null;
+            try (Arena arena = Arena.ofConfined()) {
+                VkBufferCopy.Ptr regions = VkBufferCopy.allocate(arena, pendingCopyCount);
+                for (int i = 0; i < pendingCopyCount; i++) {
+                    regions.at(i)
+                            .srcOffset(pendingCopies[i * 3])
+                            .dstOffset(pendingCopies[i * 3 + 1])
+                            .size(pendingCopies[i * 3 + 2]);
+                }
+                cx.dCmd.cmdCopyBuffer(
+                        current.recorder.cmdBuf.handle,
+                        stagingBuffer.handle,
+                        pendingCopyDst,
+                        pendingCopyCount,
+                        regions
+                );
+            }
+            pendingCopyCount = 0;
+            pendingCopyDst = null;
+        }
+
+        /// 在复制命令之后释放独占缓冲的所有权，并在使用上传数据的队列族上获取它
+        private void recordOwnershipTransfer(Submission submission) throws VulkanException {
+            Recorder recorder = submission.recorder;
+            assert recorder.acquireCmdBuf != null;
+
+            List<Buffer> targets = submission.ownershipTargets;
+            if (!targets.isEmpty()) {
+                int srcQueueFamilyIndex = cx.getQueueFamilyIndex(copyQueueFamily);
+                int dstQueueFamilyIndex = cx.getQueueFamilyIndex(queueFamily);
+                try (Arena arena = Arena.ofConfined()) {
+                    VkBufferMemoryBarrier.Ptr releaseBarriers = VkBufferMemoryBarrier.allocate(arena, targets.size());
+                    VkBufferMemoryBarrier.Ptr acquireBarriers = VkBufferMemoryBarrier.allocate(arena, targets.size());
+                    for (int i = 0; i < targets.size(); i++) {
+                        Buffer target = targets.get(i);
+                        releaseBarriers.at(i)
+                                .srcAccessMask(VkAccessFlags.TRANSFER_WRITE)
+                                .dstAccessMask(0)
+                                .srcQueueFamilyIndex(srcQueueFamilyIndex)
+                                .dstQueueFamilyIndex(dstQueueFamilyIndex)
+                                .buffer(target.handle)
+                                .offset(target.offset)
+                                .size(target.size);
+                        acquireBarriers.at(i)
+                                .srcAccessMask(0)
+                                .dstAccessMask(VkAccessFlags.MEMORY_READ | VkAccessFlags.MEMORY_WRITE)
+                                .srcQueueFamilyIndex(srcQueueFamilyIndex)
+                                .dstQueueFamilyIndex(dstQueueFamilyIndex)
+                                .buffer(target.handle)
+                                .offset(target.offset)
+                                .size(target.size);
+                    }
+                    cx.dCmd.cmdPipelineBarrier(
+                            recorder.cmdBuf.handle,
+                            VkPipelineStageFlags.TRANSFER,
+                            VkPipelineStageFlags.ALL_COMMANDS,
+                            0x0,
+                            0, null,
+                            targets.size(), releaseBarriers,
+                            0, null
+                    );
+                    cx.dCmd.cmdPipelineBarrier(
+                            recorder.acquireCmdBuf.handle,
+                            VkPipelineStageFlags.TRANSFER,
+                            VkPipelineStageFlags.ALL_COMMANDS,
+                            0x0,
+                            0, null,
+                            targets.size(), acquireBarriers,
+                            0, null
+                    );
+                }
+                targets.clear();
+            }
+
+            @EnumType(VkResult.class) int result = cx.dCmd.endCommandBuffer(recorder.acquireCmdBuf.handle);
+            if (result != VkResult.SUCCESS) {
+                throw new VulkanException(result, "无法录制获取缓冲所有权所需的命令缓冲");
+            }
+        }
+
+        /// 录制器的 `submitInfo` 是提交到 {@link #queueFamily} 的最后一次提交。复制命令在传输队列上执行时，
+        /// 复制命令先被提交到传输队列，`submitInfo` 等待它完成之后获取缓冲的所有权。
+        ///
+        /// 录制器带有时间线信号量时，`submitInfo` 触发它，返回的句柄以时间线信号量实现，不占用栅栏
+        private UploadTicket submitCurrent() throws VulkanException {
+            recordPendingCopies();
+
+            Submission submission = current;
+            assert submission != null;
+            current = null;
+
+            Recorder recorder = submission.recorder;
+            boolean copySubmitted = false;
+            UploadTicket ticket;
+            try {
+                if (recorder.acquireCmdBuf != null) {
+                    recordOwnershipTransfer(submission);
+                }
+
+                @EnumType(VkResult.class) int result = cx.dCmd.endCommandBuffer(recorder.cmdBuf.handle);
+                if (result != VkResult.SUCCESS) {
+                    throw new VulkanException(result, "无法录制上传数据所需的命令缓冲");
+                }
+
+                if (recorder.acquireCmdBuf != null) {
+                    cx.submit(recorder.copySubmitInfo, null, copyQueueFamily);
+                    copySubmitted = true;
+                }
+
+                if (recorder.timeline != null) {
+                    // 同一个录制器在上一次提交完成之前不会被复用，因此它的时间线信号量的触发值总是按提交顺序递增。
+                    // 提交失败时跳过的值不会被任何人等待
+                    long value = ++recorder.timelineValue;
+                    recorder.submitInfo.setSignalValue(0, value);
+                    cx.submit(recorder.submitInfo, null, queueFamily);
+                    ticket = new UploadTicket(new DeviceFuture(cx, recorder.timeline, value), recorder.timeline, value);
+                } else {
+                    Fence fence = cx.fencePool.acquire();
+                    try {
+                        cx.submit(recorder.submitInfo, fence, queueFamily);
+                    } catch (VulkanException e) {
+                        cx.fencePool.release(fence);
+                        throw e;
+                    }
+                    ticket = new UploadTicket(new DeviceFuture(cx, cx.fencePool, fence), null, 0);
+                }
+            } catch (VulkanException e) {
+                if (copySubmitted) {
+                    // 获取所有权的提交失败时，复制提交已经触发的二元信号量不会再被等待，录制器不能再被复用
+                    recorder.discarded = true;
+                }
+                // 提交失败的命令不会被执行，对应的空间可以直接回收
+                markSubmitted(submission, DeviceFuture.completed());
+                throw e;
+            }
+
+            markSubmitted(submission, ticket.future);
+            return ticket;
+        }
+
+        private final List<DeviceFuture> splitFutureList;
+        private @Nullable Submission current;
+        private boolean submitted;
+
+        /// 尚未记录到命令缓冲中的复制区域，每个区域依次占用 `srcOffset`、`dstOffset`、`size` 三个元素
+        private long[] pendingCopies = new long[3 * 8];
+        private int pendingCopyCount;
+        private @Nullable VkBuffer pendingCopyDst;
+    }
+
+    /// 开始一批上传，`queueFamily` 是之后使用上传数据的队列族
+    public Batch begin(QueueFamily queueFamily) {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("暂存环形缓冲已经被关闭");
+            }
+        }
+        return new Batch(queueFamily);
+    }
+
+    /// 通过暂存环形缓冲上传的总字节数
+    public synchronized long uploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /// 因为环中没有空闲空间而不得不等待先前的上传完成的次数
+    public synchronized long stallCount() {
+        return stallCount;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                retireCompleted();
+            } catch (VulkanException e) {
+                logger.warning("回收暂存环形缓冲空间失败: " + e.getMessage());
+            }
+            if (!regionQueue.isEmpty()) {
+                logger.warning("关闭暂存环形缓冲时仍有 " + regionQueue.size() + " 段空间未被回收");
+            }
+        }
+
+        for (Recorder recorder : recorderList) {
+            recorder.cmdPool.close();
+            if (recorder.acquireCmdPool != null) {
+                recorder.acquireCmdPool.close();
+            }
+            if (recorder.handoff != null) {
+                recorder.handoff.close();
+            }
+            if (recorder.timeline != null) {
+                recorder.timeline.close();
+            }
+        }
+        stagingBuffer.close();
+        logger.info("暂存环形缓冲已关闭, 共上传 " + uploadedBytes + " 字节, 等待 " + stallCount + " 次");
+    }
+
+    private StagingRing(RenderContext cx, Buffer stagingBuffer) {
+        this.capacity = stagingBuffer.size;
+        this.cx = cx;
+        this.stagingBuffer = stagingBuffer;
+        this.regionQueue = new ArrayDeque<>();
+        this.freeRecorders = new EnumMap<>(QueueFamily.class);
+        this.recorderList = new ArrayList<>();
+    }
+
+    /// 为批次划出一段最多 `want` 字节的连续空间，记录在返回的提交的 `lastStart` 与 `lastSize` 中。
+    ///
+    /// 环中没有空闲空间时，先提交批次自己已经记录的命令，再等待最早的一段空间被释放
+    private Submission reserve(Batch batch, long want) throws VulkanException {
+        while (true) {
+            Submission oldest;
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("暂存环形缓冲已经被关闭");
+                }
+
+                retireCompleted();
+                Region region = tryReserve(want);
+                if (region != null) {
+                    if (batch.current == null) {
+                        batch.current = new Submission(acquireRecorder(batch.queueFamily));
+                    }
+                    Submission submission = batch.current;
+                    region.submission = submission;
+                    submission.regionCount++;
+                    submission.lastStart = region.start;
+                    submission.lastSize = Math.min(want, region.end - region.start);
+                    regionQueue.addLast(region);
+                    return submission;
+                }
+
+                stallCount++;
+                assert !regionQueue.isEmpty();
+                oldest = regionQueue.peekFirst().submission;
+            }
+
+            if (batch.current != null) {
+                batch.splitFutureList.add(batch.submitCurrent().future);
+            }
+
+            DeviceFuture future;
+            synchronized (this) {
+                // 最早的一段空间可能属于另一个线程中尚未提交的批次
+                while (oldest.future == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("等待暂存环形缓冲空间时被中断", e);
+                    }
+                }
+                future = oldest.future;
+            }
+            future.await();
+        }
+    }
+
+    /// 必须在持有锁时调用
+    private @Nullable Region tryReserve(long want) {
+        long start;
+        long available;
+        if (regionQueue.isEmpty()) {
+            head = 0;
+            start = 0;
+            available = capacity;
+        } else {
+            long tail = regionQueue.peekFirst().start;
+            if (head > tail) {
+                long atEnd = capacity - head;
+                // 末尾剩下的空间太小时直接绕回开头，避免把数据拆成许多很小的复制命令
+                if (atEnd >= Math.min(want, MIN_CHUNK_SIZE) || tail == 0) {
+                    start = head;
+                    available = atEnd;
+                } else {
+                    start = 0;
+                    available = tail;
+                }
+            } else if (head < tail) {
+                start = head;
+                available = tail - head;
+            } else {
+                return null;
+            }
+        }
+
+        if (available <= 0) {
+            return null;
+        }
+
+        long size = Math.min(want, available);
+        // 环的容量和每段空间的起点都是对齐的，因此对齐后的终点不会越过下一段空间的起点
+        long end = alignUp(start + size);
+        head = end;
+        return new Region(start, end);
+    }
+
+    /// 必须在持有锁时调用，按顺序回收已经完成的提交所占用的空间
+    private void retireCompleted() throws VulkanException {
+        while (!regionQueue.isEmpty()) {
+            Region first = regionQueue.peekFirst();
+            Submission submission = first.submission;
+            assert submission != null;
+            if (submission.future == null || !submission.future.isDone()) {
+                break;
+            }
+
+            regionQueue.removeFirst();
+            submission.regionCount--;
+            if (submission.regionCount == 0) {
+                releaseRecorder(submission.recorder);
+            }
+        }
+
+        if (regionQueue.isEmpty()) {
+            head = 0;
+        }
+    }
+
+    private QueueFamily copyQueueFamilyFor(QueueFamily queueFamily) {
+        if (cx.hasTransferQueue()
+            && cx.getQueueFamilyIndex(QueueFamily.TRANSFER) != cx.getQueueFamilyIndex(queueFamily)) {
+            return QueueFamily.TRANSFER;
+        }
+        return queueFamily;
+    }
+
+    /// 必须在持有锁时调用。录制器按使用上传数据的队列族区分
+    private Recorder acquireRecorder(QueueFamily queueFamily) throws VulkanException {
+        ArrayDeque<Recorder> free = freeRecorders.computeIfAbsent(queueFamily, _ -> new ArrayDeque<>());
+        Recorder recorder = free.poll();
+        if (recorder == null) {
+            QueueFamily copyQueueFamily = copyQueueFamilyFor(queueFamily);
+            CommandPool cmdPool = CommandPool.create(
+                    cx,
+                    VkCommandPoolCreateFlags.TRANSIENT,
+                    cx.getQueueFamilyIndex(copyQueueFamily)
+            );
+            CommandBuffer cmdBuf = cmdPool.allocCmdBuf(cx, VkCommandBufferLevel.PRIMARY);
+
+            CommandPool acquireCmdPool = null;
+            CommandBuffer acquireCmdBuf = null;
+            SemaphoreVK handoff = null;
+            if (copyQueueFamily != queueFamily) {
+                acquireCmdPool = CommandPool.create(
+                        cx,
+                        VkCommandPoolCreateFlags.TRANSIENT,
+                        cx.getQueueFamilyIndex(queueFamily)
+                );
+                acquireCmdBuf = acquireCmdPool.allocCmdBuf(cx, VkCommandBufferLevel.PRIMARY);
+                handoff = SemaphoreVK.create(cx);
+            }
+
+            SemaphoreVK timeline = cx.timelineSemaphoreEnabled
+                    ? SemaphoreVK.createTimeline(cx, 0)
+                    : null;
+            recorder = new Recorder(queueFamily, cmdPool, cmdBuf, acquireCmdPool, acquireCmdBuf, handoff, timeline);
+            recorderList.add(recorder);
+        }
+
+        @EnumType(VkResult.class) int result = cx.dCmd.beginCommandBuffer(recorder.cmdBuf.handle, beginInfo);
+        if (result == VkResult.SUCCESS && recorder.acquireCmdBuf != null) {
+            result = cx.dCmd.beginCommandBuffer(recorder.acquireCmdBuf.handle, beginInfo);
+        }
+        if (result != VkResult.SUCCESS) {
+            free.push(recorder);
+            throw new VulkanException(result, "无法开始录制上传数据所需的命令缓冲");
+        }
+        return recorder;
+    }
+
+    /// 必须在持有锁时调用
+    private void releaseRecorder(Recorder recorder) throws VulkanException {
+        if (recorder.discarded) {
+            return;
+        }
+
+        @EnumType(VkResult.class) int result = cx.dCmd.resetCommandPool(cx.device, recorder.cmdPool.handle, 0);
+        if (result == VkResult.SUCCESS && recorder.acquireCmdPool != null) {
+            result = cx.dCmd.resetCommandPool(cx.device, recorder.acquireCmdPool.handle, 0);
+        }
+        if (result != VkResult.SUCCESS) {
+            throw new VulkanException(result, "无法重置上传数据所用的命令池");
+        }
+        freeRecorders.computeIfAbsent(recorder.queueFamily, _ -> new ArrayDeque<>()).push(recorder);
+    }
+
+    private synchronized void markSubmitted(Submission submission, DeviceFuture future) {
+        submission.future = future;
+        notifyAll();
+    }
+
+    private static long alignUp(long value) {
+        return (value + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    private static final class Recorder {
+        /// 使用上传数据的队列族
+        final QueueFamily queueFamily;
+        /// 记录复制命令的命令池和命令缓冲，属于执行复制命令的队列族
+        final CommandPool cmdPool;
+        final CommandBuffer cmdBuf;
+        /// 复制命令在传输队列上执行时，在 {@link #queueFamily} 上获取缓冲所有权的命令池和命令缓冲，否则为 `null`
+        final @Nullable CommandPool acquireCmdPool;
+        final @Nullable CommandBuffer acquireCmdBuf;
+        /// 复制提交完成时触发、由获取所有权的提交等待的二元信号量，不需要转移所有权时为 `null`
+        final @Nullable SemaphoreVK handoff;
+        /// 提交到执行复制命令的队列族的提交，不需要转移所有权时不被使用
+        final SubmitInfo copySubmitInfo;
+        /// 提交到 {@link #queueFamily} 的最后一次提交，带有时间线信号量时触发它，触发值在每次提交前原地修改
+        final SubmitInfo submitInfo;
+        /// 提交完成时触发的时间线信号量，未启用时间线信号量时为 `null`，这时改用栅栏
+        final @Nullable SemaphoreVK timeline;
+        /// 只由持有本录制器的批次访问
+        long timelineValue;
+        /// 提交失败而不能再被复用的录制器
+        boolean discarded;
+
+        Recorder(
+                QueueFamily queueFamily,
+                CommandPool cmdPool,
+                CommandBuffer cmdBuf,
+                @Nullable CommandPool acquireCmdPool,
+                @Nullable CommandBuffer acquireCmdBuf,
+                @Nullable SemaphoreVK handoff,
+                @Nullable SemaphoreVK timeline
+        ) {
+            this.queueFamily = queueFamily;
+            this.cmdPool = cmdPool;
+            this.cmdBuf = cmdBuf;
+            this.acquireCmdPool = acquireCmdPool;
+            this.acquireCmdBuf = acquireCmdBuf;
+            this.handoff = handoff;
+            List<SemaphoreVK> signalSemaphores = timeline != null ? List.of(timeline) : List.of();
+            List<Long> signalValues = timeline != null ? List.of(0L) : List.of();
+            if (acquireCmdBuf != null && handoff != null) {
+                this.copySubmitInfo = new SubmitInfo(List.of(cmdBuf), List.of(), List.of(), List.of(handoff));
+                this.submitInfo = new SubmitInfo(
+                        List.of(acquireCmdBuf),
+                        List.of(handoff),
+                        List.of(VkPipelineStageFlags.TRANSFER),
+                        timeline != null ? List.of(0L) : List.of(),
+                        signalSemaphores,
+                        signalValues
+                );
+            } else {
+                this.submitInfo = new SubmitInfo(List.of(cmdBuf), List.of(), List.of(), List.of(), signalSemaphores, signalValues);
+                this.copySubmitInfo = this.submitInfo;
+            }
+            this.timeline = timeline;
+        }
+    }
+
+    /// 一次提交，以及它在环中占用的空间段数
+    private static final class Submission {
+        final Recorder recorder;
+        /// 需要在复制之后转移所有权的独占缓冲
+        final List<Buffer> ownershipTargets;
+        @Nullable DeviceFuture future;
+        int regionCount;
+        long lastStart;
+        long lastSize;
+
+        Submission(Recorder recorder) {
+            this.recorder = recorder;
+            this.ownershipTargets = new ArrayList<>();
+        }
+    }
+
+    /// 环中的一段空间 `[start, end)`
+    private static final class Region {
+        final long start;
+        final long end;
+        @Nullable Submission submission;
+
+        Region(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private final RenderContext cx;
+    private final Buffer stagingBuffer;
+    /// 按划出的顺序排列的空间，都由本对象的锁保护
+    private final ArrayDeque<Region> regionQueue;
+    private final EnumMap<QueueFamily, ArrayDeque<Recorder>> freeRecorders;
+    private final List<Recorder> recorderList;
+    private long head;
+    private long uploadedBytes;
+    private long stallCount;
+    private boolean closed;
+
+    private static final long ALIGNMENT = 16;
+    private static final long MIN_CHUNK_SIZE = 64 * 1024;
+    private static final VkCommandBufferBeginInfo beginInfo =
+            VkCommandBufferBeginInfo.allocate(Arena.global())
+                    .flags(VkCommandBufferUsageFlags.ONE_TIME_SUBMIT);
+    private static final Logger logger = Logger.getLogger(StagingRing.class.getName());
+}
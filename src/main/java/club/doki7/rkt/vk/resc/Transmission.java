@@ -1,172 +1,123 @@
 package club.doki7.rkt.vk.resc;
 
-import club.doki7.ffm.annotation.Bitmask;
 import club.doki7.rkt.exc.VulkanException;
 import club.doki7.rkt.vk.RenderContext;
-import club.doki7.rkt.vk.cmd.CommandBuffer;
-import club.doki7.rkt.vk.cmd.CommandPool;
-import club.doki7.rkt.vk.cmd.SubmitInfo;
 import club.doki7.rkt.vk.common.QueueFamily;
-import club.doki7.rkt.vk.sync.Fence;
-import club.doki7.rkt.vk.sync.SemaphoreVK;
-import club.doki7.vulkan.bitmask.VkAccessFlags;
-import club.doki7.vulkan.bitmask.VkCommandBufferUsageFlags;
-import club.doki7.vulkan.bitmask.VkCommandPoolCreateFlags;
-import club.doki7.vulkan.bitmask.VkPipelineStageFlags;
-import club.doki7.vulkan.datatype.VkBufferCopy;
-import club.doki7.vulkan.datatype.VkBufferMemoryBarrier;
-import club.doki7.vulkan.datatype.VkCommandBufferBeginInfo;
-import club.doki7.vulkan.enumtype.VkCommandBufferLevel;
 
-import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
 import java.util.List;
 
 public final class Transmission {
+    /// 一项上传：将 `data` 复制到 `buffer` 中从 `dstOffset` 开始的位置，`dstOffset` 相对于 `buffer` 自身的起始位置
+    public static final class UploadJob {
+        public final Buffer buffer;
+        public final MemorySegment data;
+        public final long dstOffset;
+
+        public UploadJob(Buffer buffer, MemorySegment data) {
+            this(buffer, data, 0);
+        }
+
+        public UploadJob(Buffer buffer, MemorySegment data, long dstOffset) {
+            this.buffer = buffer;
+            this.data = data;
+            this.dstOffset = dstOffset;
+        }
+    }
+
+    /// 将数据上传到缓冲。可以直接写入的缓冲（见 {@link Buffer#directlyWritable}）由主机直接写入；
+    /// 其余的缓冲经由 {@link RenderContext#stagingRing} 上传。有专用传输队列时复制命令在传输队列上执行，
+    /// 独占的缓冲随后被转移给 `bufferAffinity` 指定的队列族，见 {@link StagingRing}
     public static void uploadBuffer(
             RenderContext cx,
             Buffer buffer,
             MemorySegment rawData,
             QueueFamily bufferAffinity
     ) throws VulkanException {
-        if (buffer.options.mapped) {
+        uploadBufferAsync(cx, buffer, rawData, bufferAffinity).await();
+    }
+
+    /// 与 {@link #uploadBuffer} 相同，但不等待上传完成。之后使用该缓冲的设备提交应当等待返回的凭据，
+    /// 见 {@link UploadTicket}；在此之前 `rawData` 可以被立即复用，数据已经被复制到暂存环中。
+    ///
+    /// 只有启用了时间线信号量时凭据才携带信号量，而 {@link club.doki7.rkt.vk.RenderConfig#enableTimelineSemaphore}
+    /// 默认为 `false`，这时等待凭据的提交会先在主机上等待上传完成，上传与计算不会在设备上重叠
+    public static UploadTicket uploadBufferAsync(
+            RenderContext cx,
+            Buffer buffer,
+            MemorySegment rawData,
+            QueueFamily bufferAffinity
+    ) throws VulkanException {
+        if (buffer.directlyWritable) {
             buffer.mapped.copyFrom(rawData);
-            if (!buffer.options.coherent) {
-                buffer.flush(cx);
+            if (buffer.nonCoherent) {
+                buffer.flush(cx, 0, rawData.byteSize());
             }
-            return;
+            return UploadTicket.completed();
         }
 
-        Buffer.Options stagingOptions = Buffer.OptionsInit.stagingBufferPreset().build();
-
-        try (Buffer stagingBuffer = Buffer.create(cx, buffer.size, true, stagingOptions);
-             Fence fence = Fence.createLocal(cx)) {
-            stagingBuffer.mapped.copyFrom(rawData);
-
-            if (cx.hasTransferQueue()) {
-                if (buffer.options.shared || bufferAffinity == QueueFamily.TRANSFER) {
-                    uploadBufferWithSpecificQueue(cx, buffer, stagingBuffer, QueueFamily.TRANSFER, fence);
-                } else {
-                    uploadBufferWithTransferQueue(cx, buffer, stagingBuffer, bufferAffinity, fence);
-                }
-            } else {
-                uploadBufferWithSpecificQueue(cx, buffer, stagingBuffer, bufferAffinity, fence);
-            }
+        try (StagingRing.Batch batch = cx.stagingRing.begin(bufferAffinity)) {
+            batch.upload(buffer, rawData);
+            return batch.submitAsync();
         }
     }
 
-    private static void uploadBufferWithTransferQueue(
+    /// 一次上传多个缓冲。与逐个调用 {@link #uploadBuffer} 不同，所有上传都被记录到同一个批次中，
+    /// 只提交一次，并且连续写入同一个 Vulkan 缓冲的复制会被合并成一条复制命令
+    public static void uploadBuffers(
             RenderContext cx,
-            Buffer buffer,
-            Buffer stagingBuffer,
-            QueueFamily bufferAffinity,
-            Fence fence
+            List<UploadJob> jobs,
+            QueueFamily bufferAffinity
     ) throws VulkanException {
-        int queueIndex = cx.getQueueFamilyIndex(QueueFamily.TRANSFER);
-        int affinityQueueIndex = cx.getQueueFamilyIndex(bufferAffinity);
-
-        @Bitmask(VkCommandPoolCreateFlags.class) int poolFlags = VkCommandPoolCreateFlags.TRANSIENT;
+        uploadBuffersAsync(cx, jobs, bufferAffinity).await();
+    }
 
-        try (Arena arena = Arena.ofConfined();
-             CommandPool transferCmdPool = CommandPool.createLocal(cx, poolFlags, queueIndex);
-             CommandPool affinityCmdPool = CommandPool.createLocal(cx, poolFlags, affinityQueueIndex);
-             SemaphoreVK semaphore = SemaphoreVK.createLocal(cx)) {
-            CommandBuffer transferCmdBuf = transferCmdPool.allocCmdBuf(cx, VkCommandBufferLevel.PRIMARY);
-            cx.dCmd.beginCommandBuffer(transferCmdBuf.handle, beginInfo);
-            cx.dCmd.cmdCopyBuffer(
-                    transferCmdBuf.handle,
-                    stagingBuffer.handle,
-                    buffer.handle,
-                    1,
-                    VkBufferCopy.allocate(arena).size(buffer.size)
-            );
-            VkBufferMemoryBarrier releaseBarrier = VkBufferMemoryBarrier.allocate(arena)
-                    .srcAccessMask(VkAccessFlags.TRANSFER_WRITE)
-                    .dstAccessMask(0)
-                    .srcQueueFamilyIndex(queueIndex)
-                    .dstQueueFamilyIndex(affinityQueueIndex)
-                    .buffer(buffer.handle)
-                    .size(buffer.size);
-            cx.dCmd.cmdPipelineBarrier(
-                    transferCmdBuf.handle,
-                    VkPipelineStageFlags.TRANSFER,
-                    VkPipelineStageFlags.ALL_COMMANDS,
-                    0x0,
-                    0, null,
-                    1, releaseBarrier,
-                    0, null
-            );
-            cx.dCmd.endCommandBuffer(transferCmdBuf.handle);
-            cx.submit(
-                    new SubmitInfo(List.of(transferCmdBuf), List.of(), List.of(), List.of(semaphore)),
-                    null,
-                    QueueFamily.TRANSFER
-            );
+    /// 与 {@link #uploadBuffers} 相同，但不等待上传完成。所有上传共用一个凭据，
+    /// 所有上传都由主机直接写入时返回 {@link UploadTicket#completed()}。
+    ///
+    /// 所有上传都在写入任何数据之前被检查，参数不合法时不会有任何缓冲被修改。上传中途失败时，
+    /// 已经记录的复制命令仍会被提交，此方法等待它们完成之后才抛出异常，因此调用者不必担心仍有复制在写入目标缓冲
+    public static UploadTicket uploadBuffersAsync(
+            RenderContext cx,
+            List<UploadJob> jobs,
+            QueueFamily bufferAffinity
+    ) throws VulkanException {
+        for (UploadJob job : jobs) {
+            if (job.dstOffset < 0 || job.dstOffset + job.data.byteSize() > job.buffer.size) {
+                throw new IllegalArgumentException("上传的数据超出目标缓冲的范围");
+            }
+        }
 
-            CommandBuffer affinityCmdBuf = affinityCmdPool.allocCmdBuf(cx, VkCommandBufferLevel.PRIMARY);
-            cx.dCmd.beginCommandBuffer(affinityCmdBuf.handle, beginInfo);
-            VkBufferMemoryBarrier acquireBarrier = VkBufferMemoryBarrier.allocate(arena)
-                    .srcAccessMask(0)
-                    .dstAccessMask(VkAccessFlags.MEMORY_READ | VkAccessFlags.MEMORY_WRITE)
-                    .srcQueueFamilyIndex(queueIndex)
-                    .dstQueueFamilyIndex(affinityQueueIndex)
-                    .buffer(buffer.handle)
-                    .size(buffer.size);
-            cx.dCmd.cmdPipelineBarrier(
-                    affinityCmdBuf.handle,
-                    VkPipelineStageFlags.TRANSFER,
-                    VkPipelineStageFlags.ALL_COMMANDS,
-                    0x0,
-                    0, null,
-                    1, acquireBarrier,
-                    0, null
-            );
-            cx.dCmd.endCommandBuffer(affinityCmdBuf.handle);
-            cx.submit(
-                    new SubmitInfo(
-                            List.of(affinityCmdBuf),
-                            List.of(semaphore),
-                            List.of(VkPipelineStageFlags.TRANSFER),
-                            List.of()
-                    ),
-                    fence,
-                    bufferAffinity
-            );
+        List<UploadJob> stagedJobs = new ArrayList<>();
+        for (UploadJob job : jobs) {
+            if (job.buffer.directlyWritable) {
+                MemorySegment.copy(job.data, 0, job.buffer.mapped, job.dstOffset, job.data.byteSize());
+                if (job.buffer.nonCoherent) {
+                    job.buffer.flush(cx, job.dstOffset, job.data.byteSize());
+                }
+            } else {
+                stagedJobs.add(job);
+            }
+        }
 
-            cx.waitForFence(fence);
+        if (stagedJobs.isEmpty()) {
+            return UploadTicket.completed();
         }
-    }
 
-    private static void uploadBufferWithSpecificQueue(
-            RenderContext cx,
-            Buffer buffer,
-            Buffer stagingBuffer,
-            QueueFamily bufferAffinity,
-            Fence fence
-    ) throws VulkanException {
-        int queueIndex = cx.getQueueFamilyIndex(bufferAffinity);
-        try (Arena arena = Arena.ofConfined();
-             CommandPool cmdPool = CommandPool.createLocal(cx, VkCommandPoolCreateFlags.TRANSIENT, queueIndex)) {
-            CommandBuffer cmdBuf = cmdPool.allocCmdBuf(cx, VkCommandBufferLevel.PRIMARY);
-            cx.dCmd.beginCommandBuffer(cmdBuf.handle, beginInfo);
-            cx.dCmd.cmdCopyBuffer(
-                    cmdBuf.handle,
-                    stagingBuffer.handle,
-                    buffer.handle,
-                    1,
-                    VkBufferCopy.allocate(arena).size(buffer.size)
-            );
-            cx.dCmd.endCommandBuffer(cmdBuf.handle);
-            cx.submit(
-                    new SubmitInfo(List.of(cmdBuf), List.of(), List.of(), List.of()),
-                    fence,
-                    bufferAffinity
-            );
-            cx.waitForFence(fence);
+        StagingRing.Batch batch = cx.stagingRing.begin(bufferAffinity);
+        try {
+            for (UploadJob job : stagedJobs) {
+                batch.upload(job.buffer, job.dstOffset, job.data);
+            }
+        } catch (VulkanException | RuntimeException e) {
+            try {
+                batch.submit().await();
+            } catch (VulkanException | RuntimeException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
         }
+        return batch.submitAsync();
     }
-
-    private static final VkCommandBufferBeginInfo beginInfo =
-            VkCommandBufferBeginInfo.allocate(Arena.global())
-                    .flags(VkCommandBufferUsageFlags.ONE_TIME_SUBMIT);
 }
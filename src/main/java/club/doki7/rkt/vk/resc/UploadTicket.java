@@ -0,0 +1,35 @@
+package club.doki7.rkt.vk.resc;
+
+import club.doki7.rkt.exc.VulkanException;
+import club.doki7.rkt.vk.sync.DeviceFuture;
+import club.doki7.rkt.vk.sync.SemaphoreVK;
+import org.jetbrains.annotations.Nullable;
+
+/// 异步上传的凭据，见 {@link Transmission#uploadBufferAsync} 和 {@link StagingRing.Batch#submitAsync()}。
+///
+/// 主机可以通过 {@link #future} 等待上传完成。{@link #semaphore} 不为 `null` 时，之后的设备提交也可以等待它达到
+/// {@link #value}，而主机不必阻塞。等待它的提交必须位于上传时指定的队列族上：有专用传输队列时，复制命令在传输队列上
+/// 与计算重叠执行，信号量由该队列族上获取缓冲所有权的提交触发，见 {@link StagingRing}
+public final class UploadTicket {
+    public final DeviceFuture future;
+    /// 上传完成时被触发的时间线信号量。未启用时间线信号量，或者上传没有向设备提交任何命令时为 `null`
+    public final @Nullable SemaphoreVK semaphore;
+    public final long value;
+
+    /// 已经完成的上传，用于数据被主机直接写入、不需要向设备提交任何命令的情形
+    public static UploadTicket completed() {
+        return COMPLETED;
+    }
+
+    public UploadTicket(DeviceFuture future, @Nullable SemaphoreVK semaphore, long value) {
+        this.future = future;
+        this.semaphore = semaphore;
+        this.value = value;
+    }
+
+    public void await() throws VulkanException {
+        future.await();
+    }
+
+    private static final UploadTicket COMPLETED = new UploadTicket(DeviceFuture.completed(), null, 0);
+}
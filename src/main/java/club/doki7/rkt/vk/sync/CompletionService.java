@@ -0,0 +1,286 @@
+package club.doki7.rkt.vk.sync;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.ffm.ptr.LongPtr;
+import club.doki7.rkt.exc.VulkanException;
+import club.doki7.rkt.vk.RenderContext;
+import club.doki7.vulkan.bitmask.VkSemaphoreWaitFlags;
+import club.doki7.vulkan.datatype.VkSemaphoreSignalInfo;
+import club.doki7.vulkan.datatype.VkSemaphoreWaitInfo;
+import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.handle.VkSemaphore;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.foreign.Arena;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/// 设备完成通知服务。
+///
+/// 等待设备工作的虚拟线程只需要等待服务返回的 {@link CompletableFuture}，而不会在本地调用中长时间占住载体线程。
+/// 服务中的线程总是无超时地阻塞在本地等待中，只在有事情发生时醒来：
+///
+/// - 时间线信号量由一个专门的平台线程以“任意一个完成即返回”的方式等待。同一个信号量上的所有等待项只占用一个
+///   等待位置，等待的是其中最小的计数值；服务线程同时等待一个专用的唤醒信号量，登记新的等待项时由主机触发它。
+///   醒来时每个信号量只查询一次计数值，并按计数值从小到大完成已经达到的等待项
+/// - 栅栏无法由主机触发，因此每个栅栏等待项由一个专门的平台线程阻塞等待，等待结束即完成对应的
+///   {@link CompletableFuture}，新登记的等待项不需要唤醒任何线程。启用时间线信号量时，
+///   {@link DeviceFuture} 尽可能以时间线信号量实现，栅栏只用于少数一次性的提交
+public final class CompletionService implements AutoCloseable {
+    public static CompletionService create(RenderContext cx) throws VulkanException {
+        SemaphoreVK wakeSemaphore = cx.timelineSemaphoreEnabled
+                ? SemaphoreVK.createTimelineLocal(cx, 0)
+                : null;
+        return new CompletionService(cx, wakeSemaphore);
+    }
+
+    /// 返回一个在 `fence` 被触发时完成的 {@link CompletableFuture}
+    public CompletableFuture<Void> whenSignalled(Fence fence) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            fenceExecutor.execute(() -> {
+                try {
+                    cx.waitForFence(fence);
+                    future.complete(null);
+                } catch (VulkanException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new IllegalStateException("设备完成通知服务已经关闭"));
+        }
+        return future;
+    }
+
+    /// 返回一个在时间线信号量 `semaphore` 的计数值达到 `value` 时完成的 {@link CompletableFuture}
+    public CompletableFuture<Void> whenReached(SemaphoreVK semaphore, long value) {
+        if (!semaphore.timeline) {
+            throw new IllegalArgumentException("只能等待时间线信号量的计数值");
+        }
+
+        Waiter waiter = new Waiter(semaphore, value);
+        if (pollerThread == null || !pollerThread.isAlive()) {
+            waiter.future.completeExceptionally(new IllegalStateException("设备完成通知服务已经关闭"));
+            return waiter.future;
+        }
+
+        boolean result = incoming.offer(waiter);
+        assert result;
+        wake();
+        return waiter.future;
+    }
+
+    /// 关闭服务。调用者必须保证所有登记过的栅栏都已经被提交，通常在设备空闲之后调用
+    @Override
+    public void close() {
+        if (pollerThread != null) {
+            boolean result = incoming.offer(POISON);
+            assert result;
+            wake();
+            try {
+                pollerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warning("设备完成通知线程被中断: " + e.getMessage());
+            }
+        }
+
+        fenceExecutor.shutdown();
+        try {
+            if (!fenceExecutor.awaitTermination(FENCE_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warning("关闭设备完成通知服务时仍有栅栏等待线程没有结束");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("等待栅栏等待线程结束时被中断: " + e.getMessage());
+        }
+
+        if (wakeSemaphore != null) {
+            wakeSemaphore.close();
+        }
+    }
+
+    private CompletionService(RenderContext cx, @Nullable SemaphoreVK wakeSemaphore) {
+        this.cx = cx;
+        this.wakeSemaphore = wakeSemaphore;
+        this.wakeSignalInfo = wakeSemaphore != null
+                ? VkSemaphoreSignalInfo.allocate(Arena.ofAuto()).semaphore(wakeSemaphore.handle)
+                : null;
+        this.incoming = new LinkedBlockingQueue<>();
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.fenceExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "RenderContext-Fence-Wait-" + threadCounter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // 未启用时间线信号量时不可能登记信号量等待项，不需要服务线程
+        if (wakeSemaphore != null) {
+            this.pollerThread = new Thread(this::run, "RenderContext-Completion-Thread");
+            this.pollerThread.setDaemon(true);
+            this.pollerThread.start();
+        } else {
+            this.pollerThread = null;
+        }
+    }
+
+    /// 触发唤醒信号量，使服务线程醒来接收新登记的等待项。必须在等待项放入 {@link #incoming} 之后调用
+    private void wake() {
+        if (wakeSemaphore == null) {
+            return;
+        }
+
+        assert wakeSignalInfo != null;
+        // 时间线信号量的触发值必须严格递增，因此递增与触发必须一起完成
+        synchronized (wakeSignalInfo) {
+            long value = wakeValue + 1;
+            wakeSignalInfo.value(value);
+            @EnumType(VkResult.class) int result = cx.dCmd.signalSemaphoreKHR(cx.device, wakeSignalInfo);
+            if (result != VkResult.SUCCESS) {
+                logger.warning("无法触发设备完成通知服务的唤醒信号量: " + VkResult.explain(result));
+                return;
+            }
+            wakeValue = value;
+        }
+    }
+
+    private void run() {
+        assert wakeSemaphore != null;
+        // 每个信号量上的等待项按计数值从小到大排列
+        Map<SemaphoreVK, PriorityQueue<Waiter>> active = new IdentityHashMap<>();
+        int capacity = 16;
+
+        // 本地数组只在容量不足时按倍数扩大，旧的数组在线程退出时随 arena 一起释放
+        try (Arena arena = Arena.ofConfined()) {
+            VkSemaphore.Ptr pSemaphores = VkSemaphore.Ptr.allocate(arena, capacity);
+            LongPtr pValues = LongPtr.allocate(arena, capacity);
+            LongPtr pValue = LongPtr.allocate(arena);
+            VkSemaphoreWaitInfo waitInfo = VkSemaphoreWaitInfo.allocate(arena)
+                    .flags(VkSemaphoreWaitFlags.ANY);
+
+            loop:
+            while (true) {
+                // 先读取唤醒信号量的计数值再接收新登记的等待项：在此之后登记的等待项一定会使计数值超过它
+                long observedWakeValue = wakeValue;
+                Waiter waiter;
+                while ((waiter = incoming.poll()) != null) {
+                    if (waiter == POISON) {
+                        break loop;
+                    }
+                    active.computeIfAbsent(waiter.semaphore, _ -> new PriorityQueue<>()).add(waiter);
+                }
+
+                // 多留一个位置给唤醒信号量
+                if (active.size() + 1 > capacity) {
+                    capacity = Math.max(capacity * 2, active.size() + 1);
+                    pSemaphores = VkSemaphore.Ptr.allocate(arena, capacity);
+                    pValues = LongPtr.allocate(arena, capacity);
+                }
+
+                int semaphoreCount = 0;
+                for (Map.Entry<SemaphoreVK, PriorityQueue<Waiter>> entry : active.entrySet()) {
+                    pSemaphores.write(semaphoreCount, entry.getKey().handle);
+                    pValues.write(semaphoreCount, entry.getValue().peek().value);
+                    semaphoreCount++;
+                }
+                pSemaphores.write(semaphoreCount, wakeSemaphore.handle);
+                pValues.write(semaphoreCount, observedWakeValue + 1);
+                waitInfo.semaphoreCount(semaphoreCount + 1).pSemaphores(pSemaphores).pValues(pValues);
+
+                @EnumType(VkResult.class) int result = cx.dCmd.waitSemaphoresKHR(cx.device, waitInfo, Long.MAX_VALUE);
+                if (result != VkResult.SUCCESS && result != VkResult.TIMEOUT) {
+                    VulkanException exception = new VulkanException(result, "等待设备完成失败");
+                    for (PriorityQueue<Waiter> queue : active.values()) {
+                        for (Waiter it : queue) {
+                            it.future.completeExceptionally(exception);
+                        }
+                    }
+                    active.clear();
+                    continue;
+                }
+
+                Iterator<Map.Entry<SemaphoreVK, PriorityQueue<Waiter>>> iterator = active.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<SemaphoreVK, PriorityQueue<Waiter>> entry = iterator.next();
+                    if (completeReached(entry.getKey(), entry.getValue(), pValue)) {
+                        iterator.remove();
+                    }
+                }
+            }
+
+            IllegalStateException exception = new IllegalStateException("设备完成通知服务已经关闭");
+            for (PriorityQueue<Waiter> queue : active.values()) {
+                for (Waiter it : queue) {
+                    it.future.completeExceptionally(exception);
+                }
+            }
+            Waiter waiter;
+            while ((waiter = incoming.poll()) != null) {
+                waiter.future.completeExceptionally(exception);
+            }
+        }
+        logger.info("设备完成通知线程已退出");
+    }
+
+    /// 查询一次 `semaphore` 的计数值，完成所有已经达到的等待项。队列因此变空时返回 true
+    private boolean completeReached(SemaphoreVK semaphore, PriorityQueue<Waiter> queue, LongPtr pValue) {
+        @EnumType(VkResult.class) int result = cx.dCmd.getSemaphoreCounterValueKHR(cx.device, semaphore.handle, pValue);
+        if (result != VkResult.SUCCESS) {
+            VulkanException exception = new VulkanException(result, "查询设备完成状态失败");
+            for (Waiter it : queue) {
+                it.future.completeExceptionally(exception);
+            }
+            return true;
+        }
+
+        long counterValue = pValue.read();
+        while (!queue.isEmpty() && Long.compareUnsigned(queue.peek().value, counterValue) <= 0) {
+            queue.poll().future.complete(null);
+        }
+        return queue.isEmpty();
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        final SemaphoreVK semaphore;
+        final long value;
+        final CompletableFuture<Void> future;
+
+        Waiter(SemaphoreVK semaphore, long value) {
+            this.semaphore = semaphore;
+            this.value = value;
+            this.future = new CompletableFuture<>();
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            return Long.compareUnsigned(value, other.value);
+        }
+    }
+
+    private final RenderContext cx;
+    /// 未启用时间线信号量时为 `null`，这时也不可能登记信号量等待项
+    private final @Nullable SemaphoreVK wakeSemaphore;
+    private final @Nullable VkSemaphoreSignalInfo wakeSignalInfo;
+    /// 唤醒信号量最近一次被触发的计数值，由 {@link #wakeSignalInfo} 的锁保护写入
+    private volatile long wakeValue;
+    private final BlockingQueue<Waiter> incoming;
+    private final @Nullable Thread pollerThread;
+    /// 每个栅栏等待项占用其中的一个线程，空闲的线程在一段时间后自动退出
+    private final ExecutorService fenceExecutor;
+
+    private static final long FENCE_SHUTDOWN_TIMEOUT_SECONDS = 5;
+    private static final Waiter POISON = new Waiter(null, 0);
+    private static final Logger logger = Logger.getLogger(CompletionService.class.getName());
+}
@@ -0,0 +1,195 @@
+package club.doki7.rkt.vk.sync;
+
+import club.doki7.ffm.annotation.EnumType;
+import club.doki7.rkt.exc.VulkanException;
+import club.doki7.rkt.vk.RenderContext;
+import club.doki7.vulkan.enumtype.VkResult;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+
+/// 一次设备端提交的完成句柄。
+///
+/// 句柄或者持有一个从 {@link FencePool} 中取得的栅栏，或者持有一个时间线信号量及提交完成时它将达到的计数值。
+/// 句柄可以通过 {@link #isDone()} 无阻塞地轮询，通过 {@link #await()} 阻塞等待，或者通过
+/// {@link #toCompletableFuture()} 转换为由 {@link CompletionService} 完成的 {@link CompletableFuture}。
+/// 提交完成、且没有线程仍在等待该栅栏时，栅栏会被归还到池中，之后的查询不再访问设备。
+///
+/// 启用了时间线信号量时，提交应当尽可能触发时间线信号量并使用 {@link #DeviceFuture(RenderContext, SemaphoreVK, long)}，
+/// 这样 {@link CompletionService} 可以在同一次本地等待中等待许多提交，而不必为每个栅栏占用一个线程
+public final class DeviceFuture {
+    /// 已经完成的句柄，用于不需要向设备提交任何命令的情形
+    public static DeviceFuture completed() {
+        return COMPLETED;
+    }
+
+    public DeviceFuture(RenderContext cx, FencePool pool, Fence fence) {
+        this.cx = cx;
+        this.pool = pool;
+        this.fence = fence;
+        this.timeline = null;
+        this.value = 0;
+        this.completed = false;
+    }
+
+    /// 时间线信号量 `timeline` 的计数值达到 `value` 时完成的句柄
+    public DeviceFuture(RenderContext cx, SemaphoreVK timeline, long value) {
+        if (!timeline.timeline) {
+            throw new IllegalArgumentException("只能使用时间线信号量");
+        }
+
+        this.cx = cx;
+        this.pool = null;
+        this.fence = null;
+        this.timeline = timeline;
+        this.value = value;
+        this.completed = false;
+    }
+
+    public boolean isDone() throws VulkanException {
+        synchronized (this) {
+            if (completed) {
+                return true;
+            }
+
+            assert cx != null;
+            if (timeline != null) {
+                if (Long.compareUnsigned(cx.getSemaphoreCounterValue(timeline), value) < 0) {
+                    return false;
+                }
+                completed = true;
+                return true;
+            }
+
+            assert fence != null;
+            @EnumType(VkResult.class) int result = cx.dCmd.getFenceStatus(cx.device, fence.handle);
+            switch (result) {
+                case VkResult.SUCCESS -> completed = true;
+                case VkResult.NOT_READY -> {
+                    return false;
+                }
+                default -> throw new VulkanException(result, "查询栅栏状态失败");
+            }
+        }
+
+        retireIfPossible();
+        return true;
+    }
+
+    public void await() throws VulkanException {
+        boolean nativeWait;
+        @Nullable Fence waitFence;
+        synchronized (this) {
+            if (completed) {
+                return;
+            }
+            if (completion != null || Thread.currentThread().isVirtual()) {
+                nativeWait = false;
+            } else {
+                nativeWait = true;
+                nativeWaiterCount++;
+            }
+            waitFence = fence;
+        }
+
+        assert cx != null;
+        if (!nativeWait) {
+            try {
+                toCompletableFuture().join();
+            } catch (RuntimeException e) {
+                if (e.getCause() instanceof VulkanException vulkanException) {
+                    throw vulkanException;
+                }
+                throw e;
+            }
+            return;
+        }
+
+        try {
+            if (timeline != null) {
+                cx.waitSemaphore(timeline, value);
+            } else {
+                assert waitFence != null;
+                cx.waitForFence(waitFence);
+            }
+            synchronized (this) {
+                completed = true;
+            }
+        } finally {
+            synchronized (this) {
+                nativeWaiterCount--;
+            }
+        }
+        retireIfPossible();
+    }
+
+    /// 返回一个在提交完成时完成的 {@link CompletableFuture}，多次调用返回同一个对象
+    public synchronized CompletableFuture<Void> toCompletableFuture() {
+        if (completion != null) {
+            return completion;
+        }
+        if (completed) {
+            completion = CompletableFuture.completedFuture(null);
+            return completion;
+        }
+
+        assert cx != null;
+        if (timeline != null) {
+            signalled = cx.completionService.whenReached(timeline, value);
+        } else {
+            assert fence != null;
+            signalled = cx.completionService.whenSignalled(fence);
+        }
+        completion = signalled.thenRun(() -> {
+            synchronized (this) {
+                completed = true;
+            }
+            try {
+                retireIfPossible();
+            } catch (VulkanException e) {
+                throw new IllegalStateException("无法归还栅栏", e);
+            }
+        });
+        return completion;
+    }
+
+    /// 提交已经完成，且没有线程仍在本地调用中等待该栅栏时，重置栅栏并将其归还到池中
+    private void retireIfPossible() throws VulkanException {
+        Fence retiredFence;
+        synchronized (this) {
+            if (!completed || fence == null || nativeWaiterCount != 0) {
+                return;
+            }
+            // 完成通知服务仍在等待该栅栏时不能将其重置
+            if (signalled != null && !signalled.isDone()) {
+                return;
+            }
+            retiredFence = fence;
+            fence = null;
+        }
+
+        assert pool != null;
+        pool.release(retiredFence);
+    }
+
+    private DeviceFuture() {
+        this.cx = null;
+        this.pool = null;
+        this.fence = null;
+        this.timeline = null;
+        this.value = 0;
+        this.completed = true;
+    }
+
+    private final @Nullable RenderContext cx;
+    private final @Nullable FencePool pool;
+    private @Nullable Fence fence;
+    private final @Nullable SemaphoreVK timeline;
+    private final long value;
+    private boolean completed;
+    private int nativeWaiterCount;
+    private @Nullable CompletableFuture<Void> signalled;
+    private @Nullable CompletableFuture<Void> completion;
+
+    private static final DeviceFuture COMPLETED = new DeviceFuture();
+}
@@ -0,0 +1,74 @@
+package club.doki7.rkt.vk.sync;
+
+import club.doki7.rkt.exc.VulkanException;
+import club.doki7.rkt.vk.RenderContext;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/// 可复用的栅栏池。栅栏归还时会被重置，因此从池中取得的栅栏总是处于未触发状态
+public final class FencePool implements AutoCloseable {
+    public static FencePool create(RenderContext cx) {
+        return new FencePool(cx);
+    }
+
+    public Fence acquire() throws VulkanException {
+        Fence fence = freeFences.poll();
+        if (fence == null) {
+            fence = Fence.create(cx);
+            createdCount.incrementAndGet();
+        }
+        acquiredCount.incrementAndGet();
+        inUseCount.incrementAndGet();
+        return fence;
+    }
+
+    /// 归还栅栏。栅栏先被重置再放回池中，重置失败时栅栏被销毁而不是放回池中，无论如何它都不再计入
+    /// {@link #inUseCount()}
+    public void release(Fence fence) throws VulkanException {
+        try {
+            cx.resetFence(fence);
+        } catch (VulkanException e) {
+            inUseCount.decrementAndGet();
+            fence.close();
+            throw e;
+        }
+        inUseCount.decrementAndGet();
+        freeFences.offer(fence);
+    }
+
+    /// 池创建过的栅栏总数
+    public int createdCount() {
+        return createdCount.get();
+    }
+
+    /// 栅栏被取出的总次数
+    public long acquiredCount() {
+        return acquiredCount.get();
+    }
+
+    /// 当前已被取出且尚未归还的栅栏数量
+    public int inUseCount() {
+        return inUseCount.get();
+    }
+
+    @Override
+    public void close() {
+        Fence fence;
+        while ((fence = freeFences.poll()) != null) {
+            fence.close();
+        }
+    }
+
+    private FencePool(RenderContext cx) {
+        this.cx = cx;
+        this.freeFences = new ConcurrentLinkedQueue<>();
+    }
+
+    private final RenderContext cx;
+    private final ConcurrentLinkedQueue<Fence> freeFences;
+    private final AtomicInteger createdCount = new AtomicInteger();
+    private final AtomicLong acquiredCount = new AtomicLong();
+    private final AtomicInteger inUseCount = new AtomicInteger();
+}
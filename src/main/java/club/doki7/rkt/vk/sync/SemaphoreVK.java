@@ -6,7 +6,9 @@ import club.doki7.rkt.vk.RenderContext;
 import club.doki7.ffm.annotation.EnumType;
 import club.doki7.ffm.annotation.Unsafe;
 import club.doki7.vulkan.datatype.VkSemaphoreCreateInfo;
+import club.doki7.vulkan.datatype.VkSemaphoreTypeCreateInfo;
 import club.doki7.vulkan.enumtype.VkResult;
+import club.doki7.vulkan.enumtype.VkSemaphoreType;
 import club.doki7.vulkan.handle.VkSemaphore;
 
 import java.lang.foreign.Arena;
@@ -14,6 +16,7 @@ import java.lang.ref.Cleaner;
 
 public final class SemaphoreVK implements AutoCloseable {
     public final VkSemaphore handle;
+    public final boolean timeline;
 
     public static SemaphoreVK create(RenderContext cx) throws VulkanException {
         return create(cx, false);
@@ -24,6 +27,16 @@ public final class SemaphoreVK implements AutoCloseable {
         return create(cx, true);
     }
 
+    /// 创建初始计数值为 `initialValue` 的时间线信号量，要求 {@link RenderContext#timelineSemaphoreEnabled}
+    public static SemaphoreVK createTimeline(RenderContext cx, long initialValue) throws VulkanException {
+        return createTimeline(cx, initialValue, false);
+    }
+
+    @Unsafe
+    public static SemaphoreVK createTimelineLocal(RenderContext cx, long initialValue) throws VulkanException {
+        return createTimeline(cx, initialValue, true);
+    }
+
     @Override
     public void close() {
         cleanable.clean();
@@ -37,12 +50,39 @@ public final class SemaphoreVK implements AutoCloseable {
             if (result != VkResult.SUCCESS) {
                 throw new VulkanException(result, "无法创建 Vulkan 信号量");
             }
-            return new SemaphoreVK(pSemaphore.read(), cx, local);
+            return new SemaphoreVK(pSemaphore.read(), false, cx, local);
+        }
+    }
+
+    private static SemaphoreVK createTimeline(
+            RenderContext cx,
+            long initialValue,
+            boolean local
+    ) throws VulkanException {
+        if (!cx.timelineSemaphoreEnabled) {
+            throw new IllegalStateException("未启用时间线信号量，见 RenderConfig.enableTimelineSemaphore");
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            VkSemaphoreTypeCreateInfo typeCreateInfo = VkSemaphoreTypeCreateInfo.allocate(arena)
+                    .semaphoreType(VkSemaphoreType.TIMELINE)
+                    .initialValue(initialValue);
+            VkSemaphoreCreateInfo timelineCreateInfo = VkSemaphoreCreateInfo.allocate(arena)
+                    .pNext(typeCreateInfo);
+
+            VkSemaphore.Ptr pSemaphore = VkSemaphore.Ptr.allocate(arena);
+            @EnumType(VkResult.class) int result =
+                    cx.dCmd.createSemaphore(cx.device, timelineCreateInfo, null, pSemaphore);
+            if (result != VkResult.SUCCESS) {
+                throw new VulkanException(result, "无法创建 Vulkan 时间线信号量");
+            }
+            return new SemaphoreVK(pSemaphore.read(), true, cx, local);
         }
     }
 
-    private SemaphoreVK(VkSemaphore handle, RenderContext context, boolean local) {
+    private SemaphoreVK(VkSemaphore handle, boolean timeline, RenderContext context, boolean local) {
         this.handle = handle;
+        this.timeline = timeline;
 
         IDisposeOnContext d = cx -> cx.dCmd.destroySemaphore(cx.device, handle, null);
         this.cleanable = context.registerCleanup(this, d, local);
@@ -0,0 +1,65 @@
+package club.doki7.rkt;
+
+import club.doki7.ffm.library.ILibraryLoader;
+import club.doki7.ffm.library.ISharedLibrary;
+import club.doki7.rkt.exc.RenderException;
+import club.doki7.rkt.vk.RenderConfig;
+import club.doki7.rkt.vk.RenderContext;
+import club.doki7.vulkan.command.VulkanLoader;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Assumptions;
+
+import java.util.logging.Logger;
+
+/// 测试用的无头渲染上下文。找不到 Vulkan 驱动或 VMA 动态库，或者无法创建上下文时，调用者所在的测试被跳过
+public final class TestContext implements AutoCloseable {
+    public final RenderContext cx;
+
+    public static TestContext create() {
+        return create(new RenderConfig());
+    }
+
+    public static TestContext create(RenderConfig config) {
+        ISharedLibrary libVulkan = null;
+        ISharedLibrary libVMA = null;
+        try {
+            libVulkan = VulkanLoader.loadVulkanLibrary();
+            libVMA = ILibraryLoader.platformLoader().loadLibrary("vma");
+            return new TestContext(libVulkan, libVMA, RenderContext.createHeadless(libVulkan, libVMA, config));
+        } catch (RenderException | RuntimeException | UnsatisfiedLinkError e) {
+            closeLibrary(libVMA);
+            closeLibrary(libVulkan);
+            return Assumptions.abort("没有可用的 Vulkan 环境: " + e);
+        }
+    }
+
+    @Override
+    public void close() {
+        cx.close();
+        closeLibrary(libVMA);
+        closeLibrary(libVulkan);
+    }
+
+    private TestContext(ISharedLibrary libVulkan, ISharedLibrary libVMA, RenderContext cx) {
+        this.libVulkan = libVulkan;
+        this.libVMA = libVMA;
+        this.cx = cx;
+    }
+
+    private static void closeLibrary(@Nullable ISharedLibrary library) {
+        if (library == null) {
+            return;
+        }
+
+        try {
+            library.close();
+        } catch (Exception e) {
+            logger.warning("无法卸载动态库: " + e.getMessage());
+        }
+    }
+
+    private final ISharedLibrary libVulkan;
+    private final ISharedLibrary libVMA;
+
+    private static final Logger logger = Logger.getLogger(TestContext.class.getName());
+}
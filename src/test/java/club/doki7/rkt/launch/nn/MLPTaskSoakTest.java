@@ -0,0 +1,137 @@
+package club.doki7.rkt.launch.nn;
+
+import club.doki7.rkt.TestContext;
+import club.doki7.rkt.vk.RenderContext;
+import club.doki7.rkt.vk.common.QueueFamily;
+import club.doki7.rkt.vk.resc.Buffer;
+import club.doki7.rkt.vk.resc.Transmission;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class MLPTaskSoakTest {
+    /// 反复创建、执行并关闭训练任务与推理任务，本地内存与任务占用的显存都不应随循环次数增长。
+    ///
+    /// 通过 {@link java.lang.foreign.Arena} 分配的本地内存计入 `direct` 缓冲池，描述符集等随任务创建的本地结构
+    /// 如果没有被释放，会在这里体现出来。
+    ///
+    /// 循环次数由系统属性 `rkt.soak.cycles` 控制（例如 `mvn test -Drkt.soak.cycles=2000`），默认值面向 CI 和
+    /// 每夜构建，足以让每个循环只泄漏几十字节的缓慢泄漏也超出预算
+    @Test
+    void createAndCloseKeepsMemoryFlat() throws Exception {
+        try (TestContext testContext = TestContext.create();
+             MLPFactory factory = new MLPFactory(testContext.cx);
+             MLP model = factory.createModel(OPTIONS)) {
+            RenderContext cx = testContext.cx;
+            Buffer.Options ioOptions = Buffer.OptionsInit.shaderStorageBufferPreset().build();
+            try (Buffer inputBuffer = Buffer.create(cx, (long) BATCH_SIZE * OPTIONS.inputSize * Float.BYTES, false, ioOptions);
+                 Buffer labelBuffer = Buffer.create(cx, (long) BATCH_SIZE * Integer.BYTES, false, ioOptions);
+                 Arena arena = Arena.ofConfined()) {
+                // 输入全为 0，标签全为第 0 类
+                QueueFamily affinity = cx.hasComputeQueue() ? QueueFamily.COMPUTE : QueueFamily.GRAPHICS;
+                Transmission.uploadBuffer(cx, inputBuffer, arena.allocate(inputBuffer.size), affinity);
+                Transmission.uploadBuffer(cx, labelBuffer, arena.allocate(labelBuffer.size), affinity);
+
+                runCycles(model, inputBuffer, labelBuffer, WARMUP_CYCLES);
+                settle(cx);
+                long directBefore = directMemoryUsed();
+                long taskBytesBefore = taskBytes(cx);
+
+                runCycles(model, inputBuffer, labelBuffer, SOAK_CYCLES);
+                settle(cx);
+                long directAfter = directMemoryUsed();
+                long taskBytesAfter = taskBytes(cx);
+
+                long directBudget = DIRECT_MEMORY_SLACK + (long) SOAK_CYCLES * DIRECT_MEMORY_BUDGET_PER_CYCLE;
+                assertTrue(
+                        directAfter - directBefore < directBudget,
+                        "本地内存在 " + SOAK_CYCLES + " 次循环后增长了 " + (directAfter - directBefore)
+                        + " 字节，超出预算 " + directBudget + " 字节"
+                );
+                assertEquals(taskBytesBefore, taskBytesAfter, "任务占用的显存没有回到循环开始前的水平");
+            }
+        }
+    }
+
+    @Test
+    void closedTaskRejectsBatchesAndClosesOnce() throws Exception {
+        try (TestContext testContext = TestContext.create();
+             MLPFactory factory = new MLPFactory(testContext.cx);
+             MLP model = factory.createModel(OPTIONS)) {
+            RenderContext cx = testContext.cx;
+            Buffer.Options ioOptions = Buffer.OptionsInit.shaderStorageBufferPreset().build();
+            try (Buffer inputBuffer = Buffer.create(cx, (long) BATCH_SIZE * OPTIONS.inputSize * Float.BYTES, false, ioOptions)) {
+                MLPInferTask task = new MLPInferTask(model, BATCH_SIZE, inputBuffer, true, false);
+                task.close();
+                task.close();
+                assertThrows(IllegalStateException.class, () -> task.executeBatchAsync(0));
+            }
+        }
+    }
+
+    private static void runCycles(MLP model, Buffer inputBuffer, Buffer labelBuffer, int cycles) throws Exception {
+        for (int i = 0; i < cycles; i++) {
+            try (MLPTrainTask trainTask = new MLPTrainTask(
+                    model,
+                    BATCH_SIZE,
+                    inputBuffer,
+                    labelBuffer,
+                    LossFunction.CROSS_ENTROPY
+            )) {
+                trainTask.executeBatch(0, 0.01f);
+            }
+            try (MLPInferTask inferTask = new MLPInferTask(model, BATCH_SIZE, inputBuffer, true, false)) {
+                inferTask.executeBatch(0);
+            }
+            model.cx.gc();
+        }
+    }
+
+    /// 推进足够多的帧，使已经关闭的对象全部被销毁
+    private static void settle(RenderContext cx) throws InterruptedException {
+        cx.waitDeviceIdle();
+        for (int i = 0; i < SETTLE_FRAMES; i++) {
+            cx.gc();
+        }
+        Thread.sleep(SETTLE_MILLIS);
+    }
+
+    private static long directMemoryUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        throw new IllegalStateException("找不到 direct 缓冲池");
+    }
+
+    private static long taskBytes(RenderContext cx) {
+        return cx.memoryStatistics().taggedBytes.getOrDefault(MLP.MEMORY_TAG_TASK, 0L);
+    }
+
+    private static final MLPOptions OPTIONS = new MLPOptions(
+            2,
+            List.of(
+                    new MLPOptions.Layer(16, Activation.RELU, 16),
+                    new MLPOptions.Layer(16, Activation.RELU, 16),
+                    new MLPOptions.Layer(2, Activation.LINEAR, 2)
+            ),
+            true
+    );
+    private static final int BATCH_SIZE = 64;
+    private static final int WARMUP_CYCLES = 100;
+    private static final int SOAK_CYCLES = Integer.getInteger("rkt.soak.cycles", 50_000);
+    private static final int SETTLE_FRAMES = 16;
+    private static final long SETTLE_MILLIS = 200;
+    /// 与循环次数无关的固定余量，容纳分配器与缓冲池统计本身的抖动
+    private static final long DIRECT_MEMORY_SLACK = 64 * 1024;
+    /// 每个循环允许的本地内存增长。每个循环至少分配数 KiB 的描述符结构，只要其中有任何一块没有被释放就会超出
+    private static final long DIRECT_MEMORY_BUDGET_PER_CYCLE = 8;
+}
@@ -0,0 +1,99 @@
+package club.doki7.rkt.vk.cmd;
+
+import club.doki7.rkt.TestContext;
+import club.doki7.rkt.vk.RenderContext;
+import club.doki7.rkt.vk.common.QueueFamily;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class SubmitInfoTest {
+    /// 反复提交同一个 {@link SubmitInfo}，用 JFR 记录提交路径上的堆分配。
+    ///
+    /// JFR 只在线程换用新的 TLAB 或者在 TLAB 之外分配时产生事件，但每次提交哪怕只分配一个很小的对象，
+    /// {@link #ITERATIONS} 次提交累计的分配量也会远超过 TLAB 的大小，因此没有事件就说明提交本身不分配
+    @Test
+    void submitDoesNotAllocate() throws Exception {
+        try (TestContext testContext = TestContext.create()) {
+            RenderContext cx = testContext.cx;
+            QueueFamily queueFamily = cx.hasComputeQueue() ? QueueFamily.COMPUTE : QueueFamily.GRAPHICS;
+            SubmitInfo submitInfo = new SubmitInfo(List.of(), List.of(), List.of(), List.of());
+
+            // 预热，使提交路径上的方法被编译，一次性的初始化也在记录开始之前完成
+            submitRepeatedly(cx, submitInfo, queueFamily, WARMUP_ITERATIONS);
+
+            Path dump = Files.createTempFile("submit-info", ".jfr");
+            try {
+                try (Recording recording = new Recording()) {
+                    recording.enable("jdk.ObjectAllocationInNewTLAB").withStackTrace();
+                    recording.enable("jdk.ObjectAllocationOutsideTLAB").withStackTrace();
+                    recording.start();
+                    submitRepeatedly(cx, submitInfo, queueFamily, ITERATIONS);
+                    recording.stop();
+                    recording.dump(dump);
+                }
+
+                List<String> allocations = submitAllocations(dump, Thread.currentThread().threadId());
+                assertTrue(allocations.isEmpty(), () -> "提交时在堆上分配了对象: " + allocations);
+            } finally {
+                Files.deleteIfExists(dump);
+            }
+        }
+    }
+
+    private static void submitRepeatedly(
+            RenderContext cx,
+            SubmitInfo submitInfo,
+            QueueFamily queueFamily,
+            int iterations
+    ) throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            cx.submit(submitInfo, null, queueFamily);
+            if (i % SYNC_INTERVAL == SYNC_INTERVAL - 1) {
+                cx.waitDeviceIdle();
+            }
+        }
+        cx.waitDeviceIdle();
+    }
+
+    /// 当前线程上，调用栈中包含 {@link RenderContext} 的提交方法的分配事件
+    private static List<String> submitAllocations(Path dump, long threadId) throws Exception {
+        List<String> allocations = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+            RecordedThread thread = event.getThread("eventThread");
+            RecordedStackTrace stackTrace = event.getStackTrace();
+            if (thread == null || thread.getJavaThreadId() != threadId || stackTrace == null) {
+                continue;
+            }
+
+            List<RecordedFrame> frames = stackTrace.getFrames();
+            if (frames.stream().anyMatch(SubmitInfoTest::isSubmitFrame)) {
+                RecordedFrame top = frames.getFirst();
+                allocations.add(event.getClass("objectClass").getName()
+                                + " @ " + top.getMethod().getType().getName()
+                                + "." + top.getMethod().getName());
+            }
+        }
+        return allocations;
+    }
+
+    private static boolean isSubmitFrame(RecordedFrame frame) {
+        return frame.getMethod().getType().getName().equals(RenderContext.class.getName())
+               && frame.getMethod().getName().startsWith("submit");
+    }
+
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int ITERATIONS = 1_000_000;
+    private static final int SYNC_INTERVAL = 4096;
+}